@@ -1,30 +1,50 @@
 package com.tinmegali.hamer;
 
-import android.os.CountDownTimer;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.tinmegali.hamer.looper.CountdownScheduler;
+import com.tinmegali.hamer.looper.TickSchedule;
+
 /**
- * A HandlerThread with a simple CountDownTimer
+ * A HandlerThread with a simple countdown timer
  * It helps to understand how Handler can be used to create communication
  * between different background Threads
  *
  * Receiver a Handler associated with the {@link WorkerThread} and
  * send back the CountDown results via Message objects
  *
+ * The timer ticks on this Thread Looper, whatever the Thread
+ * that starts it. Its ticks are planned by a {@link TickSchedule}
+ * against {@link SystemClock#uptimeMillis()}, so the Looper
+ * delays don't accumulate. Starting it again restarts it,
+ * and {@link #cancelCounter()} stops it.
+ *
+ * Many countdowns can run at once with {@link #startCountdown(int, long, long)}.
+ * They share a single tick source, a {@link CountdownScheduler} on
+ * this Thread Looper, and their ticks are sent together
+ * with {@link #KEY_MSG_TICKS}. The Thread must be started.
  */
 public class CounterThread extends HandlerThread {
 
     private static final String TAG = CounterThread.class.getSimpleName();
 
     private Handler responseHandler;
-    private boolean isTicking;
+
+    // runs the timer on this Thread, created on the first use
+    private Handler counterHandler;
+    // the running timer, only used on this Thread
+    private Counter counter;
+
+    // multiplexes the countdowns, created on the first use
+    private CountdownScheduler countdowns;
 
     /**
      * Receives a response Handler to deliver the results
-     * of the CountDownTimer to the {@link WorkerThread}
+     * of the timer to the {@link WorkerThread}
      */
     public CounterThread(final Handler responseHandler) {
         super(TAG);
@@ -32,24 +52,98 @@ public class CounterThread extends HandlerThread {
     }
 
     // Simple timer to show how it is possible to communicate between Threads
+    // It ticks right away, then every tickTime, restarting a running timer.
+    // The Thread must be started.
     public void startCounter(long totalTime, long tickTime){
         Log.d(TAG, "startCounter("+totalTime+","+tickTime+")");
-        if ( isTicking )
-            return;
-
-        new CountDownTimer(totalTime, tickTime) {
+        final TickSchedule schedule =
+                new TickSchedule(SystemClock.uptimeMillis(), totalTime, tickTime);
+        counterHandler().post(new Runnable() {
             @Override
-            public void onTick(long millisUntilFinished) {
-                sendTick(millisUntilFinished / 1000);
-                isTicking = true;
+            public void run() {
+                // a running timer is replaced
+                stopCounter();
+                counter = new Counter(schedule);
+                counter.run();
             }
+        });
+    }
 
+    /**
+     * Stops the running timer, sending {@link #KEY_MSG_CANCELLED}
+     */
+    public void cancelCounter() {
+        Log.d(TAG, "cancelCounter()");
+        counterHandler().post(new Runnable() {
             @Override
-            public void onFinish() {
+            public void run() {
+                if ( stopCounter() )
+                    responseHandler.sendMessage(Message.obtain(responseHandler, KEY_MSG_CANCELLED));
+            }
+        });
+    }
+
+    // removes the running timer, returns false if there's none
+    private boolean stopCounter() {
+        if ( counter == null )
+            return false;
+        counterHandler.removeCallbacks(counter);
+        counter = null;
+        return true;
+    }
+
+    private synchronized Handler counterHandler() {
+        if ( counterHandler == null )
+            counterHandler = new Handler(getLooper());
+        return counterHandler;
+    }
+
+    /**
+     * A tick of the timer, posted again for the next tick
+     * until it's done. Runs on the CounterThread.
+     */
+    private class Counter implements Runnable {
+        private final TickSchedule schedule;
+
+        Counter(TickSchedule schedule) {
+            this.schedule = schedule;
+        }
+
+        @Override
+        public void run() {
+            long now = SystemClock.uptimeMillis();
+            if ( schedule.isDone(now) ) {
+                counter = null;
+                if ( schedule.getSkipped() > 0 )
+                    Log.d(TAG, "Counter: skipped " + schedule.getSkipped() + " late ticks");
                 sendTimerDone();
-                isTicking = false;
+                return;
             }
-        }.start();
+            // seconds rounded up, a 10s timer shows 10 to 1
+            sendTick((schedule.remaining(now) + 999) / 1000);
+            counterHandler.postAtTime(this, schedule.nextTickAt(now));
+        }
+    }
+
+    /**
+     * Starts a countdown on this Thread, restarting it if
+     * the id is already running. Its ticks are sent with
+     * {@link #KEY_MSG_TICKS}, batched with the other countdowns.
+     */
+    public void startCountdown(int id, long totalTime, long tickTime) {
+        Log.d(TAG, "startCountdown(" + id + ", " + totalTime + ", " + tickTime + ")");
+        countdowns().start(id, totalTime, tickTime);
+    }
+
+    public void cancelCountdown(int id) {
+        Log.d(TAG, "cancelCountdown(" + id + ")");
+        countdowns().cancel(id);
+    }
+
+    private synchronized CountdownScheduler countdowns() {
+        if ( countdowns == null )
+            countdowns = new CountdownScheduler(getLooper(), responseHandler, KEY_MSG_TICKS);
+        return countdowns;
     }
 
     // Sends the tick information to the WorkerThread via Handler
@@ -62,6 +156,9 @@ public class CounterThread extends HandlerThread {
     // to correctly identify the messages
     public static final int KEY_MSG_TICK    = 0;
     public static final int KEY_MSG_DONE    = 1;
+    // obj: List of CountdownScheduler.Tick
+    public static final int KEY_MSG_TICKS   = 2;
+    public static final int KEY_MSG_CANCELLED = 3;
 
 
     private void sendTimerDone(){
@@ -4,7 +4,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 import android.view.Menu;
@@ -12,13 +11,19 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.*;
+import com.tinmegali.hamer.download.BatchTracker;
+import com.tinmegali.hamer.looper.ProfiledHandler;
 import com.tinmegali.hamer.util.BaseActivity;
 
+import java.io.File;
+
 /**
  * Activity that illustrate the use of {@link android.os.Message} objects.
  *
  * It calls methods on the {@link WorkerThread} to download a image,
- * download a random image or start a count down counter.
+ * download a random image, download all the images
+ * or start a count down counter. All the images can also be
+ * downloaded on the {@link #workerGroup}, one WorkerThread per core.
  *
  * All those tasks are done asynchronously on the {@link #workerThread}
  * using Message objects called  on the thread.
@@ -41,6 +46,10 @@ public class MessageActivity extends BaseActivity {
     // BackgroundTread responsible to download the Image
     protected WorkerThread workerThread;
 
+    // WorkerThreads that download the images on every core,
+    // sharing the cache of the workerThread
+    protected WorkerGroup workerGroup;
+
     // Handler that allows communication between
     // the WorkerThread and the Activity
     protected MessageHandler uiHandler;
@@ -56,10 +65,14 @@ public class MessageActivity extends BaseActivity {
         Button btn2 = (Button) findViewById(R.id.btn_2);
         Button btn3 = (Button) findViewById(R.id.btn_3);
         Button btn4 = (Button) findViewById(R.id.btn_4);
+        Button btn5 = (Button) findViewById(R.id.btn_5);
+        Button btn6 = (Button) findViewById(R.id.btn_6);
         btn.setOnClickListener(this);
         btn2.setOnClickListener(this);
         btn3.setOnClickListener(this);
         btn4.setOnClickListener(this);
+        btn5.setOnClickListener(this);
+        btn6.setOnClickListener(this);
 
         uiHandler = new MessageHandler();
         startFragRetainer();
@@ -98,12 +111,19 @@ public class MessageActivity extends BaseActivity {
             if ( workerThread != null ) {
                 workerThread.onDestroy();
             }
+            if ( workerGroup != null ) {
+                workerGroup.onDestroy();
+            }
         } else {
             Log.d(TAG, "onDestroy()");
             if ( workerThread != null ) {
                 workerThread.onDestroy();
                 workerThread.quit();
             }
+            if ( workerGroup != null ) {
+                workerGroup.onDestroy();
+                workerGroup.quit();
+            }
         }
 
     }
@@ -127,6 +147,14 @@ public class MessageActivity extends BaseActivity {
                 startMessageDelay();
                 break;
             }
+            case R.id.btn_5:{
+                downloadAllImages();
+                break;
+            }
+            case R.id.btn_6:{
+                downloadAllImagesSharded();
+                break;
+            }
         }
     }
 
@@ -138,8 +166,15 @@ public class MessageActivity extends BaseActivity {
         Log.d(TAG, "initWorkerThread()");
         if ( workerThread == null ) {
             workerThread = new WorkerThread(uiHandler);
+            workerThread.setCacheDir(new File(getCacheDir(), IMAGE_CACHE_DIR));
+            // stale images are shown right away and refreshed in background
+            workerThread.getImageLoader().setStaleWhileRevalidate(true);
             workerThread.start();
             workerThread.prepareHandler();
+            // random images are downloaded while the WorkerThread is idle
+            workerThread.enablePrefetch();
+            // a new download replaces the image of the previous ones
+            workerThread.setLatestWins(true);
         }
     }
 
@@ -150,13 +185,50 @@ public class MessageActivity extends BaseActivity {
     private void downloadImage() {
         Log.d(TAG, "downloadWithMessage()");
         initWorkerThread();
-        workerThread.downloadWithMessage();
+        // the image is decoded to the size of the ImageView
+        workerThread.downloadWithMessage(myImage.getWidth(), myImage.getHeight());
     }
 
     private void downloadRndImage(){
         Log.d(TAG, "downloadRndImage()");
         initWorkerThread();
-        workerThread.downloadRandomWithMessage();
+        workerThread.downloadRandomWithMessage(myImage.getWidth(), myImage.getHeight());
+    }
+
+    /**
+     * Asks the {@link #workerThread} to download all its images
+     * with a single Message, receiving each one as it's loaded
+     */
+    private void downloadAllImages(){
+        Log.d(TAG, "downloadAllImages()");
+        initWorkerThread();
+        workerThread.downloadBatchWithMessage(myImage.getWidth(), myImage.getHeight());
+    }
+
+    /**
+     * Initialize the {@link WorkerGroup} instance
+     * only if hasn't been initialized yet.
+     */
+    public void initWorkerGroup(){
+        Log.d(TAG, "initWorkerGroup()");
+        initWorkerThread();
+        if ( workerGroup == null ) {
+            workerGroup = new WorkerGroup(uiHandler, null);
+            // a single cache, the images are released to the workerThread
+            workerGroup.setImageLoader(workerThread.getImageLoader());
+            workerGroup.start();
+        }
+    }
+
+    /**
+     * Asks the {@link #workerGroup} to download all the images,
+     * each url on its own shard
+     */
+    private void downloadAllImagesSharded(){
+        Log.d(TAG, "downloadAllImagesSharded()");
+        initWorkerGroup();
+        workerGroup.downloadWithMessage(workerThread.getImagesUrls(),
+                myImage.getWidth(), myImage.getHeight());
     }
 
     private void startCounter(){
@@ -180,6 +252,16 @@ public class MessageActivity extends BaseActivity {
     public static final int KEY_MSG_IMAGE       = 2;
     public static final int KEY_MSG_PROGRESS    = 3;
     public static final int KEY_MSG_TOAST       = 4;
+    public static final int KEY_MSG_DOWNLOAD_PROGRESS = 5;
+    public static final int KEY_MSG_BATCH_DONE  = 6;
+    public static final int KEY_MSG_TIMED_OUT   = 7;
+
+    // the replaced image can be reused by the WorkerThread
+    @Override
+    protected void onImageReplaced(Bitmap previous) {
+        if ( workerThread != null )
+            workerThread.releaseBitmap(previous);
+    }
 
     /**
      * Handler responsible to manage communication
@@ -187,7 +269,22 @@ public class MessageActivity extends BaseActivity {
      * back to the {@link MessageActivity} and handle
      * those Messages
      */
-    public class MessageHandler extends Handler {
+    public class MessageHandler extends ProfiledHandler {
+        @Override
+        protected String whatName(int what) {
+            switch ( what ) {
+                case KEY_MSG_FEEDBACK: return "KEY_MSG_FEEDBACK";
+                case KEY_MSG_FEEDBACK_OP: return "KEY_MSG_FEEDBACK_OP";
+                case KEY_MSG_IMAGE: return "KEY_MSG_IMAGE";
+                case KEY_MSG_PROGRESS: return "KEY_MSG_PROGRESS";
+                case KEY_MSG_TOAST: return "KEY_MSG_TOAST";
+                case KEY_MSG_DOWNLOAD_PROGRESS: return "KEY_MSG_DOWNLOAD_PROGRESS";
+                case KEY_MSG_BATCH_DONE: return "KEY_MSG_BATCH_DONE";
+                case KEY_MSG_TIMED_OUT: return "KEY_MSG_TIMED_OUT";
+                default: return super.whatName(what);
+            }
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
@@ -204,7 +301,10 @@ public class MessageActivity extends BaseActivity {
                 // handle image
                 case KEY_MSG_IMAGE:{
                     Bitmap bmp = (Bitmap) msg.obj;
-                    myImage.setImageBitmap(bmp);
+                    // the replaced image can be reused by the WorkerThread
+                    Bitmap previous = replaceImage(bmp);
+                    if ( workerThread != null )
+                        workerThread.releaseBitmap(previous);
                     break;
                 }
                 // handle progressBar calls
@@ -215,6 +315,24 @@ public class MessageActivity extends BaseActivity {
                         progressBar.setVisibility(View.GONE);
                     break;
                 }
+                // handle download progress
+                // arg1: percent, -1 if unknown; arg2: KB downloaded
+                case KEY_MSG_DOWNLOAD_PROGRESS: {
+                    feedback.setText(downloadProgressText(msg.arg1, msg.arg2 * 1024L));
+                    break;
+                }
+                // handle the summary of a batch download
+                case KEY_MSG_BATCH_DONE: {
+                    BatchTracker.Summary summary = (BatchTracker.Summary) msg.obj;
+                    operation.setText(summary.toString());
+                    break;
+                }
+                // handle a download that didn't end before its deadline
+                // obj: the url, null for a batch
+                case KEY_MSG_TIMED_OUT: {
+                    feedback.setText(timedOutText((String) msg.obj));
+                    break;
+                }
 
                 // handle toast sent with a Message delay
                 case KEY_MSG_TOAST:{
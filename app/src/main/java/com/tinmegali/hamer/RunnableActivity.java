@@ -8,8 +8,12 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.widget.*;
+import com.tinmegali.hamer.looper.ProfiledHandler;
+import com.tinmegali.hamer.looper.UiUpdateBatcher;
 import com.tinmegali.hamer.util.BaseActivity;
 
+import java.io.File;
+
 /**
  * Activity that illustrates the use of posting {@link Runnable}
  *
@@ -56,7 +60,8 @@ public class RunnableActivity extends BaseActivity
         Button btn2 = (Button) findViewById(R.id.btn_2);
         btn2.setOnClickListener(this);
 
-        uiHandler = new Handler();
+        // records the dispatch of the Runnables posted by the WorkerThread
+        uiHandler = new ProfiledHandler();
         startFragRetainer();
         recoverData();
     }
@@ -69,6 +74,7 @@ public class RunnableActivity extends BaseActivity
         if( workerThread != null){
             workerThread.setCallback(this);
             workerThread.setResponseHandler(uiHandler);
+            workerThread.setUiBatcher(new UiUpdateBatcher(this));
         }
     }
 
@@ -80,6 +86,17 @@ public class RunnableActivity extends BaseActivity
         retainedFragment.putObj(WorkerThread.TAG, workerThread);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // the workerThread is retained during configuration changes
+        if ( !isChangingConfigurations() && workerThread != null ) {
+            Log.d(TAG, "onDestroy()");
+            workerThread.onDestroy();
+            workerThread.quit();
+        }
+    }
+
     @Override
     public void onClick(View view) {
         switch (view.getId()) {
@@ -102,6 +119,9 @@ public class RunnableActivity extends BaseActivity
         Log.d(TAG, "initWorkerThread()");
         if ( workerThread == null ) {
             workerThread = new WorkerThread(uiHandler, this);
+            workerThread.setCacheDir(new File(getCacheDir(), IMAGE_CACHE_DIR));
+            // the UI updates are merged and applied once per frame
+            workerThread.setUiBatcher(new UiUpdateBatcher(this));
             workerThread.start();
             workerThread.prepareHandler();
         }
@@ -115,7 +135,8 @@ public class RunnableActivity extends BaseActivity
         Log.d(TAG, "downloadWithRunnable()");
 
         initWorkerThread();
-        workerThread.downloadWithRunnable();
+        // the image is decoded to the size of the ImageView
+        workerThread.downloadWithRunnable(myImage.getWidth(), myImage.getHeight());
     }
 
     /**
@@ -155,7 +176,17 @@ public class RunnableActivity extends BaseActivity
     @Override
     public void loadImage(Bitmap image) {
         Log.d(TAG, "loadImage("+image+")");
-        myImage.setImageBitmap(image);
+        // the replaced image can be reused by the WorkerThread
+        Bitmap previous = replaceImage(image);
+        if ( workerThread != null )
+            workerThread.releaseBitmap(previous);
+    }
+
+    // the replaced image can be reused by the WorkerThread
+    @Override
+    protected void onImageReplaced(Bitmap previous) {
+        if ( workerThread != null )
+            workerThread.releaseBitmap(previous);
     }
 
     /**
@@ -171,6 +202,26 @@ public class RunnableActivity extends BaseActivity
             progressBar.setVisibility(View.GONE);
     }
 
+    /**
+     * Callback from {@link WorkerThread}
+     * Shows the download progress on {@link #feedback}
+     */
+    @Override
+    public void showDownloadProgress(int percent, long bytesRead) {
+        Log.d(TAG, "showDownloadProgress("+percent+")");
+        feedback.setText(downloadProgressText(percent, bytesRead));
+    }
+
+    /**
+     * Callback from {@link WorkerThread}
+     * Shows a download that didn't end before its deadline on {@link #feedback}
+     */
+    @Override
+    public void showTimedOut(String url) {
+        Log.d(TAG, "showTimedOut("+url+")");
+        feedback.setText(timedOutText(url));
+    }
+
     /**
      * Callback from {@link WorkerThread}
      * Uses {@link #runOnUiThread(Runnable)} to illustrate
@@ -0,0 +1,255 @@
+package com.tinmegali.hamer;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.tinmegali.hamer.download.DownloadPool;
+import com.tinmegali.hamer.download.ImageLoader;
+import com.tinmegali.hamer.eventloop.ConsistentHashRing;
+import com.tinmegali.hamer.looper.ShardLoad;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A group of {@link WorkerThread} shards, so the decode and
+ * dispatch work uses every core instead of a single Thread.
+ *
+ * Work is routed by a key, usually the image url, through a
+ * {@link ConsistentHashRing}. The same key always runs on the
+ * same shard: the tasks of a key keep their order and find
+ * its data warm on that core, while different keys run in parallel.
+ *
+ * The shards share one {@link ImageLoader}, so there's still a single
+ * cache, and one count of the running downloads, so the progressBar
+ * is shown while any shard downloads.
+ *
+ * Every shard gets its own lane, a {@link DownloadPool} with a
+ * single Thread: the fetch and decode of a key run on the lane of its
+ * shard, one after another in the order they were requested, and the
+ * decodes of different shards run on different cores. A pool shared by
+ * the shards would run the downloads of a key on any Thread, in any order.
+ *
+ * The load of every shard is kept on a {@link ShardLoad},
+ * see {@link #getStats()} and {@link #getImbalance()}.
+ */
+public class WorkerGroup {
+
+    private static final String TAG = WorkerGroup.class.getSimpleName();
+
+    // Threads of the lane of every shard. More than one
+    // would let two downloads of a key overtake each other
+    private static final int LANE_THREADS = 1;
+
+    private final WorkerThread[] shards;
+    private final ShardLoad[] loads;
+    private final ConsistentHashRing<WorkerThread> ring;
+
+    // directory of the shared disk cache, may be null
+    private File cacheDir;
+    // loader shared by the shards, created on start() if none was given
+    private ImageLoader imageLoader;
+    // downloads running on every shard, the progressBar is shown while above zero
+    private final AtomicInteger activeDownloads = new AtomicInteger();
+
+    /**
+     * @param responseHandler   Handler of the UI, shared by the shards
+     * @param callback          Callback of the UI, shared by the shards
+     * @param shardCount        number of WorkerThreads
+     */
+    public WorkerGroup(Handler responseHandler, WorkerThread.Callback callback, int shardCount) {
+        if ( shardCount <= 0 )
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        shards = new WorkerThread[shardCount];
+        loads = new ShardLoad[shardCount];
+        List<WorkerThread> nodes = new ArrayList<>(shardCount);
+        for ( int i = 0; i < shardCount; i++ ) {
+            shards[i] = callback != null ?
+                    new WorkerThread(responseHandler, callback) : new WorkerThread(responseHandler);
+            shards[i].setName(WorkerThread.TAG + "-" + i);
+            shards[i].setActiveDownloads(activeDownloads);
+            loads[i] = new ShardLoad();
+            nodes.add(shards[i]);
+        }
+        ring = new ConsistentHashRing<>(nodes);
+    }
+
+    /**
+     * A group with one shard per core
+     */
+    public WorkerGroup(Handler responseHandler, WorkerThread.Callback callback) {
+        this(responseHandler, callback, defaultShardCount());
+    }
+
+    public static int defaultShardCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Define the directory of the shared disk cache.
+     * It must be called before {@link #start()}
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Define the loader shared by the shards, like the one of
+     * another WorkerThread, so they all use the same cache.
+     * It must be called before {@link #start()}, the
+     * {@link #setCacheDir(File)} is ignored then.
+     */
+    public void setImageLoader(ImageLoader imageLoader) {
+        this.imageLoader = imageLoader;
+    }
+
+    /**
+     * Starts the shards and prepares their Handlers
+     */
+    public void start() {
+        Log.d(TAG, "start(): " + shards.length + " shards");
+        if ( imageLoader == null ) {
+            imageLoader = cacheDir != null ? new ImageLoader(cacheDir) : new ImageLoader();
+            WorkerThread.enableResilience(imageLoader.getFetcher());
+        }
+        for ( WorkerThread shard : shards ) {
+            shard.setImageLoader(imageLoader);
+            // the lane is shut down when the shard quits
+            shard.setDownloadPool(new DownloadPool(LANE_THREADS, LANE_THREADS));
+            shard.start();
+            shard.prepareHandler();
+        }
+    }
+
+    public void quit() {
+        Log.d(TAG, "quit(): " + getStats());
+        for ( WorkerThread shard : shards )
+            shard.quit();
+    }
+
+    /**
+     * Shard where the key is handled
+     */
+    public WorkerThread shardFor(String key) {
+        return ring.get(key);
+    }
+
+    /**
+     * Runs the Runnable on the shard of the key. Runnables
+     * of the same key run in the order they were executed.
+     */
+    public void execute(String key, final Runnable runnable) {
+        int index = ring.indexFor(key);
+        final ShardLoad load = loads[index];
+        load.onQueued();
+        boolean queued = shards[index].execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    runnable.run();
+                } finally {
+                    load.onFinished(System.nanoTime() - start);
+                }
+            }
+        });
+        if ( !queued ) {
+            // the shard is quitting, the Runnable never runs
+            load.onFinished(0);
+        }
+    }
+
+    /**
+     * Downloads the url on its shard, sending the image to the UI,
+     * see {@link WorkerThread#downloadWithMessage(String, int, int)}.
+     * The downloads of the same url run in the order they were requested.
+     * The download is pending on the {@link ShardLoad} until it ends,
+     * its CPU time is the busy time of the shard.
+     */
+    public void downloadWithMessage(String urlStr, int reqWidth, int reqHeight) {
+        int index = ring.indexFor(urlStr);
+        final ShardLoad load = loads[index];
+        load.onQueued();
+        shards[index].downloadWithMessage(urlStr, reqWidth, reqHeight,
+                new WorkerThread.OnDownloadEndListener() {
+                    @Override
+                    public void onDownloadEnd(String urlStr, long cpuMillis) {
+                        load.onFinished(TimeUnit.MILLISECONDS.toNanos(cpuMillis));
+                    }
+                });
+    }
+
+    /**
+     * Downloads every url on its shard, see {@link #downloadWithMessage(String, int, int)}.
+     * The urls of different shards are downloaded and decoded in parallel.
+     */
+    public void downloadWithMessage(String[] urls, int reqWidth, int reqHeight) {
+        for ( String urlStr : urls )
+            downloadWithMessage(urlStr, reqWidth, reqHeight);
+    }
+
+    public void setResponseHandler(Handler responseHandler) {
+        for ( WorkerThread shard : shards )
+            shard.setResponseHandler(responseHandler);
+    }
+
+    public void setCallback(WorkerThread.Callback callback) {
+        for ( WorkerThread shard : shards )
+            shard.setCallback(callback);
+    }
+
+    public void cancelDownloads() {
+        for ( WorkerThread shard : shards )
+            shard.cancelDownloads();
+    }
+
+    /**
+     * Hook method called from the uiThread
+     */
+    public void onDestroy() {
+        for ( WorkerThread shard : shards )
+            shard.onDestroy();
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public ShardLoad getLoad(int shard) {
+        return loads[shard];
+    }
+
+    /**
+     * Imbalance of the work routed to the shards, see {@link ShardLoad#imbalance(long[])}
+     */
+    public double getImbalance() {
+        long[] routed = new long[loads.length];
+        for ( int i = 0; i < loads.length; i++ )
+            routed[i] = loads[i].getRouted();
+        return ShardLoad.imbalance(routed);
+    }
+
+    /**
+     * Imbalance of the time the shards were busy running
+     * tasks and the CPU time of their downloads
+     */
+    public double getBusyImbalance() {
+        long[] busy = new long[loads.length];
+        for ( int i = 0; i < loads.length; i++ )
+            busy[i] = loads[i].getBusyNanos();
+        return ShardLoad.imbalance(busy);
+    }
+
+    public String getStats() {
+        StringBuilder stats = new StringBuilder();
+        for ( int i = 0; i < loads.length; i++ )
+            stats.append("shard ").append(i).append(": ").append(loads[i].getStats()).append('\n');
+        stats.append(String.format(Locale.US, "imbalance=%.2f busyImbalance=%.2f",
+                getImbalance(), getBusyImbalance()));
+        return stats.toString();
+    }
+}
@@ -1,19 +1,41 @@
 package com.tinmegali.hamer;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.*;
 import android.util.Log;
+import com.tinmegali.hamer.download.BatchTracker;
+import com.tinmegali.hamer.download.CancellationToken;
+import com.tinmegali.hamer.download.CancelledException;
+import com.tinmegali.hamer.download.DeadlineExceededException;
+import com.tinmegali.hamer.download.DownloadPool;
+import com.tinmegali.hamer.download.HedgePolicy;
+import com.tinmegali.hamer.download.IdlePrefetcher;
+import com.tinmegali.hamer.download.ImageFetcher;
+import com.tinmegali.hamer.download.ImageLoader;
+import com.tinmegali.hamer.download.ImageRequest;
+import com.tinmegali.hamer.download.RetryPolicy;
+import com.tinmegali.hamer.looper.AdmissionControl;
+import com.tinmegali.hamer.looper.CoalescingScheduler;
+import com.tinmegali.hamer.looper.CountdownScheduler;
+import com.tinmegali.hamer.looper.DispatchProfiler;
+import com.tinmegali.hamer.looper.Priority;
+import com.tinmegali.hamer.looper.PriorityScheduler;
+import com.tinmegali.hamer.looper.ProfiledHandler;
+import com.tinmegali.hamer.looper.UiUpdateBatcher;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.File;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A background Thread that download images
@@ -27,10 +49,47 @@ import java.net.URL;
  * {@link #responseHandler} Handler received from the {@link MessageActivity} and {@link RunnableActivity}
  *                          responsible to post/send Runnable/Message on the UI.
  *
+ * {@link #uiBatcher}       optional, replaces the {@link #responseHandler} for the
+ *                          feedback, operation, image and progress Runnables,
+ *                          merging them into one UI dispatch per frame.
+ *                          The Message path always sends Messages
+ *
  * {@link #handlerMsgImgDownloader}  send and processes download Messages on the WorkerThread
+ *                                   dispatching the downloads to the {@link #downloadPool}
+ *
+ * {@link #scheduler}       runs the work of the WorkerThread by {@link Priority},
+ *                          instead of the Looper FIFO order: the toasts and the
+ *                          timer ticks are IMMEDIATE, the downloads USER_VISIBLE
+ *                          and the disk cache warm-up BACKGROUND
+ *
+ * {@link #admission}       bounds the downloads in flight, queued on the {@link #scheduler}
+ *                          or running on the {@link #downloadPool}, shedding the
+ *                          excess by an {@link AdmissionControl.Policy}
+ *
+ * {@link #timers}          hands the scheduled Runnables to the {@link #scheduler},
+ *                          grouping the ones with overlapping tolerance
+ *                          windows into a single wakeup
+ *
+ * {@link #imageLoader}     download and decode images, checking
+ *                          its caches before any network I/O
  *
  * {@link #handlerCounter}  receive Messages from {@link CounterThread} with
- *                          'tick' and 'done' information
+ *                          'tick' and 'done' information, and the batched
+ *                          ticks of the countdowns
+ *
+ * {@link #prefetcher}      optional, downloads the {@link #imagesUrls}
+ *                          while the WorkerThread is idle
+ *
+ * Every download is a {@link DownloadTask} with a {@link CancellationToken}.
+ * {@link #cancelDownloads()} removes the queued tasks and aborts
+ * the running ones, it's called when the UI is destroyed. With
+ * {@link #latestWins} a new download cancels the previous ones.
+ *
+ * Every task also has a deadline, {@link #taskDeadlineMillis} after
+ * it was requested. It bounds the socket timeouts of the download,
+ * so a hung socket can't hold the task forever, and it's checked
+ * between the stages: leaving the queue, loading and delivering.
+ * A task past its deadline is stopped and reported as timed out.
  *
  * # All imagesUrls taken from https://pixabay.com/
  */
@@ -47,13 +106,98 @@ public class WorkerThread extends HandlerThread {
     // on the UI. The callback will help on this process.
     private WeakReference<Handler> responseHandler;
 
+    // merges the UI updates, applying them once per frame
+    private volatile UiUpdateBatcher uiBatcher;
+
     // send and processes download Messages on the WorkerThread
     private HandlerMsgImgDownloader handlerMsgImgDownloader;
 
+    // queues the download Runnables and Messages by priority
+    private PriorityScheduler scheduler;
+
+    // runs the scheduled Runnables, coalescing their wakeups
+    private CoalescingScheduler timers;
+
+    // Default limits of the admission
+    public static final int DEFAULT_MAX_IN_FLIGHT_DOWNLOADS = 8;
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 500;
+
+    // downloads that can be in flight, queued or running, the excess is shed
+    private volatile AdmissionControl<DownloadTask> admission =
+            newAdmission(AdmissionControl.Policy.REJECT, DEFAULT_MAX_IN_FLIGHT_DOWNLOADS,
+                    DEFAULT_BLOCK_TIMEOUT_MILLIS);
+
+    // Default limits of the downloadPool
+    public static final int DEFAULT_MAX_DOWNLOADS = 4;
+    public static final int DEFAULT_MAX_DOWNLOADS_PER_HOST = 4;
+
+    // downloads of a batch running at the same time, leaving
+    // room on the downloadPool for the single downloads
+    public static final int DEFAULT_BATCH_CONCURRENCY = 3;
+
+    // bounded pool where the download Messages are executed,
+    // allowing multiple images to be downloaded in parallel
+    private DownloadPool downloadPool;
+
+    // download and decode the images, keeping
+    // a memory cache of the Bitmaps already loaded
+    private ImageLoader imageLoader;
+
+    // the image shown on the UI, a refresh of an older
+    // download can't replace the image of a newer one
+    private final Object imageSlot = new Object();
+
+    // directory of the disk cache used by the imageLoader
+    private File cacheDir;
+
+    // downloads dispatched to the downloadPool that didn't finish yet.
+    // used to show/hide the progressBar only once for a burst of downloads.
+    // Shared by the shards of a WorkerGroup
+    private volatile AtomicInteger activeDownloads = new AtomicInteger();
+
+    // warms the cache with the imagesUrls when the Looper is idle.
+    // Only created by enablePrefetch()
+    private IdlePrefetcher prefetcher;
+
+    // downloads requested and not finished yet.
+    // The prefetcher is paused while there's any
+    private final AtomicInteger pendingWork = new AtomicInteger();
+
+    // download tasks queued or running. Guarded by 'tasks'
+    private final Set<DownloadTask> tasks = new HashSet<>();
+
+    // a new download cancels the downloads not finished yet,
+    // they would be replaced on the UI anyway
+    private volatile boolean latestWins;
+
+    // Default time a download task has to end, counted from the request
+    public static final long DEFAULT_TASK_DEADLINE_MILLIS = 20 * 1000;
+
+    // deadline of the new tasks, 0 for none
+    private volatile long taskDeadlineMillis = DEFAULT_TASK_DEADLINE_MILLIS;
+
+    // tasks that expired, by the stage where the deadline passed:
+    // waiting on the queue, loading the image or about to deliver it
+    private final AtomicInteger expiredQueued = new AtomicInteger();
+    private final AtomicInteger expiredLoading = new AtomicInteger();
+    private final AtomicInteger expiredDelivering = new AtomicInteger();
+
+    // work lost by cancelled downloads
+    private final AtomicInteger cancelledDownloads = new AtomicInteger();
+    private final AtomicLong wastedBytes = new AtomicLong();
+    private final AtomicLong wastedCpuMillis = new AtomicLong();
+
     // receive Messages from CounterThread with
     // 'tick' and 'done' information
     private HandlerCounter handlerCounter;
 
+    // remaining millis of the running countdowns, by id.
+    // Used on the WorkerThread only, by the handlerCounter
+    private final HashMap<Integer, Long> countdowns = new HashMap<>();
+    // the timer is ticking and the progress is shown. Same as above
+    private boolean timerRunning;
+    private boolean counterProgress;
+
     // Callback from the UI
     // it is a WeakReference because it can be unvalidated
     // during "configuration changes" and other events
@@ -105,8 +249,372 @@ public class WorkerThread extends HandlerThread {
      */
     public void onDestroy(){
         Log.d(TAG, "onDestroy()");
+        // the results couldn't reach the UI anymore
+        cancelDownloads();
         responseHandler = null;
         callback = null;
+        if ( uiBatcher != null )
+            Log.d(TAG, "onDestroy(): ui updates " + uiBatcher.getStats());
+        uiBatcher = null;
+    }
+
+    /**
+     * Quits the Looper and shuts down the {@link #downloadPool}
+     */
+    @Override
+    public boolean quit() {
+        Log.d(TAG, "quit(): queue wait " + getQueueWaitStats());
+        Log.d(TAG, "quit(): dispatches\n" + getDispatchStats());
+        Log.d(TAG, "quit(): scheduled " + getWakeupStats());
+        Log.d(TAG, "quit(): admission " + getAdmissionStats());
+        Log.d(TAG, "quit(): network " + getResilienceStats());
+        Log.d(TAG, "quit(): deadlines " + getDeadlineStats());
+        cancelDownloads();
+        disablePrefetch();
+        shutdownDownloadPool();
+        quitCounterThread();
+        return super.quit();
+    }
+
+    @Override
+    public boolean quitSafely() {
+        Log.d(TAG, "quitSafely(): queue wait " + getQueueWaitStats());
+        Log.d(TAG, "quitSafely(): dispatches\n" + getDispatchStats());
+        Log.d(TAG, "quitSafely(): scheduled " + getWakeupStats());
+        Log.d(TAG, "quitSafely(): admission " + getAdmissionStats());
+        Log.d(TAG, "quitSafely(): network " + getResilienceStats());
+        Log.d(TAG, "quitSafely(): deadlines " + getDeadlineStats());
+        cancelDownloads();
+        disablePrefetch();
+        shutdownDownloadPool();
+        quitCounterThread();
+        return super.quitSafely();
+    }
+
+    private synchronized void quitCounterThread() {
+        if ( counterThread != null )
+            counterThread.quit();
+    }
+
+    /**
+     * Define the pool used to execute the download Messages.
+     * It must be called before the first download,
+     * otherwise a pool with the default limits
+     * {@link #DEFAULT_MAX_DOWNLOADS} and {@link #DEFAULT_MAX_DOWNLOADS_PER_HOST}
+     * is created.
+     * @param downloadPool  pool that will run the downloads
+     */
+    public synchronized void setDownloadPool(DownloadPool downloadPool) {
+        Log.d(TAG, "setDownloadPool("+downloadPool+")");
+        this.downloadPool = downloadPool;
+    }
+
+    // get the downloadPool, creating one with default limits if needed
+    private synchronized DownloadPool getDownloadPool() {
+        if ( downloadPool == null )
+            downloadPool = new DownloadPool(DEFAULT_MAX_DOWNLOADS, DEFAULT_MAX_DOWNLOADS_PER_HOST);
+        return downloadPool;
+    }
+
+    /**
+     * Define the counter of the running downloads, the progressBar
+     * is shown while it's above zero. The shards of a {@link WorkerGroup}
+     * share one, so the progressBar stays visible while any of them downloads.
+     * It must be called before the first download.
+     */
+    void setActiveDownloads(AtomicInteger activeDownloads) {
+        this.activeDownloads = activeDownloads;
+    }
+
+    /**
+     * Define the ImageLoader used by the downloads.
+     * Allows multiple WorkerThreads to share the same cache.
+     * @param imageLoader   loader used to download the images
+     */
+    public synchronized void setImageLoader(ImageLoader imageLoader) {
+        Log.d(TAG, "setImageLoader("+imageLoader+")");
+        this.imageLoader = imageLoader;
+    }
+
+    /**
+     * Define the directory where the downloaded images are persisted.
+     * It must be called before the first download.
+     * Without it the images are cached only in memory.
+     * @param cacheDir  disk cache directory
+     */
+    public synchronized void setCacheDir(File cacheDir) {
+        Log.d(TAG, "setCacheDir("+cacheDir+")");
+        this.cacheDir = cacheDir;
+    }
+
+    // get the imageLoader, creating one with default caches if needed
+    public synchronized ImageLoader getImageLoader() {
+        if ( imageLoader == null ) {
+            imageLoader = cacheDir != null ?
+                    new ImageLoader(cacheDir) : new ImageLoader();
+            enableResilience(imageLoader.getFetcher());
+        }
+        return imageLoader;
+    }
+
+    /**
+     * Retries the failed downloads with backoff and
+     * hedges the ones slower than the usual p95
+     */
+    static void enableResilience(ImageFetcher fetcher) {
+        fetcher.setRetryPolicy(RetryPolicy.DEFAULT);
+        fetcher.setHedgePolicy(new HedgePolicy());
+    }
+
+    /**
+     * Gives back a Bitmap that the UI isn't showing anymore,
+     * so its memory can be reused by the next downloads.
+     * Must be called for every Bitmap received from the WorkerThread.
+     * @param bitmap    Bitmap replaced on the UI
+     */
+    public void releaseBitmap(Bitmap bitmap) {
+        getImageLoader().release(bitmap);
+    }
+
+    /**
+     * The urls downloaded by the random and batch downloads
+     */
+    public String[] getImagesUrls() {
+        return imagesUrls.clone();
+    }
+
+    /**
+     * Prefetch the {@link #imagesUrls} while the WorkerThread is idle,
+     * so a random download is loaded from the cache.
+     * The prefetch is paused whenever a download is requested.
+     * It must be called after the Thread has started.
+     * @param budgetBytes   maximum bytes spent prefetching
+     */
+    public synchronized void enablePrefetch(long budgetBytes) {
+        Log.d(TAG, "enablePrefetch("+budgetBytes+")");
+        if ( prefetcher != null )
+            return;
+        prefetcher = new IdlePrefetcher(getLooper(), getImageLoader(),
+                getDownloadPool(), imagesUrls, budgetBytes);
+        if ( pendingWork.get() > 0 )
+            prefetcher.pause();
+        prefetcher.start();
+    }
+
+    public void enablePrefetch() {
+        enablePrefetch(IdlePrefetcher.DEFAULT_BUDGET_BYTES);
+    }
+
+    public synchronized void disablePrefetch() {
+        if ( prefetcher != null ) {
+            Log.d(TAG, "disablePrefetch(): " + prefetcher.getStats());
+            prefetcher.stop();
+            prefetcher = null;
+        }
+    }
+
+    // a download was requested, the prefetcher must wait
+    private void startWork() {
+        if ( pendingWork.getAndIncrement() == 0 ) {
+            synchronized (this) {
+                if ( prefetcher != null )
+                    prefetcher.pause();
+            }
+        }
+    }
+
+    // a download ended, the prefetcher continues if it was the last one
+    private void endWork() {
+        if ( pendingWork.decrementAndGet() == 0 ) {
+            synchronized (this) {
+                if ( prefetcher != null )
+                    prefetcher.resume();
+            }
+        }
+    }
+
+    /**
+     * Defines the "latest wins" mode, where a new download
+     * cancels all the downloads that didn't finish yet.
+     */
+    public void setLatestWins(boolean latestWins) {
+        Log.d(TAG, "setLatestWins("+latestWins+")");
+        this.latestWins = latestWins;
+    }
+
+    /**
+     * Cancels every download requested and not finished yet.
+     * Queued downloads are removed from the Looper, running
+     * downloads have their connection aborted and skip the decode.
+     */
+    public void cancelDownloads() {
+        cancelDownloadsExcept(null);
+    }
+
+    private void cancelDownloadsExcept(DownloadTask latest) {
+        List<DownloadTask> toCancel;
+        synchronized (tasks) {
+            toCancel = new ArrayList<>(tasks);
+        }
+        toCancel.remove(latest);
+        if ( !toCancel.isEmpty() )
+            Log.d(TAG, "cancelDownloads(): " + toCancel.size() + " tasks");
+        for ( DownloadTask task : toCancel )
+            task.cancel();
+    }
+
+    /**
+     * Defines how many downloads can be in flight, waiting on the
+     * WorkerThread or running on the {@link #downloadPool},
+     * and what happens to the ones above the limit.
+     * {@link AdmissionControl.Policy#BLOCK} blocks the caller, so it's
+     * meant for callers that aren't the UI Thread.
+     * Downloads already in flight keep their previous admission.
+     * @param policy                what happens when the queue is full
+     * @param maxInFlight           downloads that can be in flight
+     * @param blockTimeoutMillis    maximum wait of a blocked caller
+     */
+    public void setAdmission(AdmissionControl.Policy policy, int maxInFlight, long blockTimeoutMillis) {
+        Log.d(TAG, "setAdmission("+policy+", "+maxInFlight+", "+blockTimeoutMillis+")");
+        admission = newAdmission(policy, maxInFlight, blockTimeoutMillis);
+    }
+
+    // a shed download that was queued is cancelled, removing it from the scheduler
+    private AdmissionControl<DownloadTask> newAdmission(
+            AdmissionControl.Policy policy, int maxInFlight, long blockTimeoutMillis) {
+        return new AdmissionControl<>(maxInFlight, policy, blockTimeoutMillis,
+                new AdmissionControl.Evictor<DownloadTask>() {
+                    @Override
+                    public void evict(DownloadTask task) {
+                        Log.d(TAG, "evict(): download shed " + task.urls[0]);
+                        task.cancel();
+                    }
+                });
+    }
+
+    /**
+     * Retries and hedged requests of the downloads
+     */
+    public synchronized String getResilienceStats() {
+        return imageLoader != null ? imageLoader.getFetcher().getResilienceStats() : "-";
+    }
+
+    /**
+     * Downloads accepted and shed by the admission
+     */
+    public String getAdmissionStats() {
+        return admission.getStats();
+    }
+
+    /**
+     * Time the tasks waited before running, by {@link Priority},
+     * on the WorkerThread and on the {@link #downloadPool}
+     */
+    public synchronized String getQueueWaitStats() {
+        return "looper: " + (scheduler != null ? scheduler.getWaitStats().getStats() : "-")
+                + " | pool: " + (downloadPool != null ? downloadPool.getWaitStats().getStats() : "-");
+    }
+
+    /**
+     * Queue-wait, handle time and queue depth of the Messages
+     * handled by the WorkerThread, the {@link CounterThread}
+     * and the UI Handlers, recorded by the {@link DispatchProfiler}
+     */
+    public String getDispatchStats() {
+        return DispatchProfiler.get().dump();
+    }
+
+    /**
+     * Scheduled Runnables and the wakeups saved by running them together
+     */
+    public String getWakeupStats() {
+        return timers != null ? timers.getStats() : "-";
+    }
+
+    /**
+     * Runs the Runnable on the WorkerThread at the uptime, or
+     * up to toleranceMillis later, sharing the wakeup with the
+     * other scheduled Runnables whose windows overlap.
+     * Once due, it waits on the {@link #scheduler} by its priority.
+     * It must be called after {@link #prepareHandler()}
+     * @return  a token to {@link #cancelScheduled(Object)} it
+     */
+    public Object scheduleAtTime(Priority priority, Runnable runnable,
+                                 long uptimeMillis, long toleranceMillis) {
+        return timers.postAtTime(priority, runnable, uptimeMillis, toleranceMillis);
+    }
+
+    /**
+     * Same as {@link #scheduleAtTime(Priority, Runnable, long, long)}, after a delay
+     */
+    public Object scheduleDelayed(Priority priority, Runnable runnable,
+                                  long delayMillis, long toleranceMillis) {
+        return timers.postDelayed(priority, runnable, delayMillis, toleranceMillis);
+    }
+
+    public boolean cancelScheduled(Object token) {
+        return timers.cancel(token);
+    }
+
+    /**
+     * Work lost by the cancelled downloads: bytes
+     * downloaded and CPU time spent before the cancel
+     */
+    public String getCancellationStats() {
+        return "cancelled=" + cancelledDownloads.get()
+                + " wastedBytes=" + wastedBytes.get()
+                + " wastedCpuMs=" + wastedCpuMillis.get();
+    }
+
+    /**
+     * Defines the deadline of the next download tasks
+     * @param deadlineMillis    time a task has to end, counted
+     *                          from its request. 0 for no deadline
+     */
+    public void setTaskDeadline(long deadlineMillis) {
+        Log.d(TAG, "setTaskDeadline("+deadlineMillis+")");
+        this.taskDeadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Tasks stopped by their deadline, by the
+     * stage where the deadline passed
+     */
+    public String getDeadlineStats() {
+        return "expired queued=" + expiredQueued.get()
+                + " loading=" + expiredLoading.get()
+                + " delivering=" + expiredDelivering.get();
+    }
+
+    // a new download arrived, cancels the previous ones on latestWins mode.
+    // Returns null if the admission shed it, the download must not be queued
+    private DownloadTask newTask(int kind, String... urls) {
+        return newTask(kind, null, urls);
+    }
+
+    // same as newTask(int, String...), the endListener is told when the task ends
+    private DownloadTask newTask(int kind, OnDownloadEndListener endListener, String... urls) {
+        DownloadTask task = new DownloadTask(endListener, urls);
+        if ( latestWins )
+            cancelDownloadsExcept(task);
+        AdmissionControl<DownloadTask> admission = this.admission;
+        if ( !admission.admit(kind, task) ) {
+            Log.d(TAG, "newTask(): shed, " + admission.getStats());
+            task.shed();
+            return null;
+        }
+        task.admission = admission;
+        if ( task.token.isCancelled() ) {
+            // cancelled while the caller was blocked
+            admission.leave(task);
+            return null;
+        }
+        return task;
+    }
+
+    private synchronized void shutdownDownloadPool() {
+        if ( downloadPool != null )
+            downloadPool.shutdown();
     }
 
     /**
@@ -118,6 +626,20 @@ public class WorkerThread extends HandlerThread {
         this.responseHandler = new WeakReference<>(responseHandler);
     }
 
+    /**
+     * Send the feedback, operation, image and progress updates
+     * of the Runnable path through a batcher, applied once per
+     * frame, instead of a Runnable per update.
+     * The Message path isn't batched, the {@link MessageActivity}
+     * receives every update as a Message on its Handler.
+     * Toasts are still sent by the {@link #responseHandler}
+     * @param uiBatcher batcher created by the UI, null to disable it
+     */
+    public void setUiBatcher(UiUpdateBatcher uiBatcher) {
+        Log.d(TAG, "setUiBatcher("+uiBatcher+")");
+        this.uiBatcher = uiBatcher;
+    }
+
     /**
      * reestablish a Callback with the UI after a destruct event
      * @param callback  received from the UI.
@@ -133,7 +655,26 @@ public class WorkerThread extends HandlerThread {
      */
     public void prepareHandler() {
         Log.d(TAG, "prepareHandler()");
-        postHandler = new Handler(getLooper());
+        postHandler = new ProfiledHandler(getLooper());
+        scheduler = new PriorityScheduler(getLooper());
+        timers = new CoalescingScheduler(getLooper(), scheduler);
+        // reads and compacts the disk cache journal before the first
+        // download needs it, behind any download requested meanwhile
+        scheduler.post(Priority.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                getImageLoader().getDiskCache();
+            }
+        });
+    }
+
+    /**
+     * post a Runnable to the WorkerThread, after the
+     * Runnables already posted by this method.
+     * It must be called after {@link #prepareHandler()}
+     */
+    public boolean execute(Runnable runnable) {
+        return postHandler.post(runnable);
     }
 
     /**
@@ -144,30 +685,61 @@ public class WorkerThread extends HandlerThread {
      * help from the {@link #callback}
      */
     public void downloadWithRunnable() {
-        Log.d(TAG, "downloadWithRunnable()");
+        downloadWithRunnable(0, 0);
+    }
+
+    /**
+     * Same as {@link #downloadWithRunnable()}, but the
+     * image is decoded sized to the target, usually the ImageView size.
+     * @param reqWidth  target width, 0 for any width
+     * @param reqHeight target height, 0 for any height
+     */
+    public void downloadWithRunnable(final int reqWidth, final int reqHeight) {
+        Log.d(TAG, "downloadWithRunnable("+reqWidth+", "+reqHeight+")");
         showOperationOnUI("Downloading image with Runnable");
+        final DownloadTask task = newTask(RUNNABLE_DOWNLOAD_IMG, imageAUrl);
+        if ( task == null ) {
+            showOperationOnUI("Too many downloads, request shed");
+            return;
+        }
 
-        // post Runnable to WorkerThread
-        postHandler.post(new Runnable() {
+        // post Runnable to WorkerThread, through the scheduler
+        // so it doesn't wait behind background work.
+        // The task is the Runnable token, so cancel() can remove it
+        scheduler.post(Priority.USER_VISIBLE, new Runnable() {
             @Override
             public void run() {
+                task.started();
+                if ( task.expiredAt(expiredQueued) ) {
+                    // waited too long behind other work
+                    showTimedOutOnUI(task.urls[0]);
+                    task.finish(0);
+                    return;
+                }
+                long cpuStart = SystemClock.currentThreadTimeMillis();
                 try {
                     // showing progress on the UI
                     showProgress();
                     // showing feedback text on the UI
                     showFeedbackOnUI("Executing operation...");
-                    // sleeps for 2 seconds to emulate long running operation
-                    TimeUnit.SECONDS.sleep(2);
+                    // sleeps for 2 seconds to emulate long running operation.
+                    // The sleep ends earlier on a cancel or at the deadline
+                    task.token.sleep(TimeUnit.SECONDS.toMillis(2));
                     // Download image and sends to UI
-                    downloadImage(imageAUrl);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    downloadImage(task, reqWidth, reqHeight);
+                } catch (DeadlineExceededException e) {
+                    task.expiredAt(expiredLoading);
+                    showTimedOutOnUI(task.urls[0]);
+                } catch (CancelledException e) {
+                    Log.d(TAG, "downloadWithRunnable(): cancelled");
+                } finally {
+                    task.finish(SystemClock.currentThreadTimeMillis() - cpuStart);
                 }
                 // Hide progressBar and sends feedback to UI
                 hideProgress();
                 showOperationOnUI("Runnable operation ended");
             }
-        });
+        }, task);
     }
 
     /**
@@ -198,18 +770,20 @@ public class WorkerThread extends HandlerThread {
         Log.d(TAG, "toastAtTime(): scheduling at - " + scheduledDate.toString());
         long scheduled = calculateUptimeMillis(scheduledDate);
 
-        // posting Runnable at specific time
-        postHandler.postAtTime(
+        // scheduling Runnable at specific time. It can run up to
+        // a second later, sharing the wakeup with other scheduled work.
+        // The toast is UI feedback, it runs ahead of the downloads
+        scheduleAtTime(Priority.IMMEDIATE,
                 new Runnable() {
             @Override
             public void run() {
-                if ( callback != null ) {
+                if ( callback != null && callback.get() != null ) {
                     callback.get().showToast(
                             "Toast called using 'postAtTime()'."
                     );
                 }
             }
-        }, scheduled);
+        }, scheduled, CoalescingScheduler.DEFAULT_TOLERANCE_MILLIS);
     }
 
     /**
@@ -230,6 +804,9 @@ public class WorkerThread extends HandlerThread {
      */
     private final int MSG_DOWNLOAD_IMG = 0;         // msg that download a single img
     private final int MSG_DOWNLOAD_RANDOM_IMG = 1;  // msg that download random img
+    private final int MSG_DOWNLOAD_BATCH = 2;       // msg that download a batch of imgs
+    // kind of the download posted as a Runnable, used by the admission
+    private final int RUNNABLE_DOWNLOAD_IMG = -1;
 
     /**
      * sends a Message to the current Thread
@@ -237,12 +814,53 @@ public class WorkerThread extends HandlerThread {
      * to download a single image.
      */
     public void downloadWithMessage(){
-        Log.d(TAG, "downloadWithMessage()");
+        downloadWithMessage(0, 0);
+    }
+
+    /**
+     * sends a Message to the current Thread
+     * using the {@link #handlerMsgImgDownloader}
+     * to download a single image, decoded sized to the target.
+     * The target size travels on {@link Message#arg1} and {@link Message#arg2}
+     * @param reqWidth  target width, 0 for any width
+     * @param reqHeight target height, 0 for any height
+     */
+    public void downloadWithMessage(int reqWidth, int reqHeight){
+        downloadWithMessage(imageBUrl, reqWidth, reqHeight);
+    }
+
+    /**
+     * Same as {@link #downloadWithMessage(int, int)}, for any url.
+     * @param urlStr    image url
+     * @param reqWidth  target width, 0 for any width
+     * @param reqHeight target height, 0 for any height
+     */
+    public void downloadWithMessage(String urlStr, int reqWidth, int reqHeight){
+        downloadWithMessage(urlStr, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * Same as {@link #downloadWithMessage(int, int)}, for any url.
+     * Used by the {@link WorkerGroup} to route the urls to its shards
+     * @param urlStr        image url
+     * @param reqWidth      target width, 0 for any width
+     * @param reqHeight     target height, 0 for any height
+     * @param endListener   called once when the download ends, may be null
+     */
+    public void downloadWithMessage(String urlStr, int reqWidth, int reqHeight,
+                                    OnDownloadEndListener endListener){
+        Log.d(TAG, "downloadWithMessage("+urlStr+", "+reqWidth+", "+reqHeight+")");
         showOperationOnUIMSG("Sending Message...");
         if ( handlerMsgImgDownloader == null )
             handlerMsgImgDownloader = new HandlerMsgImgDownloader(getLooper());
-        Message message = Message.obtain(handlerMsgImgDownloader, MSG_DOWNLOAD_IMG,imageBUrl);
-        handlerMsgImgDownloader.sendMessage(message);
+        DownloadTask task = newTask(MSG_DOWNLOAD_IMG, endListener, urlStr);
+        if ( task == null ) {
+            showOperationOnUIMSG("Too many downloads, request shed");
+            return;
+        }
+        Message message = Message.obtain(handlerMsgImgDownloader,
+                MSG_DOWNLOAD_IMG, reqWidth, reqHeight, task);
+        scheduler.sendMessage(Priority.USER_VISIBLE, message);
     }
 
     /**
@@ -251,12 +869,70 @@ public class WorkerThread extends HandlerThread {
      * to download a random image.
      */
     public void downloadRandomWithMessage(){
-        Log.d(TAG, "downloadRandomWithMessage()");
+        downloadRandomWithMessage(0, 0);
+    }
+
+    /**
+     * sends a Message to the current Thread
+     * using the {@link #handlerMsgImgDownloader}
+     * to download a random image, decoded sized to the target.
+     * @param reqWidth  target width, 0 for any width
+     * @param reqHeight target height, 0 for any height
+     */
+    public void downloadRandomWithMessage(int reqWidth, int reqHeight){
+        Log.d(TAG, "downloadRandomWithMessage("+reqWidth+", "+reqHeight+")");
         showOperationOnUIMSG("Sending Message...");
         if ( handlerMsgImgDownloader == null )
             handlerMsgImgDownloader = new HandlerMsgImgDownloader(getLooper());
-        Message message = Message.obtain(handlerMsgImgDownloader, MSG_DOWNLOAD_RANDOM_IMG, imagesUrls);
-        handlerMsgImgDownloader.sendMessage(message);
+        DownloadTask task = newTask(MSG_DOWNLOAD_RANDOM_IMG, imagesUrls);
+        if ( task == null ) {
+            showOperationOnUIMSG("Too many downloads, request shed");
+            return;
+        }
+        Message message = Message.obtain(handlerMsgImgDownloader,
+                MSG_DOWNLOAD_RANDOM_IMG, reqWidth, reqHeight, task);
+        scheduler.sendMessage(Priority.USER_VISIBLE, message);
+    }
+
+    /**
+     * sends a single Message to the current Thread
+     * to download all the {@link #imagesUrls}.
+     * @param reqWidth  target width, 0 for any width
+     * @param reqHeight target height, 0 for any height
+     */
+    public void downloadBatchWithMessage(int reqWidth, int reqHeight){
+        downloadBatchWithMessage(imagesUrls, DEFAULT_BATCH_CONCURRENCY, reqWidth, reqHeight);
+    }
+
+    /**
+     * sends a single Message to the current Thread
+     * using the {@link #handlerMsgImgDownloader}
+     * to download a batch of images, instead of a Message per image.
+     * The images are downloaded in parallel, at most maxConcurrent
+     * at a time, and each one is sent to the UI as soon as it's loaded.
+     * When the batch ends the UI receives a {@link BatchTracker.Summary}.
+     * For the admission and the latestWins mode the batch is a single download.
+     * @param urls          images to be downloaded
+     * @param maxConcurrent downloads of the batch running at the same time
+     * @param reqWidth      target width, 0 for any width
+     * @param reqHeight     target height, 0 for any height
+     */
+    public void downloadBatchWithMessage(String[] urls, int maxConcurrent,
+                                         int reqWidth, int reqHeight){
+        Log.d(TAG, "downloadBatchWithMessage("+urls.length+", "+maxConcurrent+")");
+        BatchTracker batch = new BatchTracker(urls, maxConcurrent);
+        showOperationOnUIMSG("Sending batch Message...");
+        if ( handlerMsgImgDownloader == null )
+            handlerMsgImgDownloader = new HandlerMsgImgDownloader(getLooper());
+        DownloadTask task = newTask(MSG_DOWNLOAD_BATCH, urls);
+        if ( task == null ) {
+            showOperationOnUIMSG("Too many downloads, request shed");
+            return;
+        }
+        task.batch = batch;
+        Message message = Message.obtain(handlerMsgImgDownloader,
+                MSG_DOWNLOAD_BATCH, reqWidth, reqHeight, task);
+        scheduler.sendMessage(Priority.USER_VISIBLE, message);
     }
 
     /**
@@ -265,101 +941,312 @@ public class WorkerThread extends HandlerThread {
      * the {@link Message#what}
      *      {@link #MSG_DOWNLOAD_IMG} : single image
      *      {@link #MSG_DOWNLOAD_RANDOM_IMG} : random image
+     *      {@link #MSG_DOWNLOAD_BATCH} : batch of images
+     * The target size of the image is received
+     * on {@link Message#arg1} (width) and {@link Message#arg2} (height)
+     * and the {@link DownloadTask} on {@link Message#obj}
+     *
+     * The Messages are handled on the WorkerThread, but
+     * the download itself is dispatched to the {@link #downloadPool}.
+     * This way the Looper is free to handle the next Message
+     * while the previous images are still downloading.
      */
-    private class HandlerMsgImgDownloader extends Handler {
+    private class HandlerMsgImgDownloader extends ProfiledHandler {
         private HandlerMsgImgDownloader(Looper looper) {
             super(looper);
         }
 
+        @Override
+        protected String whatName(int what) {
+            switch ( what ) {
+                case MSG_DOWNLOAD_IMG: return "MSG_DOWNLOAD_IMG";
+                case MSG_DOWNLOAD_RANDOM_IMG: return "MSG_DOWNLOAD_RANDOM_IMG";
+                case MSG_DOWNLOAD_BATCH: return "MSG_DOWNLOAD_BATCH";
+                default: return super.whatName(what);
+            }
+        }
+
         @Override
         public void handleMessage(Message msg) {
-            showProgressMSG(true);
             switch ( msg.what ) {
                 case MSG_DOWNLOAD_IMG: {
-                    // receives a single url and download it
-                    String url = (String) msg.obj;
+                    // receives a task with a single url and download it
+                    DownloadTask task = (DownloadTask) msg.obj;
+                    task.started();
+                    if ( expiredOnQueue(task) )
+                        break;
                     showFeedbackOnUIMSG("Executing operation...");
-                    downloadImageMSG(url);
+                    dispatchDownload(task, task.urls[0], msg.arg1, msg.arg2);
                     break;
                 }
                 case MSG_DOWNLOAD_RANDOM_IMG: {
-                    // receives a String[] with multiple urls
+                    // receives a task with multiple urls
                     // download a image randomly
-                    String[] urls = (String[]) msg.obj;
+                    DownloadTask task = (DownloadTask) msg.obj;
+                    task.started();
+                    if ( expiredOnQueue(task) )
+                        break;
                     Random random = new Random();
-                    String url = urls[random.nextInt(urls.length)];
-                    downloadImageMSG(url);
+                    String url = task.urls[random.nextInt(task.urls.length)];
+                    dispatchDownload(task, url, msg.arg1, msg.arg2);
                     showFeedbackOnUIMSG("Executing random download");
+                    break;
+                }
+                case MSG_DOWNLOAD_BATCH: {
+                    // receives a task with a batch of urls
+                    // and download them in parallel
+                    DownloadTask task = (DownloadTask) msg.obj;
+                    task.started();
+                    if ( expiredOnQueue(task) )
+                        break;
+                    showFeedbackOnUIMSG("Executing batch download");
+                    dispatchBatch(task, msg.arg1, msg.arg2);
                 }
             }
-            showProgressMSG(false);
-            showOperationOnUIMSG("Message handled");
         }
     }
 
+    /**
+     * Reports a task that waited on the Looper past its deadline,
+     * it's finished without being started
+     * @return  true if the task expired
+     */
+    private boolean expiredOnQueue(DownloadTask task) {
+        if ( !task.expiredAt(expiredQueued) )
+            return false;
+        Log.d(TAG, "expiredOnQueue(): " + getDeadlineStats());
+        showTimedOutOnUIMSG(task.urls.length == 1 ? task.urls[0] : null);
+        task.finish(0);
+        return true;
+    }
+
+    /**
+     * Executes {@link #downloadImageMSG(DownloadTask, String, int, int)}
+     * on the {@link #downloadPool}.
+     * The progressBar is shown when the first download starts
+     * and hidden when the last running download ends.
+     */
+    private void dispatchDownload(final DownloadTask task, final String url,
+                                  final int reqWidth, final int reqHeight) {
+        Log.d(TAG, "dispatchDownload("+url+")");
+        if ( activeDownloads.getAndIncrement() == 0 )
+            showProgressMSG(true);
+        boolean queued = getDownloadPool().execute(url, Priority.USER_VISIBLE, new Runnable() {
+            @Override
+            public void run() {
+                long cpuStart = SystemClock.currentThreadTimeMillis();
+                try {
+                    // expired or cancelled while waiting for a pool Thread
+                    if ( task.expiredAt(expiredQueued) )
+                        showTimedOutOnUIMSG(url);
+                    else if ( !task.token.isCancelled() )
+                        downloadImageMSG(task, url, reqWidth, reqHeight);
+                } finally {
+                    if ( activeDownloads.decrementAndGet() == 0 )
+                        showProgressMSG(false);
+                    showOperationOnUIMSG("Message handled");
+                    task.finish(SystemClock.currentThreadTimeMillis() - cpuStart);
+                }
+            }
+        });
+        if ( !queued ) {
+            // the pool is shut down, the WorkerThread is quitting
+            activeDownloads.decrementAndGet();
+            task.finish(0);
+        }
+    }
+
+    /**
+     * Starts the first downloads of the batch on the {@link #downloadPool}.
+     * Every download that ends starts the next url of the batch,
+     * so only a few of them use the pool at a time.
+     * The progressBar is shown for the whole batch.
+     */
+    private void dispatchBatch(DownloadTask task, int reqWidth, int reqHeight) {
+        Log.d(TAG, "dispatchBatch("+task.batch.size()+")");
+        if ( task.token.isCancelled() ) {
+            // shed or superseded after being queued
+            task.finish(0);
+            return;
+        }
+        if ( activeDownloads.getAndIncrement() == 0 )
+            showProgressMSG(true);
+        String url;
+        while ( (url = task.batch.nextUrl()) != null )
+            dispatchBatchDownload(task, url, reqWidth, reqHeight);
+    }
+
+    // downloads one url of the batch, starting the next one when it ends
+    private void dispatchBatchDownload(final DownloadTask task, final String url,
+                                       final int reqWidth, final int reqHeight) {
+        boolean queued = getDownloadPool().execute(url, Priority.USER_VISIBLE, new Runnable() {
+            @Override
+            public void run() {
+                long cpuStart = SystemClock.currentThreadTimeMillis();
+                boolean loaded = false;
+                try {
+                    // the deadline is shared by the whole batch,
+                    // its timeout is reported by endBatch()
+                    if ( !task.expiredAt(expiredQueued) && !task.token.isCancelled() )
+                        loaded = downloadImageMSG(task, url, reqWidth, reqHeight);
+                } finally {
+                    task.cpuMillis.addAndGet(SystemClock.currentThreadTimeMillis() - cpuStart);
+                    BatchTracker batch = task.batch;
+                    if ( task.token.isCancelled() )
+                        batch.cancel();
+                    if ( batch.onCompleted(loaded) ) {
+                        endBatch(task);
+                    } else {
+                        showFeedbackOnUIMSG("Batch: " + batch.getCompleted()
+                                + "/" + batch.size() + " images");
+                        String next = batch.nextUrl();
+                        if ( next != null )
+                            dispatchBatchDownload(task, next, reqWidth, reqHeight);
+                    }
+                }
+            }
+        });
+        if ( !queued ) {
+            // the pool is shut down, the rest of the batch is dropped.
+            // The task ends once, whatever the urls still queued
+            task.batch.cancel();
+            task.finish(task.cpuMillis.get());
+        }
+    }
+
+    // the last download of the batch ended, sends its summary to the UI
+    private void endBatch(DownloadTask task) {
+        BatchTracker.Summary summary = task.batch.summary(task.token.getBytesRead());
+        Log.d(TAG, "endBatch(): " + summary);
+        if ( activeDownloads.decrementAndGet() == 0 )
+            showProgressMSG(false);
+        if ( task.token.isExpired() )
+            showTimedOutOnUIMSG(null);
+        else if ( !task.token.isCancelled() )
+            showBatchSummaryOnUIMSG(summary);
+        task.finish(task.cpuMillis.get());
+    }
+
     /**
      * Download a bitmap using its url and
-     * send to the UI the image downloaded
+     * send to the UI the image downloaded.
+     * Images already in the {@link #imageLoader} cache
+     * are sent without any network I/O.
+     * The image is decoded sized to the target, see
+     * {@link ImageLoader#load(ImageRequest)}
+     * A stale image refreshed in background is also sent to the UI.
+     * The download progress is shown while the image is transferred.
+     * A task past its deadline shows a timed out feedback instead.
      */
-    private void downloadImage(String urlStr){
+    private void downloadImage(DownloadTask task, int reqWidth, int reqHeight){
         Log.d(TAG, "downloadImage()");
+        String urlStr = task.urls[0];
+        CancellationToken token = task.token;
 
-        // Create a connection
-        HttpURLConnection connection = null;
-        try {
-            URL url = new URL(urlStr);
-            connection = (HttpURLConnection) url.openConnection();
-
-            // get the stream from the url
-            InputStream in = new BufferedInputStream(connection.getInputStream());
-            final Bitmap bitmap = BitmapFactory.decodeStream(in);
-            if ( bitmap != null ) {
-                // send the bitmap downloaded and a feedback to the UI
-                loadImageOnUI( bitmap );
-                showFeedbackOnUI("Image downloaded");
-            } else {
-                showFeedbackOnUI("Error downloading image");
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if ( connection != null )
-                connection.disconnect();
+        ImageRequest request = new ImageRequest.Builder(urlStr)
+                .size(reqWidth, reqHeight)
+                .cancellationToken(token)
+                .slot(imageSlot)
+                .refreshListener(new ImageLoader.OnRefreshListener() {
+                    @Override
+                    public void onRefreshed(String urlStr, Bitmap bitmap) {
+                        loadImageOnUI( bitmap );
+                        showFeedbackOnUI("Image refreshed");
+                    }
+                })
+                .progressListener(new ImageFetcher.OnProgressListener() {
+                    @Override
+                    public void onProgress(String urlStr, long bytesRead, long contentLength, int percent) {
+                        showDownloadProgressOnUI(percent, bytesRead);
+                    }
+                })
+                .build();
+        final Bitmap bitmap = getImageLoader().load(request);
+        if ( expiredAfterLoad(task, bitmap) ) {
+            showTimedOutOnUI(urlStr);
+            return;
+        }
+        if ( token.isCancelled() ) {
+            // superseded or the UI is gone, nothing is shown
+            Log.d(TAG, "downloadImage(): cancelled");
+            getImageLoader().release(bitmap);
+            return;
+        }
+        if ( bitmap != null ) {
+            // send the bitmap downloaded and a feedback to the UI
+            loadImageOnUI( bitmap );
+            showFeedbackOnUI("Image downloaded");
+        } else {
+            showFeedbackOnUI("Error downloading image");
         }
     }
 
     /**
      * Download a bitmap using its url and
      * send to the UI the image downloaded.
-     * The only difference with {@link #downloadImage(String)}
+     * The only difference with {@link #downloadImage(DownloadTask, int, int)}
      * is that it sends back the image to the UI
      * using a Message
+     * @param urlStr    one of the urls of the task
+     * @return  true if the image was sent to the UI
      */
-    private void downloadImageMSG(String urlStr){
-        Log.d(TAG, "downloadImage()");
+    private boolean downloadImageMSG(DownloadTask task, String urlStr,
+                                     int reqWidth, int reqHeight){
+        Log.d(TAG, "downloadImageMSG()");
+        CancellationToken token = task.token;
 
-        // Create a connection
-        HttpURLConnection connection = null;
-        try {
-            URL url = new URL(urlStr);
-            connection = (HttpURLConnection) url.openConnection();
-
-            // get the stream from the url
-            InputStream in = new BufferedInputStream(connection.getInputStream());
-            final Bitmap bitmap = BitmapFactory.decodeStream(in);
-            if ( bitmap != null ) {
-                // send the bitmap downloaded and a feedback to the UI
-                loadImageOnUIMSG( bitmap );
-                showFeedbackOnUIMSG("Image downloaded");
-            } else {
-                showFeedbackOnUIMSG("Error downloading image");
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if ( connection != null )
-                connection.disconnect();
+        ImageRequest request = new ImageRequest.Builder(urlStr)
+                .size(reqWidth, reqHeight)
+                .cancellationToken(token)
+                .slot(imageSlot)
+                .refreshListener(new ImageLoader.OnRefreshListener() {
+                    @Override
+                    public void onRefreshed(String urlStr, Bitmap bitmap) {
+                        loadImageOnUIMSG( bitmap );
+                        showFeedbackOnUIMSG("Image refreshed");
+                    }
+                })
+                .progressListener(new ImageFetcher.OnProgressListener() {
+                    @Override
+                    public void onProgress(String urlStr, long bytesRead, long contentLength, int percent) {
+                        showDownloadProgressOnUIMSG(percent, bytesRead);
+                    }
+                })
+                .build();
+        final Bitmap bitmap = getImageLoader().load(request);
+        if ( expiredAfterLoad(task, bitmap) ) {
+            showTimedOutOnUIMSG(urlStr);
+            return false;
+        }
+        if ( token.isCancelled() ) {
+            // superseded or the UI is gone, nothing is shown
+            Log.d(TAG, "downloadImageMSG(): cancelled");
+            getImageLoader().release(bitmap);
+            return false;
         }
+        if ( bitmap != null ) {
+            // send the bitmap downloaded and a feedback to the UI
+            loadImageOnUIMSG( bitmap );
+            showFeedbackOnUIMSG("Image downloaded");
+            return true;
+        } else {
+            showFeedbackOnUIMSG("Error downloading image");
+            return false;
+        }
+    }
+
+    /**
+     * Checks the deadline after the image load. Without a Bitmap
+     * the deadline passed while connecting, reading or decoding,
+     * otherwise before the delivery and the Bitmap is released.
+     * @return  true if the task expired
+     */
+    private boolean expiredAfterLoad(DownloadTask task, Bitmap bitmap) {
+        if ( !task.expiredAt(bitmap == null ? expiredLoading : expiredDelivering) )
+            return false;
+        Log.d(TAG, "expiredAfterLoad(): " + getDeadlineStats());
+        getImageLoader().release(bitmap);
+        return true;
     }
 
     /**
@@ -367,7 +1254,9 @@ public class WorkerThread extends HandlerThread {
      *
      * send a Message with delayed time on the WorkerThread
      * and sends a new Message to {@link MessageActivity}
-     * with a text after the message is processed
+     * with a text after the message is processed.
+     * The delay has a tolerance, so the Message shares
+     * the wakeup with other scheduled work
      */
     public void startMessageDelay(){
         Log.d(TAG, "startMessageDelay()");
@@ -377,70 +1266,181 @@ public class WorkerThread extends HandlerThread {
         String msgText = "Hello from WorkerThread!";
 
         // Handler responsible to send Message to WorkerThread
-        // using Handler.Callback() to avoid the need to extend the Handler class
-        Handler handler = new Handler(new Handler.Callback() {
+        // using Handler.Callback() to avoid the need to extend the Handler class.
+        // The Message is handled on the WorkerThread and
+        // sent straight to the UI from there
+        Handler handler = new Handler(getLooper(), new Handler.Callback() {
             @Override
             public boolean handleMessage(Message msg) {
-                responseHandler.get().sendMessage(
-                        responseHandler.get().obtainMessage(MessageActivity.KEY_MSG_TOAST, msg.obj)
-                );
+                if ( checkResponse() ) {
+                    sendMsgToUI(
+                            responseHandler.get().obtainMessage(MessageActivity.KEY_MSG_TOAST, msg.obj)
+                    );
+                }
                 return true;
             }
         });
 
-        // sending message
-        handler.sendMessageDelayed(
-                handler.obtainMessage(0,msgText),
-                delay
+        // sending message after the delay, or up to a second
+        // later, sharing the wakeup with other scheduled work.
+        // The toast is UI feedback, it runs ahead of the downloads
+        timers.sendMessageDelayed(
+                Priority.IMMEDIATE,
+                handler.obtainMessage(0, msgText),
+                delay,
+                CoalescingScheduler.DEFAULT_TOLERANCE_MILLIS
         );
-
     }
 
     /**
-     * Start a CountDownTimer on another background Thread.
+     * Start a timer on another background Thread.
      *
      * It shows how it is possible to communicate between
      * background Threads using Handlers.
+     * The ticks are computed on the {@link CounterThread} and
+     * handled on the WorkerThread, the UI only receives the
+     * resulting text. A running timer is restarted.
      */
     public void startTimer(long totalTime, long timeToTick){
         Log.d(TAG, "startTimer("+totalTime+", "+timeToTick+")");
-        if ( counterThread == null ) {
+        counterThread().startCounter(totalTime, timeToTick);
+    }
+
+    public void cancelTimer() {
+        Log.d(TAG, "cancelTimer()");
+        counterThread().cancelCounter();
+    }
+
+    /**
+     * Start one of many countdowns on the {@link CounterThread},
+     * like one per item of a list. All of them share a single
+     * tick source and their ticks arrive together on the
+     * {@link #handlerCounter}.
+     * @param id    identifies the countdown, restarted if it's running
+     */
+    public void startCountdown(int id, long totalTime, long timeToTick) {
+        Log.d(TAG, "startCountdown(" + id + ", " + totalTime + ", " + timeToTick + ")");
+        counterThread().startCountdown(id, totalTime, timeToTick);
+    }
+
+    public void cancelCountdown(int id) {
+        Log.d(TAG, "cancelCountdown(" + id + ")");
+        counterThread().cancelCountdown(id);
+    }
 
+    // creates and starts the CounterThread on the first use
+    private synchronized CounterThread counterThread() {
+        if ( counterThread == null ) {
             // Creates a Handler responsible to manage
             // messages received from CounterThread
-            if ( handlerCounter == null )
-                handlerCounter = new HandlerCounter();
+            // on the WorkerThread
+            handlerCounter = new HandlerCounter(getLooper());
 
             // The new Thread receives a Handler associated with
             // the WorkerTread as parameter.
             counterThread = new CounterThread( handlerCounter );
-        } else {
-            counterThread.quit();
+            counterThread.start();
+        }
+        return counterThread;
+    }
+
+    /**
+     * Shows how many countdowns are running, once per batch of ticks.
+     * Called on the WorkerThread by the {@link #handlerCounter}
+     */
+    private void showCountdownTicks(List<CountdownScheduler.Tick> ticks) {
+        for ( CountdownScheduler.Tick tick : ticks ) {
+            if ( tick.isDone() )
+                countdowns.remove(tick.id);
+            else
+                countdowns.put(tick.id, tick.remainingMillis);
+        }
+        updateCounterProgress();
+        if ( countdowns.isEmpty() ) {
+            showFeedbackOnUIMSG("Countdowns are done!");
+            return;
+        }
+        long next = Long.MAX_VALUE;
+        for ( long remaining : countdowns.values() )
+            next = Math.min(next, remaining);
+        showFeedbackOnUIMSG("Countdowns: " + countdowns.size()
+                + " running, next ends in " + TimeUnit.MILLISECONDS.toSeconds(next) + "s");
+    }
+
+    // shows the progress while the timer or a countdown runs,
+    // sending it to the UI only when it changes
+    private void updateCounterProgress() {
+        boolean running = timerRunning || !countdowns.isEmpty();
+        if ( running != counterProgress ) {
+            counterProgress = running;
+            showProgressMSG(running);
         }
-        counterThread.startCounter(totalTime, timeToTick);
     }
 
     /**
-     * Handler responsible to manage the CountDownTimer.
+     * Handler responsible to manage the timer.
      *
      * It will handle the Messages received from the
-     * {@link CounterThread} with the CountDownTimer info.
+     * {@link CounterThread} with the timer info.
+     * They're dispatched by the {@link #scheduler} as
+     * {@link Priority#IMMEDIATE} work.
      */
-    private class HandlerCounter extends Handler {
+    private class HandlerCounter extends ProfiledHandler {
+        private HandlerCounter(Looper looper) {
+            super(looper);
+        }
+
+        // the ticks are UI feedback: instead of the Looper FIFO, they
+        // wait on the scheduler, ahead of the downloads
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            if ( scheduler == null || uptimeMillis > SystemClock.uptimeMillis() )
+                return super.sendMessageAtTime(msg, uptimeMillis);
+            scheduler.sendMessage(Priority.IMMEDIATE, msg);
+            return true;
+        }
+
+        @Override
+        protected String whatName(int what) {
+            switch ( what ) {
+                case CounterThread.KEY_MSG_TICK: return "KEY_MSG_TICK";
+                case CounterThread.KEY_MSG_DONE: return "KEY_MSG_DONE";
+                case CounterThread.KEY_MSG_TICKS: return "KEY_MSG_TICKS";
+                case CounterThread.KEY_MSG_CANCELLED: return "KEY_MSG_CANCELLED";
+                default: return super.whatName(what);
+            }
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 // Ticking message
                 case CounterThread.KEY_MSG_TICK: {
                     long time = (long) msg.obj;
+                    timerRunning = true;
+                    updateCounterProgress();
                     showFeedbackOnUIMSG("Time remaining: " + Long.toString(time));
-                    showProgressMSG(true);
                     break;
                 }
                 // Done message
                 case CounterThread.KEY_MSG_DONE: {
+                    timerRunning = false;
+                    updateCounterProgress();
                     showFeedbackOnUIMSG("Timer is done!");
-                    showProgressMSG(false);
+                    break;
+                }
+                // Cancelled message
+                case CounterThread.KEY_MSG_CANCELLED: {
+                    timerRunning = false;
+                    updateCounterProgress();
+                    showFeedbackOnUIMSG("Timer cancelled");
+                    break;
+                }
+                // Ticks of the countdowns, batched
+                case CounterThread.KEY_MSG_TICKS: {
+                    @SuppressWarnings("unchecked")
+                    List<CountdownScheduler.Tick> ticks = (List<CountdownScheduler.Tick>) msg.obj;
+                    showCountdownTicks(ticks);
                     break;
                 }
             }
@@ -454,6 +1454,11 @@ public class WorkerThread extends HandlerThread {
      */
     private void showFeedbackOnUI(final String msg) {
         Log.d(TAG, "showFeedbackOnUI(" + msg + ")");
+        UiUpdateBatcher batcher = uiBatcher;
+        if ( batcher != null ) {
+            batcher.setFeedback(msg);
+            return;
+        }
         if ( checkResponse() ) {
             responseHandler.get().post(
                     new Runnable() {
@@ -475,6 +1480,11 @@ public class WorkerThread extends HandlerThread {
      */
     private void showOperationOnUI(final String msg) {
         Log.d(TAG, "showOperationOnUI(" + msg + ")");
+        UiUpdateBatcher batcher = uiBatcher;
+        if ( batcher != null ) {
+            batcher.setOperation(msg);
+            return;
+        }
         if ( checkResponse() ) {
             responseHandler.get().post(
                     new Runnable() {
@@ -496,6 +1506,12 @@ public class WorkerThread extends HandlerThread {
      */
     private void loadImageOnUI(final Bitmap image){
         Log.d(TAG, "loadImageOnUI("+image+")");
+        UiUpdateBatcher batcher = uiBatcher;
+        if ( batcher != null ) {
+            // an image replaced before being shown is reused
+            releaseBitmap(batcher.setImage(image));
+            return;
+        }
         if (checkResponse() ) {
             responseHandler.get().post(
                     new Runnable() {
@@ -505,6 +1521,9 @@ public class WorkerThread extends HandlerThread {
                         }
                     }
             );
+        } else {
+            // nobody will show the image
+            releaseBitmap(image);
         }
     }
     /**
@@ -516,6 +1535,11 @@ public class WorkerThread extends HandlerThread {
      */
     private void showProgress(){
         Log.d(TAG, "showProgress()");
+        UiUpdateBatcher batcher = uiBatcher;
+        if ( batcher != null ) {
+            batcher.setProgressVisible(true);
+            return;
+        }
         if ( checkResponse() ) {
             responseHandler.get().post(
                     new Runnable() {
@@ -528,10 +1552,41 @@ public class WorkerThread extends HandlerThread {
         }
     }
 
+    /**
+     * Show the download progress on the UI.
+     * The updates are already throttled by the {@link ImageFetcher},
+     * so only a few Runnables per download reach the UI.
+     * @param percent   0 to 100, -1 if the image size is unknown
+     * @param bytesRead bytes downloaded so far
+     */
+    private void showDownloadProgressOnUI(final int percent, final long bytesRead){
+        Log.d(TAG, "showDownloadProgressOnUI(" + percent + ")");
+        UiUpdateBatcher batcher = uiBatcher;
+        if ( batcher != null ) {
+            batcher.setDownloadProgress(percent, bytesRead);
+            return;
+        }
+        if ( checkResponse() ) {
+            responseHandler.get().post(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.get().showDownloadProgress(percent, bytesRead);
+                        }
+                    }
+            );
+        }
+    }
+
     // Hide progressBar on the UI.
     // uses same logic as showProgress()
     private void hideProgress(){
         Log.d(TAG, "hideProgress()");
+        UiUpdateBatcher batcher = uiBatcher;
+        if ( batcher != null ) {
+            batcher.setProgressVisible(false);
+            return;
+        }
         if ( checkResponse() ) {
             responseHandler.get().post(
                     new Runnable() {
@@ -599,6 +1654,34 @@ public class WorkerThread extends HandlerThread {
             sendMsgToUI(
                     responseHandler.get().obtainMessage(MessageActivity.KEY_MSG_IMAGE, image)
             );
+        } else {
+            // nobody will show the image
+            releaseBitmap(image);
+        }
+    }
+
+    /**
+     * sends the outcome of a batch to the ui.
+     */
+    private void showBatchSummaryOnUIMSG(BatchTracker.Summary summary){
+        Log.d(TAG, "showBatchSummaryOnUIMSG(" + summary + ")");
+        if ( checkResponse() ) {
+            sendMsgToUI(
+                    responseHandler.get().obtainMessage(MessageActivity.KEY_MSG_BATCH_DONE, summary)
+            );
+        }
+    }
+
+    /**
+     * sends to the ui a download that didn't end before its deadline.
+     * @param urlStr    the url, null for a batch
+     */
+    private void showTimedOutOnUIMSG(String urlStr){
+        Log.d(TAG, "showTimedOutOnUIMSG(" + urlStr + ")");
+        if ( checkResponse() ) {
+            sendMsgToUI(
+                    responseHandler.get().obtainMessage(MessageActivity.KEY_MSG_TIMED_OUT, urlStr)
+            );
         }
     }
 
@@ -616,10 +1699,174 @@ public class WorkerThread extends HandlerThread {
         }
     }
 
+    /**
+     * Show the download progress on the UI using a Message.
+     * The percent travels on {@link Message#arg1}
+     * and the KB downloaded on {@link Message#arg2}
+     */
+    private void showDownloadProgressOnUIMSG(int percent, long bytesRead){
+        Log.d(TAG, "showDownloadProgressOnUIMSG(" + percent + ")");
+        if ( checkResponse() ) {
+            sendMsgToUI(
+                    responseHandler.get().obtainMessage(MessageActivity.KEY_MSG_DOWNLOAD_PROGRESS,
+                            percent, (int) (bytesRead / 1024))
+            );
+        }
+    }
+
+    /**
+     * sends to the ui a download that didn't end before its deadline,
+     * posting a Runnable to the {@link #responseHandler}
+     * and using the {@link Callback}
+     */
+    private void showTimedOutOnUI(final String urlStr) {
+        Log.d(TAG, "showTimedOutOnUI(" + urlStr + ")");
+        if ( checkResponse() ) {
+            responseHandler.get().post(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            if ( callback != null && callback.get() != null )
+                                callback.get().showTimedOut(urlStr);
+                        }
+                    }
+            );
+        }
+    }
+
     // verify if responseHandler is available
     // if not the Activity is passing by some destruction event
     private boolean checkResponse(){
-        return responseHandler.get() != null;
+        return responseHandler != null && responseHandler.get() != null;
+    }
+
+    /**
+     * A download requested to the WorkerThread.
+     * It's the {@link Message#obj} of the download Messages,
+     * or the token of the download Runnable, so a cancel
+     * can remove it from the {@link #scheduler} while it's queued.
+     */
+    private class DownloadTask {
+        // the url, or the urls for a random or batch download
+        final String[] urls;
+        final CancellationToken token = new CancellationToken();
+        // admission where the task is queued, null if it wasn't admitted
+        volatile AdmissionControl<DownloadTask> admission;
+        // urls of a batch download, null for the other downloads
+        volatile BatchTracker batch;
+        // CPU time of the batch downloads, summed by each of them
+        final AtomicLong cpuMillis = new AtomicLong();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        // the expiry was counted, once for the whole task
+        private final AtomicBoolean expiryCounted = new AtomicBoolean();
+        // told when the task ends, may be null
+        private final OnDownloadEndListener endListener;
+
+        DownloadTask(OnDownloadEndListener endListener, String... urls) {
+            this.urls = urls;
+            this.endListener = endListener;
+            long deadline = taskDeadlineMillis;
+            if ( deadline > 0 )
+                token.setDeadline(deadline, TimeUnit.MILLISECONDS);
+            synchronized (tasks) {
+                tasks.add(this);
+            }
+            startWork();
+        }
+
+        /**
+         * Removes the task from the Looper if it's queued,
+         * otherwise aborts its download
+         */
+        void cancel() {
+            if ( !cancelled.compareAndSet(false, true) )
+                return;
+            cancelledDownloads.incrementAndGet();
+            token.cancel();
+            if ( scheduler != null )
+                scheduler.remove(this);
+            // a running task calls finish() later, but
+            // the WorkerThread doesn't wait for it anymore
+            end(0);
+        }
+
+        /**
+         * Checks the deadline between the stages of the task.
+         * An expired task is cancelled by its token.
+         * @param stage counter of the current stage, incremented
+         *              only on the first expiry of the task
+         * @return  true if the deadline passed
+         */
+        boolean expiredAt(AtomicInteger stage) {
+            if ( !token.isExpired() )
+                return false;
+            if ( expiryCounted.compareAndSet(false, true) )
+                stage.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * The task left the scheduler and is running. It keeps
+         * its admission slot until it ends, so the downloads
+         * it hands to the {@link #downloadPool} are still bounded
+         */
+        void started() {
+            if ( admission != null )
+                admission.start(this);
+        }
+
+        /**
+         * The admission didn't accept the task, it's dropped before being queued
+         */
+        void shed() {
+            token.cancel();
+            end(0);
+        }
+
+        /**
+         * The task has run
+         * @param cpuMillis CPU time spent by the task
+         */
+        void finish(long cpuMillis) {
+            if ( token.isCancelled() ) {
+                // the work done was thrown away
+                wastedCpuMillis.addAndGet(cpuMillis);
+                wastedBytes.addAndGet(token.getBytesRead());
+                Log.d(TAG, "DownloadTask: cancelled after " + token.getBytesRead()
+                        + " bytes and " + cpuMillis + "ms CPU");
+            }
+            end(cpuMillis);
+        }
+
+        private void end(long cpuMillis) {
+            if ( !finished.compareAndSet(false, true) )
+                return;
+            synchronized (tasks) {
+                tasks.remove(this);
+            }
+            leaveAdmission();
+            endWork();
+            if ( endListener != null )
+                endListener.onDownloadEnd(urls.length == 1 ? urls[0] : null, cpuMillis);
+        }
+
+        private void leaveAdmission() {
+            if ( admission != null )
+                admission.leave(this);
+        }
+    }
+
+    /**
+     * Receives the end of a download: finished, cancelled, expired
+     * or shed by the admission. Called once, on the Thread that ended it
+     */
+    public interface OnDownloadEndListener {
+        /**
+         * @param urlStr    the url, null for a random or batch download
+         * @param cpuMillis CPU time spent by the download, 0 if it never ran
+         */
+        void onDownloadEnd(String urlStr, long cpuMillis);
     }
 
     /**
@@ -630,7 +1877,9 @@ public class WorkerThread extends HandlerThread {
         void showOperation(String msg);
         void loadImage(Bitmap image);
         void showProgress(boolean show);
+        void showDownloadProgress(int percent, long bytesRead);
         void showToast(String msg);
+        void showTimedOut(String url);
     }
 
 }
@@ -0,0 +1,128 @@
+package com.tinmegali.hamer.download;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a batch of downloads, handing out its urls
+ * so no more than {@link #maxConcurrent} run at the same time.
+ *
+ *      String url = tracker.nextUrl();     // null when there's no slot or url
+ *      ...
+ *      if ( tracker.onCompleted(success) )
+ *          // the batch ended, send tracker.summary(bytes)
+ *      else
+ *          // start tracker.nextUrl(), if any
+ *
+ * A cancelled batch doesn't start its remaining urls,
+ * it ends when the running ones complete.
+ *
+ * Thread safe.
+ */
+public class BatchTracker {
+
+    private final String[] urls;
+    private final int maxConcurrent;
+    private final long startedAt = System.nanoTime();
+
+    // Guarded by 'this'
+    private int next;
+    private int running;
+    private int succeeded;
+    private int failed;
+    private boolean cancelled;
+
+    /**
+     * @param urls          urls of the batch
+     * @param maxConcurrent downloads that can run at the same time
+     */
+    public BatchTracker(String[] urls, int maxConcurrent) {
+        if ( urls.length == 0 )
+            throw new IllegalArgumentException("empty batch");
+        if ( maxConcurrent <= 0 )
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        this.urls = urls.clone();
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Takes the next url to be downloaded
+     * @return  the url, null if the batch is at its
+     *          concurrency limit, cancelled or has no url left
+     */
+    public synchronized String nextUrl() {
+        if ( cancelled || running >= maxConcurrent || next == urls.length )
+            return null;
+        running++;
+        return urls[next++];
+    }
+
+    /**
+     * A download of the batch ended
+     * @param success   the image was loaded
+     * @return          true if it was the last one of the batch
+     */
+    public synchronized boolean onCompleted(boolean success) {
+        if ( running == 0 )
+            throw new IllegalStateException("no download running");
+        running--;
+        if ( success )
+            succeeded++;
+        else
+            failed++;
+        return running == 0 && (cancelled || next == urls.length);
+    }
+
+    /**
+     * The urls not started yet are skipped
+     * @return  true if nothing is running, the batch already ended
+     */
+    public synchronized boolean cancel() {
+        cancelled = true;
+        return running == 0;
+    }
+
+    public int size() {
+        return urls.length;
+    }
+
+    public synchronized int getCompleted() {
+        return succeeded + failed;
+    }
+
+    /**
+     * @param bytes body bytes downloaded by the whole batch
+     */
+    public synchronized Summary summary(long bytes) {
+        return new Summary(urls.length, succeeded, failed, bytes,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+    }
+
+    /**
+     * Outcome of a batch, sent to the UI when it ends
+     */
+    public static final class Summary {
+        public final int total;
+        public final int succeeded;
+        public final int failed;
+        // not started because the batch was cancelled
+        public final int skipped;
+        public final long bytes;
+        public final long elapsedMillis;
+
+        Summary(int total, int succeeded, int failed, long bytes, long elapsedMillis) {
+            this.total = total;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.skipped = total - succeeded - failed;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Batch: " + succeeded + "/" + total + " images, " + failed + " failed"
+                    + (skipped > 0 ? ", " + skipped + " skipped" : "")
+                    + ", " + bytes / 1024 + " KB in " + elapsedMillis + "ms";
+        }
+    }
+}
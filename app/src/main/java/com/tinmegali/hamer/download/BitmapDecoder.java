@@ -0,0 +1,230 @@
+package com.tinmegali.hamer.download;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes Bitmaps sized to a requested target.
+ *
+ * The image bounds are read first, without allocating
+ * any pixels, and used to calculate the
+ * {@link BitmapFactory.Options#inSampleSize}. The image is then
+ * decoded already downsampled by the decoder itself.
+ *
+ * Optionally the result can be scaled one last time
+ * to fit exactly inside the target size.
+ *
+ * When a {@link BitmapPool} is given, files are decoded into
+ * a pooled Bitmap using {@link BitmapFactory.Options#inBitmap}.
+ * All decoded Bitmaps are mutable, so they can be pooled later.
+ *
+ * Cached files are better decoded from their {@link FileDescriptor}:
+ * the decoder reads the file natively, without the Java
+ * buffer {@link BitmapFactory#decodeFile(String)} reads through.
+ *
+ * A requested width or height of 0 means
+ * that dimension isn't constrained.
+ */
+public final class BitmapDecoder {
+
+    private static final String TAG = BitmapDecoder.class.getSimpleName();
+
+    // bytes that can be read from a stream
+    // while decoding the bounds, before the reset
+    static final int BOUNDS_MARK_LIMIT = 1024 * 1024;
+
+    // bytes of a ARGB_8888 pixel, the default decode config
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decodes a file sized to the target,
+     * see {@link #decodeFile(File, int, int, boolean, BitmapPool)}
+     * @param path          image file
+     * @param reqWidth      target width, 0 for any width
+     * @param reqHeight     target height, 0 for any height
+     * @param scaleToTarget scales the result to fit inside the target
+     * @param pool          Bitmaps to be reused, may be null
+     * @return  the Bitmap, null if the file can't be opened or decoded
+     */
+    public static Bitmap decodeFile(String path, int reqWidth, int reqHeight,
+                                    boolean scaleToTarget, BitmapPool pool) {
+        return decodeFile(new File(path), reqWidth, reqHeight, scaleToTarget, pool);
+    }
+
+    /**
+     * Decodes a file sized to the target, reading it through its descriptor.
+     * @param file          image file
+     * @param reqWidth      target width, 0 for any width
+     * @param reqHeight     target height, 0 for any height
+     * @param scaleToTarget scales the result to fit inside the target
+     * @param pool          Bitmaps to be reused, may be null
+     * @return  the Bitmap, null if the file can't be opened or decoded
+     */
+    public static Bitmap decodeFile(File file, int reqWidth, int reqHeight,
+                                    boolean scaleToTarget, BitmapPool pool) {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (IOException e) {
+            Log.w(TAG, "decodeFile(): can't open " + file, e);
+            return null;
+        }
+        try {
+            return decodeFileDescriptor(in.getFD(), reqWidth, reqHeight, scaleToTarget, pool);
+        } catch (IOException e) {
+            Log.w(TAG, "decodeFile(): can't read " + file, e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do, the Bitmap is already decoded
+            }
+        }
+    }
+
+    /**
+     * Decodes a file descriptor sized to the target.
+     * The decoder doesn't change the descriptor position,
+     * so the bounds and the pixels are read from the same descriptor.
+     * @param fd            descriptor of the image file
+     * @param reqWidth      target width, 0 for any width
+     * @param reqHeight     target height, 0 for any height
+     * @param scaleToTarget scales the result to fit inside the target
+     * @param pool          Bitmaps to be reused, may be null
+     */
+    public static Bitmap decodeFileDescriptor(FileDescriptor fd, int reqWidth, int reqHeight,
+                                              boolean scaleToTarget, BitmapPool pool) {
+        // read only the image bounds
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(fd, null, options);
+
+        options.inSampleSize = calculateInSampleSize(
+                options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        if ( pool != null && options.outWidth > 0 && options.outHeight > 0 ) {
+            options.inBitmap = pool.get(decodedByteCount(
+                    options.outWidth, options.outHeight, options.inSampleSize));
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFileDescriptor(fd, null, options);
+        } catch (IllegalArgumentException e) {
+            // the pooled Bitmap can't hold this image,
+            // gives it back and decodes to a new Bitmap
+            Log.w(TAG, "decodeFileDescriptor(): can't reuse Bitmap", e);
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFileDescriptor(fd, null, options);
+        }
+        return scaleToTarget ? scaleToFit(bitmap, reqWidth, reqHeight, pool) : bitmap;
+    }
+
+    /**
+     * Decodes a stream sized to the target.
+     * The stream must support {@link InputStream#mark(int)},
+     * so it can be reset after the bounds are read.
+     * A stream can't be decoded twice, so pooled Bitmaps are
+     * not used here, the result can still be pooled later.
+     * @param in            image stream
+     * @param reqWidth      target width, 0 for any width
+     * @param reqHeight     target height, 0 for any height
+     * @param scaleToTarget scales the result to fit inside the target
+     */
+    public static Bitmap decodeStream(InputStream in, int reqWidth, int reqHeight,
+                                      boolean scaleToTarget, BitmapPool pool)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        if ( (reqWidth <= 0 && reqHeight <= 0) || !in.markSupported() )
+            return BitmapFactory.decodeStream(in, null, options);
+
+        // read only the image bounds
+        options.inJustDecodeBounds = true;
+        in.mark(BOUNDS_MARK_LIMIT);
+        BitmapFactory.decodeStream(in, null, options);
+        in.reset();
+
+        options.inSampleSize = calculateInSampleSize(
+                options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeStream(in, null, options);
+        return scaleToTarget ? scaleToFit(bitmap, reqWidth, reqHeight, pool) : bitmap;
+    }
+
+    /**
+     * Calculates the largest power of 2 sample size that
+     * keeps both dimensions equal or bigger than the target.
+     * @param width     image width
+     * @param height    image height
+     * @param reqWidth  target width, 0 for any width
+     * @param reqHeight target height, 0 for any height
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        if ( width <= 0 || height <= 0 || (reqWidth <= 0 && reqHeight <= 0) )
+            return 1;
+        // an unconstrained dimension never limits the sampling
+        if ( reqWidth <= 0 )
+            reqWidth = 1;
+        if ( reqHeight <= 0 )
+            reqHeight = 1;
+
+        int inSampleSize = 1;
+        if ( width > reqWidth || height > reqHeight ) {
+            int halfWidth = width / 2;
+            int halfHeight = height / 2;
+            while ( (halfWidth / inSampleSize) >= reqWidth
+                    && (halfHeight / inSampleSize) >= reqHeight ) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Bytes needed to decode an image with the given sample size
+     */
+    static int decodedByteCount(int width, int height, int inSampleSize) {
+        int sampledWidth = (width + inSampleSize - 1) / inSampleSize;
+        int sampledHeight = (height + inSampleSize - 1) / inSampleSize;
+        return sampledWidth * sampledHeight * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Scales the Bitmap, keeping its aspect ratio, to fit inside
+     * the target. Smaller Bitmaps are returned as they are.
+     * The original Bitmap goes back to the pool, if any.
+     */
+    static Bitmap scaleToFit(Bitmap bitmap, int reqWidth, int reqHeight, BitmapPool pool) {
+        if ( bitmap == null )
+            return null;
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        float scale = Math.min(
+                reqWidth > 0 ? (float) reqWidth / width : Float.MAX_VALUE,
+                reqHeight > 0 ? (float) reqHeight / height : Float.MAX_VALUE);
+        if ( scale >= 1f )
+            return bitmap;
+
+        int dstWidth = Math.max(1, Math.round(width * scale));
+        int dstHeight = Math.max(1, Math.round(height * scale));
+        Log.d(TAG, "scaleToFit(): " + width + "x" + height + " to " + dstWidth + "x" + dstHeight);
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, dstWidth, dstHeight, true);
+        if ( scaled != bitmap && (pool == null || !pool.put(bitmap)) )
+            bitmap.recycle();
+        return scaled;
+    }
+}
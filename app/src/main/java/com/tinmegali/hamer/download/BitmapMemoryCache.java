@@ -0,0 +1,89 @@
+package com.tinmegali.hamer.download;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * In memory LRU cache of decoded Bitmaps.
+ *
+ * The cache is bounded by the number of bytes used by its Bitmaps,
+ * not by the number of entries. When a new Bitmap doesn't fit,
+ * the least recently used ones are evicted.
+ *
+ * Entries are identified by the url plus the decode parameters
+ * used to create the Bitmap, see {@link #keyFor(String, int, int)}.
+ *
+ * Hits, misses and evictions are counted by the {@link LruCache}
+ * and can be read using {@link #hitCount()}, {@link #missCount()}
+ * and {@link #evictionCount()}.
+ */
+public class BitmapMemoryCache extends LruCache<String, Bitmap> {
+
+    private static final String TAG = BitmapMemoryCache.class.getSimpleName();
+
+    // notified when the cache drops a Bitmap
+    private volatile OnEntryRemovedListener onEntryRemovedListener;
+
+    /**
+     * @param maxBytes  maximum amount of bytes kept by the cache
+     */
+    public BitmapMemoryCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Creates a cache using 1/8 of the memory available to the app
+     */
+    public static BitmapMemoryCache withDefaultSize() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        return new BitmapMemoryCache((int) Math.min(Integer.MAX_VALUE, maxMemory / 8));
+    }
+
+    /**
+     * Creates the cache key for a url and its decode parameters.
+     * @param url           image url
+     * @param reqWidth      width requested to the decoder, 0 for the original size
+     * @param reqHeight     height requested to the decoder, 0 for the original size
+     */
+    public static String keyFor(String url, int reqWidth, int reqHeight) {
+        return url + "#" + reqWidth + "x" + reqHeight;
+    }
+
+    public void setOnEntryRemovedListener(OnEntryRemovedListener listener) {
+        this.onEntryRemovedListener = listener;
+    }
+
+    // the size of an entry is the memory allocated by its Bitmap.
+    // A reused Bitmap may be bigger than the image it holds
+    @Override
+    protected int sizeOf(String key, Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+        if ( evicted )
+            Log.d(TAG, "entryRemoved(): evicted " + key);
+        OnEntryRemovedListener listener = onEntryRemovedListener;
+        if ( listener != null )
+            listener.onEntryRemoved(oldValue);
+    }
+
+    /**
+     * Called when a Bitmap is evicted, removed or replaced
+     */
+    public interface OnEntryRemovedListener {
+        void onEntryRemoved(Bitmap bitmap);
+    }
+
+    /**
+     * Hits, misses and evictions of the cache
+     */
+    public String getStats() {
+        return "hits=" + hitCount()
+                + " misses=" + missCount()
+                + " evictions=" + evictionCount()
+                + " bytes=" + size() + "/" + maxSize();
+    }
+}
@@ -0,0 +1,149 @@
+package com.tinmegali.hamer.download;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of Bitmaps that can be reused by the decoder
+ * through {@link android.graphics.BitmapFactory.Options#inBitmap},
+ * avoiding a new allocation for every decoded image.
+ *
+ * Bitmaps are kept on buckets identified by their
+ * allocation size in bytes. A request receives the smallest
+ * Bitmap big enough to hold the decoded image, as long
+ * as it isn't more than {@link #MAX_SIZE_MULTIPLE} times bigger.
+ *
+ * The pool is bounded by {@link #maxBytes}, when it's full
+ * the Bitmaps from the biggest bucket are dropped first.
+ */
+public class BitmapPool {
+
+    private static final String TAG = BitmapPool.class.getSimpleName();
+
+    // a reused Bitmap can be at most this times bigger than the request
+    static final int MAX_SIZE_MULTIPLE = 2;
+
+    private final long maxBytes;
+
+    // Bitmaps by allocation size. Guarded by 'this'
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private long size;
+
+    // statistics
+    private long requests;
+    private long hits;
+    private long bytesSaved;
+
+    /**
+     * @param maxBytes  maximum amount of bytes kept by the pool
+     */
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates a pool using 1/16 of the memory available to the app
+     */
+    public static BitmapPool withDefaultSize() {
+        return new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+    }
+
+    /**
+     * Takes a Bitmap from the pool.
+     * @param minBytes  bytes needed by the decoded image
+     * @return          a reusable Bitmap or null if there's none
+     */
+    public synchronized Bitmap get(int minBytes) {
+        requests++;
+        Map.Entry<Integer, ArrayDeque<Bitmap>> bucket = buckets.ceilingEntry(minBytes);
+        if ( bucket == null || bucket.getKey() > (long) minBytes * MAX_SIZE_MULTIPLE )
+            return null;
+
+        Bitmap bitmap = bucket.getValue().poll();
+        if ( bucket.getValue().isEmpty() )
+            buckets.remove(bucket.getKey());
+        size -= bucket.getKey();
+        hits++;
+        bytesSaved += minBytes;
+        return bitmap;
+    }
+
+    /**
+     * Returns a Bitmap to the pool.
+     * Only mutable Bitmaps can be reused by the decoder.
+     * @return  true if the Bitmap was accepted
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if ( bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ARGB_8888 )
+            return false;
+        int bytes = bitmap.getAllocationByteCount();
+        if ( bytes > maxBytes )
+            return false;
+
+        ArrayDeque<Bitmap> bucket = buckets.get(bytes);
+        if ( bucket == null ) {
+            bucket = new ArrayDeque<>();
+            buckets.put(bytes, bucket);
+        }
+        bucket.add(bitmap);
+        size += bytes;
+        trimToSize();
+        return true;
+    }
+
+    /**
+     * Drops all the Bitmaps of the pool
+     */
+    public synchronized void clear() {
+        buckets.clear();
+        size = 0;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Fraction of the {@link #get(int)} calls that returned a Bitmap
+     */
+    public synchronized float getHitRate() {
+        return requests == 0 ? 0f : (float) hits / requests;
+    }
+
+    /**
+     * Bytes that didn't need to be allocated
+     * because a pooled Bitmap was reused
+     */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public synchronized String getStats() {
+        return "requests=" + requests
+                + " hits=" + hits
+                + " hitRate=" + getHitRate()
+                + " bytesSaved=" + bytesSaved
+                + " bytes=" + size + "/" + maxBytes;
+    }
+
+    // drops Bitmaps from the biggest buckets until the pool fits
+    private void trimToSize() {
+        while ( size > maxBytes && !buckets.isEmpty() ) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> biggest = buckets.lastEntry();
+            biggest.getValue().poll();
+            if ( biggest.getValue().isEmpty() )
+                buckets.remove(biggest.getKey());
+            size -= biggest.getKey();
+            Log.d(TAG, "trimToSize(): dropped " + biggest.getKey() + " bytes");
+        }
+    }
+}
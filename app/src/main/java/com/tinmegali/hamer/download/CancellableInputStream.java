@@ -0,0 +1,51 @@
+package com.tinmegali.hamer.download;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stops reading a response body when its {@link CancellationToken}
+ * is cancelled, counting the bytes read on the token.
+ * A read blocked on the socket is aborted by the
+ * {@link ImageFetcher}, that closes the connection. The token
+ * is checked again when a read returns, so bytes that arrive
+ * after the cancel are never used.
+ */
+class CancellableInputStream extends FilterInputStream {
+
+    private final CancellationToken token;
+
+    CancellableInputStream(InputStream in, CancellationToken token) {
+        super(in);
+        this.token = token;
+    }
+
+    @Override
+    public int read() throws IOException {
+        token.throwIfCancelled();
+        int b = super.read();
+        if ( b != -1 )
+            token.addBytesRead(1);
+        token.throwIfCancelled();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        token.throwIfCancelled();
+        int read = super.read(buffer, offset, count);
+        if ( read > 0 )
+            token.addBytesRead(read);
+        token.throwIfCancelled();
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        token.throwIfCancelled();
+        long skipped = super.skip(count);
+        token.addBytesRead(skipped);
+        return skipped;
+    }
+}
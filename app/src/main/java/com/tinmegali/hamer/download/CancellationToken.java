@@ -0,0 +1,195 @@
+package com.tinmegali.hamer.download;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cancels a download task from any Thread.
+ *
+ * The task checks {@link #isCancelled()} between its stages,
+ * like before decoding, and registers listeners for the
+ * blocking stages, like the socket read, so they can be
+ * aborted right away.
+ *
+ * The token may have a deadline. The blocking stages wait at most
+ * {@link #remainingMillis()}, like the socket timeouts, and every
+ * check of the token expires it once the deadline passed: the token
+ * is cancelled and {@link DeadlineExceededException} is thrown.
+ *
+ * The token also counts the bytes read by the task,
+ * the bytes wasted when it's cancelled, and the time
+ * the first byte arrived.
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled;
+    // cancelled because the deadline passed
+    private volatile boolean expired;
+    // System.nanoTime() of the deadline, 0 without deadline
+    private volatile long deadlineNanos;
+
+    // Guarded by 'this'
+    private final List<Runnable> listeners = new ArrayList<>();
+
+    // body bytes read by the task
+    private final AtomicLong bytesRead = new AtomicLong();
+    // System.nanoTime() of the first body byte, 0 before it
+    private volatile long firstByteNanos;
+
+    /**
+     * Cancels the task. The listeners are called
+     * on the calling Thread, only on the first call.
+     */
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if ( cancelled )
+                return;
+            cancelled = true;
+            toRun = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for ( Runnable listener : toRun )
+            listener.run();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws DeadlineExceededException    if the deadline passed
+     * @throws CancelledException           if the task was cancelled
+     */
+    public void throwIfCancelled() throws CancelledException {
+        if ( isExpired() )
+            throw new DeadlineExceededException();
+        if ( cancelled )
+            throw new CancelledException();
+    }
+
+    /**
+     * Defines the time the task must end, counted from now
+     * @param timeout   time left, 0 or less to remove the deadline
+     */
+    public void setDeadline(long timeout, TimeUnit unit) {
+        setDeadlineNanos(timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : 0);
+    }
+
+    /**
+     * Same as {@link #setDeadline(long, TimeUnit)}, used
+     * to pass the deadline of a task to its sub tasks
+     * @param deadlineNanos {@link System#nanoTime()} of the deadline, 0 for none
+     */
+    public void setDeadlineNanos(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    public boolean hasDeadline() {
+        return deadlineNanos != 0;
+    }
+
+    /**
+     * Time left until the deadline, rounded up so a wait of
+     * this length always reaches it. {@link Long#MAX_VALUE}
+     * without deadline, 0 once it passed.
+     */
+    public long remainingMillis() {
+        long deadline = deadlineNanos;
+        if ( deadline == 0 )
+            return Long.MAX_VALUE;
+        long nanos = deadline - System.nanoTime();
+        if ( nanos <= 0 )
+            return 0;
+        return (nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Expires the token if its deadline passed, cancelling it.
+     * @return  true if the task was stopped by the deadline
+     */
+    public boolean isExpired() {
+        if ( expired )
+            return true;
+        long deadline = deadlineNanos;
+        if ( deadline == 0 || deadline - System.nanoTime() > 0 )
+            return false;
+        synchronized (this) {
+            // a task cancelled before the deadline didn't time out
+            if ( cancelled && !expired )
+                return false;
+            expired = true;
+        }
+        cancel();
+        return true;
+    }
+
+    /**
+     * Sleeps like {@link Thread#sleep(long)}, woken up by the cancel.
+     * The sleep ends at the deadline, if it comes first.
+     * @throws DeadlineExceededException    if the deadline passed
+     * @throws CancelledException           if the task was cancelled
+     */
+    public void sleep(long millis) throws CancelledException {
+        throwIfCancelled();
+        final CountDownLatch woken = new CountDownLatch(1);
+        Runnable wake = new Runnable() {
+            @Override
+            public void run() {
+                woken.countDown();
+            }
+        };
+        addListener(wake);
+        try {
+            woken.await(Math.min(millis, remainingMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancelledException("interrupted", e);
+        } finally {
+            removeListener(wake);
+        }
+        throwIfCancelled();
+    }
+
+    /**
+     * Adds a listener called on {@link #cancel()}.
+     * It runs right away if the token is already cancelled.
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if ( !cancelled ) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    public synchronized void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    void addBytesRead(long count) {
+        if ( bytesRead.getAndAdd(count) == 0 && count > 0 )
+            firstByteNanos = System.nanoTime();
+    }
+
+    /**
+     * @return  {@link System#nanoTime()} when the first byte
+     *          of the body was read, 0 if none was read
+     */
+    public long getFirstByteNanos() {
+        return firstByteNanos;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+}
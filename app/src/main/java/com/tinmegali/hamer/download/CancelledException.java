@@ -0,0 +1,21 @@
+package com.tinmegali.hamer.download;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when a download stops because its
+ * {@link CancellationToken} was cancelled.
+ */
+public class CancelledException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CancelledException() {
+        super("cancelled");
+    }
+
+    public CancelledException(String detail, Throwable cause) {
+        super(detail);
+        initCause(cause);
+    }
+}
@@ -0,0 +1,258 @@
+package com.tinmegali.hamer.download;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manages the HTTP connections used by the {@link ImageFetcher},
+ * so connections to the same host are kept alive and reused,
+ * instead of closing the socket after every image.
+ *
+ * The sockets are pooled by the platform HttpURLConnection, which
+ * keeps them alive by default. Its pool is global to the process, so
+ * it isn't configured here. A connection only goes back to that pool
+ * when its response is fully read and closed, so
+ * {@link #release(HttpURLConnection, InputStream)} drains what's
+ * left of the body instead of calling disconnect().
+ *
+ * The platform doesn't tell if a socket was reused. The manager only
+ * tracks the connections it released: each one is idle until
+ * {@link #idleTimeoutMillis} expires or a new request to the same host
+ * takes it. A request that finds one is an idle hit, otherwise an
+ * idle miss. A hit is a reuse opportunity, not an observed reuse:
+ * the platform may have closed the socket meanwhile.
+ *
+ * A cancelled download is stopped with {@link #abort(HttpURLConnection)},
+ * closing the socket so a blocked read fails right away.
+ *
+ * Every connection has a connect and a read timeout, so a hung
+ * socket can't block its Thread forever. They are shortened to
+ * the time left of the download, see {@link #open(URL, long)}.
+ */
+public class ConnectionManager {
+
+    private static final String TAG = ConnectionManager.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 15 * 1000;
+
+    // a body bigger than this isn't drained, the connection is closed
+    static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int maxIdleConnections;
+    private final long idleTimeoutMillis;
+
+    // longest wait to connect, and for each read of the response
+    private volatile int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    // idle connections, the oldest first. Guarded by 'this'
+    private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+
+    // statistics. Guarded by 'this'
+    private long idleHits;
+    private long idleMisses;
+    private long discarded;
+    private long aborted;
+
+    // closes aborted connections, so the cancelling
+    // Thread, usually the UI, doesn't touch the socket
+    private final ThreadPoolExecutor abortExecutor;
+
+    public ConnectionManager(int maxIdleConnections, long idleTimeoutMillis) {
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        abortExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        abortExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public ConnectionManager() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Defines the socket timeouts of the next connections
+     * @param connectTimeoutMillis  longest wait to connect
+     * @param readTimeoutMillis     longest wait for each read of the response
+     */
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        if ( connectTimeoutMillis <= 0 || readTimeoutMillis <= 0 )
+            throw new IllegalArgumentException("timeouts must be positive");
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Opens a connection to the url
+     */
+    public HttpURLConnection open(URL url) throws IOException {
+        return open(url, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens a connection to the url, whose timeouts
+     * don't go beyond the time left of the download
+     * @param remainingMillis   time left, more than 0
+     */
+    public HttpURLConnection open(URL url, long remainingMillis) throws IOException {
+        String host = url.getHost() + ":" + url.getPort();
+        boolean idleHit = takeIdle(host);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Connection", "keep-alive");
+        // 0 would mean no timeout at all
+        connection.setConnectTimeout((int) Math.max(1, Math.min(connectTimeoutMillis, remainingMillis)));
+        connection.setReadTimeout((int) Math.max(1, Math.min(readTimeoutMillis, remainingMillis)));
+        synchronized (this) {
+            if ( idleHit )
+                idleHits++;
+            else
+                idleMisses++;
+        }
+        return connection;
+    }
+
+    /**
+     * Finishes a connection whose response was handled.
+     * The rest of the body is read and the stream closed,
+     * so the platform can reuse the socket.
+     * @param connection    connection to be released
+     * @param body          the response stream, may be null
+     *                      if it was never opened
+     */
+    public void release(HttpURLConnection connection, InputStream body) {
+        try {
+            if ( body == null )
+                body = responseStream(connection);
+            if ( body != null ) {
+                if ( !drain(body) ) {
+                    // too much left to read, cheaper to close the socket
+                    discard(connection);
+                    return;
+                }
+                body.close();
+            }
+            addIdle(connection.getURL());
+        } catch (IOException e) {
+            Log.w(TAG, "release(): can't reuse connection", e);
+            discard(connection);
+        }
+    }
+
+    /**
+     * Closes the connection socket. Used when the response
+     * is in an unknown state, like after a read error.
+     */
+    public void discard(HttpURLConnection connection) {
+        synchronized (this) {
+            discarded++;
+        }
+        connection.disconnect();
+    }
+
+    /**
+     * Closes the connection of a cancelled download.
+     * The Thread reading the response receives an IOException.
+     * Can be called from any Thread, the socket is closed
+     * on a background Thread.
+     */
+    public void abort(final HttpURLConnection connection) {
+        Log.d(TAG, "abort(" + connection.getURL() + ")");
+        synchronized (this) {
+            aborted++;
+        }
+        abortExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                connection.disconnect();
+            }
+        });
+    }
+
+    /**
+     * @return  requests that found an idle connection to their host
+     */
+    public synchronized long getIdleHitCount() {
+        return idleHits;
+    }
+
+    /**
+     * @return  requests that found no idle connection to their host
+     */
+    public synchronized long getIdleMissCount() {
+        return idleMisses;
+    }
+
+    public synchronized String getStats() {
+        return "idleHits=" + idleHits + " idleMisses=" + idleMisses
+                + " discarded=" + discarded + " aborted=" + aborted
+                + " idle=" + idle.size();
+    }
+
+    // the body, or the error body for error responses
+    private static InputStream responseStream(HttpURLConnection connection) {
+        try {
+            return connection.getInputStream();
+        } catch (IOException e) {
+            return connection.getErrorStream();
+        }
+    }
+
+    // reads the rest of the body, returns false if it's too big
+    private static boolean drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        int read;
+        while ( (read = body.read(buffer)) != -1 ) {
+            total += read;
+            if ( total > MAX_DRAIN_BYTES )
+                return false;
+        }
+        return true;
+    }
+
+    private synchronized boolean takeIdle(String host) {
+        evictExpired();
+        for ( Iterator<IdleConnection> iterator = idle.descendingIterator(); iterator.hasNext(); ) {
+            if ( iterator.next().host.equals(host) ) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void addIdle(URL url) {
+        evictExpired();
+        idle.add(new IdleConnection(url.getHost() + ":" + url.getPort(), System.nanoTime()));
+        while ( idle.size() > maxIdleConnections )
+            idle.poll();
+    }
+
+    private void evictExpired() {
+        long limit = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        while ( !idle.isEmpty() && idle.peek().since < limit )
+            idle.poll();
+    }
+
+    private static class IdleConnection {
+        final String host;
+        final long since;
+
+        IdleConnection(String host, long since) {
+            this.host = host;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.tinmegali.hamer.download;
+
+/**
+ * Thrown when a download stops because the deadline
+ * of its {@link CancellationToken} passed.
+ * It's a {@link CancelledException}, so the download
+ * is stopped the same way, but the caller can tell
+ * a timed out download from a cancelled one.
+ */
+public class DeadlineExceededException extends CancelledException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException() {
+        super("deadline exceeded", null);
+    }
+
+    public DeadlineExceededException(String detail, Throwable cause) {
+        super(detail, cause);
+    }
+}
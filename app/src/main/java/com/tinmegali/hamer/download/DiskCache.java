@@ -0,0 +1,563 @@
+package com.tinmegali.hamer.download;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent LRU cache of downloaded files.
+ *
+ * Every operation is appended to a journal file, so the cache
+ * state survives process death. On startup the journal is read
+ * through a memory-mapped buffer and replayed, there's no need
+ * to scan the cache directory.
+ *
+ * Journal format: a header followed by records
+ *      PUT     [op][key length][key][size][fetched at][max age][etag][last modified]
+ *      READ    [op][key length][key]
+ *      REMOVE  [op][key length][key]
+ * A truncated record at the end, left by a crash, is discarded.
+ *
+ * Each entry keeps the HTTP validators of its response
+ * (ETag and Last-Modified) and its freshness, see {@link Entry},
+ * so it can be revalidated with a conditional request.
+ *
+ * Entries are written to a temporary file and renamed
+ * when complete, readers never see a partial file.
+ * The content goes to the file with {@link FileChannel#transferFrom},
+ * without copying it through a Java buffer of the cache.
+ * When the cache is bigger than {@link #maxBytes} the least
+ * recently used entries are deleted.
+ *
+ * There is a single instance for each directory,
+ * use {@link #open(File, long)} to get it.
+ */
+public class DiskCache {
+
+    private static final String TAG = DiskCache.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TMP = "journal.tmp";
+    static final String TMP_DIR = "tmp";
+
+    private static final int MAGIC = 0x48414d52; // "HAMR"
+    private static final int VERSION = 2;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_READ = 2;
+    private static final byte OP_REMOVE = 3;
+
+    // bytes moved by each transferFrom() call
+    private static final long TRANSFER_CHUNK = 64 * 1024;
+
+    // minimum redundant records before compacting the journal
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    // opened caches, one for each directory
+    private static final Map<File, DiskCache> instances = new HashMap<>();
+
+    private final File directory;
+    private final File tmpDirectory;
+    private final File journalFile;
+    private final long maxBytes;
+
+    // entries in access order, eldest first.
+    // An access moves the entry to the end, see touch()
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private long size;
+
+    // records in the journal that don't represent an entry anymore
+    private int redundantOps;
+    private DataOutputStream journalWriter;
+
+    // unique names for the temporary files
+    private final AtomicLong tmpCounter = new AtomicLong();
+
+    private DiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.tmpDirectory = new File(directory, TMP_DIR);
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache on the given directory,
+     * replaying its journal if it exists.
+     * Calls for the same directory return the same instance.
+     * @param directory     where the files are stored
+     * @param maxBytes      maximum size of the cache
+     */
+    public static DiskCache open(File directory, long maxBytes) throws IOException {
+        synchronized (instances) {
+            File key = directory.getAbsoluteFile();
+            DiskCache cache = instances.get(key);
+            if ( cache == null ) {
+                cache = new DiskCache(key, maxBytes);
+                cache.init();
+                instances.put(key, cache);
+            }
+            return cache;
+        }
+    }
+
+    private synchronized void init() throws IOException {
+        if ( !directory.isDirectory() && !directory.mkdirs() )
+            throw new IOException("can't create " + directory);
+        // files left by writes interrupted by a crash
+        deleteContents(tmpDirectory);
+        if ( !tmpDirectory.isDirectory() && !tmpDirectory.mkdirs() )
+            throw new IOException("can't create " + tmpDirectory);
+
+        if ( journalFile.exists() && readJournal() ) {
+            journalWriter = newJournalWriter(true);
+            trimToSize();
+        } else {
+            rebuildJournal();
+        }
+        Log.d(TAG, "init(): " + entries.size() + " entries, " + size + " bytes");
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int entryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Get the file cached for the given key,
+     * marking it as the most recently used.
+     * @return  the file or null if it isn't cached
+     */
+    public synchronized File get(String key) {
+        if ( touch(key) == null )
+            return null;
+        File file = fileFor(key);
+        if ( !file.exists() ) {
+            // deleted by the system or the user
+            removeEntry(key);
+            return null;
+        }
+        appendRecord(OP_READ, key, null);
+        return file;
+    }
+
+    /**
+     * Get the metadata of an entry, without
+     * changing its position on the LRU order.
+     * @return  the entry or null if it isn't cached
+     */
+    public synchronized Entry peek(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Writes the stream to the cache.
+     * The content is written to a temporary file, which
+     * is renamed only after the whole stream was read.
+     * @return  the cached file
+     */
+    public File put(String key, InputStream in) throws IOException {
+        return put(key, in, null, null, 0);
+    }
+
+    /**
+     * Writes the stream to the cache, keeping the HTTP validators.
+     * @param etag          ETag of the response, may be null
+     * @param lastModified  Last-Modified of the response, may be null
+     * @param maxAgeMillis  time the entry stays fresh, counting from now
+     * @return  the cached file
+     */
+    public File put(String key, InputStream in, String etag, String lastModified, long maxAgeMillis)
+            throws IOException {
+        return put(key, Channels.newChannel(in), etag, lastModified, maxAgeMillis);
+    }
+
+    /**
+     * Transfers the channel content to the cache, keeping the HTTP validators.
+     * The channel is read until its end, but not closed.
+     * @param etag          ETag of the response, may be null
+     * @param lastModified  Last-Modified of the response, may be null
+     * @param maxAgeMillis  time the entry stays fresh, counting from now
+     * @return  the cached file
+     */
+    public File put(String key, ReadableByteChannel source, String etag, String lastModified,
+                    long maxAgeMillis) throws IOException {
+        File tmp = newTmpFile();
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            FileChannel channel = out.getChannel();
+            long position = 0;
+            long transferred;
+            // 0 when the blocking source reached its end
+            while ( (transferred = channel.transferFrom(source, position, TRANSFER_CHUNK)) > 0 )
+                position += transferred;
+        } catch (IOException e) {
+            out.close();
+            tmp.delete();
+            throw e;
+        }
+        out.close();
+        return commit(key, tmp, etag, lastModified, maxAgeMillis);
+    }
+
+    /**
+     * Moves a complete temporary file into the cache.
+     * @param tmp   file created with {@link #newTmpFile()}
+     * @return      the cached file
+     */
+    synchronized File commit(String key, File tmp, String etag, String lastModified,
+                             long maxAgeMillis) throws IOException {
+        File file = fileFor(key);
+        if ( !tmp.renameTo(file) ) {
+            tmp.delete();
+            throw new IOException("can't rename " + tmp + " to " + file);
+        }
+        Entry entry = new Entry(file.length(), System.currentTimeMillis(),
+                maxAgeMillis, etag, lastModified);
+        Entry previous = entries.remove(key);
+        if ( previous != null ) {
+            size -= previous.length;
+            redundantOps++;
+        }
+        entries.put(key, entry);
+        size += entry.length;
+        appendRecord(OP_PUT, key, entry);
+        trimToSize();
+        return file;
+    }
+
+    /**
+     * Refreshes the metadata of an entry that was
+     * revalidated by the server, without changing its file.
+     * @param etag          new ETag, null keeps the current one
+     * @param lastModified  new Last-Modified, null keeps the current one
+     * @param maxAgeMillis  time the entry stays fresh, counting from now
+     */
+    public synchronized void revalidated(String key, String etag, String lastModified,
+                                         long maxAgeMillis) {
+        Entry current = touch(key);
+        if ( current == null )
+            return;
+        Entry entry = new Entry(current.length, System.currentTimeMillis(), maxAgeMillis,
+                etag != null ? etag : current.etag,
+                lastModified != null ? lastModified : current.lastModified);
+        entries.put(key, entry);
+        redundantOps++;
+        appendRecord(OP_PUT, key, entry);
+    }
+
+    /**
+     * Create a new temporary file, inside the cache directory,
+     * so it can be renamed atomically.
+     */
+    File newTmpFile() {
+        return new File(tmpDirectory, tmpCounter.incrementAndGet() + "-"
+                + Thread.currentThread().getId() + ".tmp");
+    }
+
+    /**
+     * Removes an entry from the cache
+     */
+    public synchronized void remove(String key) {
+        if ( entries.containsKey(key) )
+            removeEntry(key);
+    }
+
+    /**
+     * Closes the journal. The instance can't be used after it.
+     */
+    public void close() throws IOException {
+        synchronized (instances) {
+            instances.remove(directory);
+        }
+        synchronized (this) {
+            if ( journalWriter != null ) {
+                journalWriter.close();
+                journalWriter = null;
+            }
+        }
+    }
+
+    // moves the entry to the end of the access order
+    private Entry touch(String key) {
+        Entry entry = entries.remove(key);
+        if ( entry != null )
+            entries.put(key, entry);
+        return entry;
+    }
+
+    private void removeEntry(String key) {
+        Entry entry = entries.remove(key);
+        if ( entry != null )
+            size -= entry.length;
+        File file = fileFor(key);
+        if ( file.exists() && !file.delete() )
+            Log.w(TAG, "removeEntry(): can't delete " + file);
+        redundantOps++;
+        appendRecord(OP_REMOVE, key, null);
+    }
+
+    // evicts the least recently used entries until the size fits
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while ( size > maxBytes && iterator.hasNext() ) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            Log.d(TAG, "trimToSize(): evicting " + eldest.getKey());
+            iterator.remove();
+            size -= eldest.getValue().length;
+            File file = fileFor(eldest.getKey());
+            if ( file.exists() && !file.delete() )
+                Log.w(TAG, "trimToSize(): can't delete " + file);
+            redundantOps++;
+            appendRecord(OP_REMOVE, eldest.getKey(), null);
+        }
+    }
+
+    /**
+     * Replays the journal, reading it from a memory-mapped buffer.
+     * @return  false if the journal is invalid and must be rebuilt
+     */
+    private boolean readJournal() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            try {
+                if ( buffer.getInt() != MAGIC || buffer.getInt() != VERSION )
+                    return false;
+            } catch (BufferUnderflowException e) {
+                return false;
+            }
+
+            int records = 0;
+            int valid = buffer.position();
+            while ( buffer.hasRemaining() ) {
+                if ( !readRecord(buffer) )
+                    break;
+                valid = buffer.position();
+                records++;
+            }
+            redundantOps = records - entries.size();
+
+            if ( valid < length ) {
+                // last record is incomplete, the process
+                // probably died while it was being written
+                Log.w(TAG, "readJournal(): discarding " + (length - valid) + " bytes");
+                channel.truncate(valid);
+            }
+            return true;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // read a single record, returns false if it's incomplete
+    private boolean readRecord(MappedByteBuffer buffer) {
+        try {
+            byte op = buffer.get();
+            String key = readString(buffer);
+            switch ( op ) {
+                case OP_PUT: {
+                    long length = buffer.getLong();
+                    long fetchedAt = buffer.getLong();
+                    long maxAge = buffer.getLong();
+                    String etag = readString(buffer);
+                    String lastModified = readString(buffer);
+                    Entry previous = entries.remove(key);
+                    if ( previous != null )
+                        size -= previous.length;
+                    entries.put(key, new Entry(length, fetchedAt, maxAge,
+                            etag.isEmpty() ? null : etag,
+                            lastModified.isEmpty() ? null : lastModified));
+                    size += length;
+                    return true;
+                }
+                case OP_READ: {
+                    touch(key);
+                    return true;
+                }
+                case OP_REMOVE: {
+                    Entry previous = entries.remove(key);
+                    if ( previous != null )
+                        size -= previous.length;
+                    return true;
+                }
+                default:
+                    return false;
+            }
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Writes a new journal containing only the current entries.
+     * The journal is written to a temporary file and renamed.
+     */
+    private void rebuildJournal() throws IOException {
+        Log.d(TAG, "rebuildJournal()");
+        if ( journalWriter != null )
+            journalWriter.close();
+
+        File tmp = new File(directory, JOURNAL_FILE_TMP);
+        DataOutputStream writer = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            writer.writeInt(MAGIC);
+            writer.writeInt(VERSION);
+            for ( Map.Entry<String, Entry> entry : entries.entrySet() )
+                writeRecord(writer, OP_PUT, entry.getKey(), entry.getValue());
+        } finally {
+            writer.close();
+        }
+        if ( !tmp.renameTo(journalFile) )
+            throw new IOException("can't rename " + tmp + " to " + journalFile);
+
+        redundantOps = 0;
+        journalWriter = newJournalWriter(true);
+    }
+
+    private DataOutputStream newJournalWriter(boolean append) throws IOException {
+        return new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(journalFile, append)));
+    }
+
+    // appends a record and compacts the journal when it has too many redundant records
+    private void appendRecord(byte op, String key, Entry entry) {
+        if ( journalWriter == null )
+            return;
+        try {
+            if ( op == OP_READ )
+                redundantOps++;
+            writeRecord(journalWriter, op, key, entry);
+            journalWriter.flush();
+            if ( redundantOps >= COMPACT_THRESHOLD && redundantOps >= entries.size() )
+                rebuildJournal();
+        } catch (IOException e) {
+            Log.e(TAG, "appendRecord(): journal write failed", e);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream writer, byte op, String key, Entry entry)
+            throws IOException {
+        writer.writeByte(op);
+        writeString(writer, key);
+        if ( op == OP_PUT ) {
+            writer.writeLong(entry.length);
+            writer.writeLong(entry.fetchedAt);
+            writer.writeLong(entry.maxAgeMillis);
+            writeString(writer, entry.etag != null ? entry.etag : "");
+            writeString(writer, entry.lastModified != null ? entry.lastModified : "");
+        }
+    }
+
+    private static void writeString(DataOutputStream writer, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        if ( bytes.length > 0xffff )
+            throw new IOException("value too long: " + bytes.length + " bytes");
+        writer.writeShort(bytes.length);
+        writer.write(bytes);
+    }
+
+    /**
+     * The file of an entry, named after the MD5 of its key
+     */
+    File fileFor(String key) {
+        return new File(directory, hashKey(key));
+    }
+
+    private static String hashKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(key.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for ( byte b : hash )
+                builder.append(String.format("%02x", b));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    private static void deleteContents(File dir) {
+        File[] files = dir.listFiles();
+        if ( files == null )
+            return;
+        for ( File file : files )
+            file.delete();
+    }
+
+    /**
+     * Metadata of a cached file. Immutable.
+     */
+    public static final class Entry {
+        public final long length;
+        // System.currentTimeMillis() when it was downloaded or revalidated
+        public final long fetchedAt;
+        // time the entry is fresh after fetchedAt
+        public final long maxAgeMillis;
+        // validators for conditional requests, may be null
+        public final String etag;
+        public final String lastModified;
+
+        Entry(long length, long fetchedAt, long maxAgeMillis, String etag, String lastModified) {
+            this.length = length;
+            this.fetchedAt = fetchedAt;
+            this.maxAgeMillis = maxAgeMillis;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * If the entry can be used without revalidation
+         * @param now   System.currentTimeMillis()
+         */
+        public boolean isFresh(long now) {
+            return now - fetchedAt < maxAgeMillis;
+        }
+
+        // if the entry can be revalidated with a conditional request
+        public boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.tinmegali.hamer.download;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.tinmegali.hamer.looper.Priority;
+import com.tinmegali.hamer.looper.PriorityScheduler;
+import com.tinmegali.hamer.looper.QueueWaitStats;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of background Threads used to run downloads
+ * in parallel, instead of one after another on a single Looper.
+ *
+ * Two limits are applied:
+ *
+ * maxConcurrent    how many downloads can run at the same time
+ *                  considering all hosts
+ *
+ * maxPerHost       how many downloads can run at the same time
+ *                  against the same host. Tasks above this limit
+ *                  wait on a per host queue, so they don't hold
+ *                  a pool Thread while waiting.
+ *
+ * Waiting tasks are ordered by {@link Priority} with aging, see
+ * {@link Priority#deadline(long, long)}, so a user visible download
+ * doesn't wait behind background prefetches. The wait of each
+ * class is kept on a {@link QueueWaitStats}.
+ *
+ * After {@link #shutdown()} new tasks are dropped, they never run.
+ * {@link #execute(String, Priority, Runnable)} returns false, and a
+ * task racing the shutdown is discarded instead of throwing a
+ * RejectedExecutionException on the calling Thread.
+ */
+public class DownloadPool {
+
+    private static final String TAG = DownloadPool.class.getSimpleName();
+
+    // time that an idle Thread is kept alive
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+    private final int maxConcurrent;
+    private final int maxPerHost;
+
+    // running tasks and waiting tasks for every host.
+    // Guarded by 'this'
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private final Map<String, Queue<PoolTask>> waitingPerHost = new HashMap<>();
+
+    // orders the tasks with the same deadline
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final QueueWaitStats waitStats = new QueueWaitStats();
+
+    // tasks dropped because the pool was shut down
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param maxConcurrent downloads running at the same time
+     * @param maxPerHost    downloads running at the same time on a single host
+     */
+    public DownloadPool(int maxConcurrent, int maxPerHost) {
+        if ( maxConcurrent < 1 || maxPerHost < 1 )
+            throw new IllegalArgumentException("pool limits must be greater than 0");
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerHost = maxPerHost;
+        executor = new ThreadPoolExecutor(
+                maxConcurrent, maxConcurrent,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new DownloadThreadFactory(),
+                new DropOnShutdown()
+        );
+        // let the pool shrink to zero Threads when there is nothing to download
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    public QueueWaitStats getWaitStats() {
+        return waitStats;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Schedules a {@link Priority#USER_VISIBLE} download task.
+     * @see #execute(String, Priority, Runnable)
+     */
+    public boolean execute(String url, Runnable task) {
+        return execute(url, Priority.USER_VISIBLE, task);
+    }
+
+    /**
+     * Schedules a download task.
+     * The task runs as soon as there is a free Thread
+     * and the url's host is below the {@link #maxPerHost} limit.
+     * @param url       url to be downloaded, used to identify the host
+     * @param priority  class of the task, orders the waiting tasks
+     * @param task      the download itself
+     * @return          false if the pool is shut down, the task never runs
+     */
+    public boolean execute(String url, Priority priority, Runnable task) {
+        String host = hostOf(url);
+        PoolTask hostTask = new PoolTask(host, priority, task,
+                SystemClock.uptimeMillis(), sequence.getAndIncrement());
+
+        synchronized (this) {
+            if ( executor.isShutdown() ) {
+                Log.d(TAG, "execute(): shut down, dropping " + url);
+                dropped.incrementAndGet();
+                return false;
+            }
+            int running = runningCount(host);
+            if ( running >= maxPerHost ) {
+                Log.d(TAG, "execute(): host " + host + " is busy, waiting");
+                Queue<PoolTask> waiting = waitingPerHost.get(host);
+                if ( waiting == null ) {
+                    waiting = new PriorityQueue<>();
+                    waitingPerHost.put(host, waiting);
+                }
+                waiting.add(hostTask);
+                return true;
+            }
+            runningPerHost.put(host, running + 1);
+        }
+        // if the shutdown happens meanwhile, DropOnShutdown discards it
+        executor.execute(hostTask);
+        return true;
+    }
+
+    /**
+     * Stops the pool. Downloads already running are
+     * allowed to finish, waiting downloads are discarded.
+     */
+    public void shutdown() {
+        Log.d(TAG, "shutdown()");
+        synchronized (this) {
+            for ( Queue<PoolTask> waiting : waitingPerHost.values() )
+                dropped.addAndGet(waiting.size());
+            waitingPerHost.clear();
+            executor.shutdown();
+        }
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    // a task has finished on the given host.
+    // Starts the next waiting task for that host, if any.
+    private void onHostTaskFinished(String host) {
+        Runnable next = null;
+        synchronized (this) {
+            Queue<PoolTask> waiting = waitingPerHost.get(host);
+            if ( waiting != null && !waiting.isEmpty() ) {
+                // the slot passes directly to the next task
+                next = waiting.poll();
+                if ( waiting.isEmpty() )
+                    waitingPerHost.remove(host);
+            } else {
+                int running = runningCount(host) - 1;
+                if ( running > 0 )
+                    runningPerHost.put(host, running);
+                else
+                    runningPerHost.remove(host);
+            }
+        }
+        if ( next != null )
+            executor.execute(next);
+    }
+
+    private int runningCount(String host) {
+        Integer running = runningPerHost.get(host);
+        return running == null ? 0 : running;
+    }
+
+    private static String hostOf(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * A task and its place on the queues.
+     * The executor queue is a PriorityBlockingQueue,
+     * so the tasks must be Comparable.
+     */
+    private class PoolTask implements Runnable, Comparable<PoolTask> {
+        final String host;
+        final Priority priority;
+        final Runnable task;
+        final long enqueuedAt;
+        final long deadline;
+        final long sequence;
+
+        PoolTask(String host, Priority priority, Runnable task, long enqueuedAt, long sequence) {
+            this.host = host;
+            this.priority = priority;
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+            this.deadline = priority.deadline(enqueuedAt, PriorityScheduler.DEFAULT_AGING_MILLIS);
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            waitStats.record(priority, SystemClock.uptimeMillis() - enqueuedAt);
+            try {
+                task.run();
+            } finally {
+                onHostTaskFinished(host);
+            }
+        }
+
+        @Override
+        public int compareTo(PoolTask other) {
+            if ( deadline != other.deadline )
+                return deadline < other.deadline ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Discards the tasks that reach the executor after the
+     * shutdown, like the next task of a host or a task racing
+     * {@link #shutdown()}. Only logged, they are never run.
+     */
+    private class DropOnShutdown implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            dropped.incrementAndGet();
+            Log.d(TAG, "rejectedExecution(): shut down, dropping "
+                    + ((PoolTask) runnable).host + " task");
+        }
+    }
+
+    /**
+     * Creates named Threads with background priority,
+     * so downloads don't compete with the UI Thread.
+     */
+    private static class DownloadThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG + "-" + count.incrementAndGet());
+        }
+    }
+}
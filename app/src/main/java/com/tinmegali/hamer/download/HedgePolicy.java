@@ -0,0 +1,131 @@
+package com.tinmegali.hamer.download;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the {@link ImageFetcher} sends a hedged request:
+ * a second request for the same url, sent when the first one
+ * didn't receive any byte of the body for longer than most
+ * requests take. The first request to finish wins and the
+ * other one is cancelled.
+ *
+ * The hedge delay is the {@link #quantile} (p95 by default) of the
+ * recent time-to-first-byte samples, so only the slowest requests
+ * are hedged and the extra load stays around 5%.
+ * Until {@link #minSamples} are recorded, {@link #defaultDelayMillis} is used.
+ * The delay stays between {@link #minDelayMillis} and {@link #maxDelayMillis}:
+ * when more than 5% of the window stalled, the p95 is the stall itself
+ * and, without the cap, the stalled requests would never be hedged.
+ *
+ * Thread safe.
+ */
+public class HedgePolicy {
+
+    public static final double DEFAULT_QUANTILE = 0.95;
+    public static final int DEFAULT_WINDOW = 128;
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+    public static final long DEFAULT_DELAY_MILLIS = 1000;
+    // never hedges sooner, even if every request is fast
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 50;
+    // always hedges by then, even if most requests are slow
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+    private final double quantile;
+    private final int minSamples;
+    private final long defaultDelayMillis;
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+
+    // recent times to first byte, in micros, as a ring. Guarded by 'this'
+    private final long[] samples;
+    private int recorded;
+
+    // Guarded by 'this'
+    private long hedged;
+    private long hedgesWon;
+
+    /**
+     * @param quantile              quantile of the time-to-first-byte used as delay
+     * @param window                recent samples kept
+     * @param minSamples            samples needed before using the quantile
+     * @param defaultDelayMillis    delay while there are too few samples
+     * @param minDelayMillis        smallest delay
+     * @param maxDelayMillis        largest delay
+     */
+    public HedgePolicy(double quantile, int window, int minSamples,
+                       long defaultDelayMillis, long minDelayMillis, long maxDelayMillis) {
+        if ( quantile <= 0 || quantile > 1 )
+            throw new IllegalArgumentException("quantile must be in (0, 1]: " + quantile);
+        if ( window <= 0 )
+            throw new IllegalArgumentException("window must be positive: " + window);
+        if ( maxDelayMillis < minDelayMillis )
+            throw new IllegalArgumentException("maxDelayMillis is below minDelayMillis: " + maxDelayMillis);
+        this.quantile = quantile;
+        this.samples = new long[window];
+        this.minSamples = Math.min(minSamples, window);
+        this.defaultDelayMillis = defaultDelayMillis;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public HedgePolicy() {
+        this(DEFAULT_QUANTILE, DEFAULT_WINDOW, DEFAULT_MIN_SAMPLES,
+                DEFAULT_DELAY_MILLIS, DEFAULT_MIN_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Records the time a request took to receive its first body byte
+     */
+    public synchronized void recordFirstByte(long nanos) {
+        samples[recorded % samples.length] = TimeUnit.NANOSECONDS.toMicros(nanos);
+        recorded++;
+    }
+
+    /**
+     * Time a request waits for its first byte before being hedged
+     */
+    public long hedgeDelayMillis() {
+        long[] window;
+        synchronized (this) {
+            if ( recorded < minSamples )
+                return clamp(defaultDelayMillis);
+            window = Arrays.copyOf(samples, Math.min(recorded, samples.length));
+        }
+        Arrays.sort(window);
+        int rank = (int) Math.ceil(quantile * window.length) - 1;
+        long micros = window[Math.max(0, rank)];
+        return clamp(TimeUnit.MICROSECONDS.toMillis(micros));
+    }
+
+    private long clamp(long delayMillis) {
+        return Math.min(maxDelayMillis, Math.max(minDelayMillis, delayMillis));
+    }
+
+    synchronized void onHedged() {
+        hedged++;
+    }
+
+    synchronized void onHedgeWon() {
+        hedgesWon++;
+    }
+
+    public synchronized long getHedgedCount() {
+        return hedged;
+    }
+
+    /**
+     * Hedged requests that finished before the original one
+     */
+    public synchronized long getHedgesWon() {
+        return hedgesWon;
+    }
+
+    public String getStats() {
+        long delay = hedgeDelayMillis();
+        synchronized (this) {
+            return "hedged=" + hedged + " won=" + hedgesWon
+                    + " delay=" + delay + "ms samples=" + Math.min(recorded, samples.length);
+        }
+    }
+}
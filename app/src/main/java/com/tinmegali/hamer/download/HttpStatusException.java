@@ -0,0 +1,24 @@
+package com.tinmegali.hamer.download;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the server answers with an unexpected
+ * status code, so the {@link RetryPolicy} can tell
+ * the server errors from the client errors.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    public HttpStatusException(int code, String urlStr) {
+        super("HTTP " + code + " for " + urlStr);
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
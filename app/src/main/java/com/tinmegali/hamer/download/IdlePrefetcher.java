@@ -0,0 +1,224 @@
+package com.tinmegali.hamer.download;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.util.Log;
+
+import com.tinmegali.hamer.looper.Priority;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Warms the {@link ImageLoader} disk cache with a list of urls
+ * while a Looper has nothing else to do.
+ *
+ * It's a {@link MessageQueue.IdleHandler} registered on the
+ * Looper, called every time its queue runs out of Messages.
+ * Each call starts the download of one url on the {@link DownloadPool},
+ * so the Looper itself never blocks. When the download ends
+ * an empty Message wakes the Looper, the queue gets idle again
+ * and the next url is started.
+ *
+ * Prefetching stops when:
+ *      every url was prefetched,
+ *      the {@link #budgetBytes} was spent, or
+ *      {@link #stop()} is called.
+ *
+ * Real work has priority: {@link #pause()} is called when it
+ * arrives, cancelling the running prefetch, and no new prefetch
+ * starts until {@link #resume()}.
+ */
+public class IdlePrefetcher implements MessageQueue.IdleHandler {
+
+    private static final String TAG = IdlePrefetcher.class.getSimpleName();
+
+    // bytes that can be downloaded by default
+    public static final long DEFAULT_BUDGET_BYTES = 2 * 1024 * 1024;
+
+    private final ImageLoader imageLoader;
+    private final DownloadPool downloadPool;
+    private final long budgetBytes;
+
+    // wakes the Looper when a prefetch ends, so the
+    // queue gets idle again. Its Messages aren't handled
+    private final Handler wakeHandler;
+
+    // urls not prefetched yet. Guarded by 'this'
+    private final ArrayDeque<String> pending;
+
+    // Guarded by 'this'
+    private long spentBytes;
+    private boolean running;
+    private boolean stopped;
+    // urls on the disk cache after their prefetch
+    private int prefetched;
+    // urls that couldn't be prefetched, not retried
+    private int failed;
+    private int deferred;
+    // cancels the running prefetch
+    private CancellationToken token;
+
+    private volatile boolean paused;
+
+    /**
+     * @param looper        Looper that is watched, usually a HandlerThread's
+     * @param imageLoader   loader where the images are cached
+     * @param downloadPool  pool where the downloads run
+     * @param urls          urls to be prefetched, in order
+     * @param budgetBytes   maximum bytes downloaded
+     */
+    public IdlePrefetcher(Looper looper, ImageLoader imageLoader, DownloadPool downloadPool,
+                          String[] urls, long budgetBytes) {
+        this.imageLoader = imageLoader;
+        this.downloadPool = downloadPool;
+        this.budgetBytes = budgetBytes;
+        this.pending = new ArrayDeque<>(Arrays.asList(urls));
+        this.wakeHandler = new Handler(looper);
+    }
+
+    /**
+     * Registers the IdleHandler on the Looper.
+     * {@link Looper#myQueue()} must be called on the Looper Thread,
+     * so the registration is posted to it.
+     */
+    public void start() {
+        Log.d(TAG, "start()");
+        wakeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myQueue().addIdleHandler(IdlePrefetcher.this);
+            }
+        });
+    }
+
+    /**
+     * Stops prefetching for good, cancelling the running download
+     */
+    public void stop() {
+        Log.d(TAG, "stop()");
+        synchronized (this) {
+            stopped = true;
+            pending.clear();
+            if ( token != null )
+                token.cancel();
+        }
+        wakeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myQueue().removeIdleHandler(IdlePrefetcher.this);
+            }
+        });
+    }
+
+    /**
+     * Real work arrived, no new prefetch is started.
+     * The running prefetch is cancelled and its url
+     * goes back to the pending urls.
+     */
+    public void pause() {
+        paused = true;
+        synchronized (this) {
+            if ( token != null )
+                token.cancel();
+        }
+    }
+
+    /**
+     * The real work ended, prefetching continues
+     * the next time the Looper is idle.
+     */
+    public void resume() {
+        paused = false;
+        // the queue may be idle already, a Message
+        // makes it idle again and calls queueIdle()
+        wakeHandler.sendEmptyMessage(0);
+    }
+
+    public synchronized String getStats() {
+        return "prefetched=" + prefetched + " failed=" + failed
+                + " spent=" + spentBytes + "/" + budgetBytes
+                + " deferred=" + deferred + " pending=" + pending.size();
+    }
+
+    /**
+     * Called on the Looper Thread when its queue is empty.
+     * @return  false to be unregistered, when there's nothing else to do
+     */
+    @Override
+    public boolean queueIdle() {
+        final String url;
+        final CancellationToken prefetchToken;
+        synchronized (this) {
+            if ( stopped )
+                return false;
+            if ( paused || running )
+                return true;
+            if ( pending.isEmpty() || spentBytes >= budgetBytes ) {
+                Log.d(TAG, "queueIdle(): done " + getStats());
+                return false;
+            }
+            url = pending.poll();
+            running = true;
+            token = prefetchToken = new CancellationToken();
+        }
+        // waits behind the downloads requested by the user
+        boolean queued = downloadPool.execute(url, Priority.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                prefetch(url, prefetchToken);
+            }
+        });
+        if ( !queued ) {
+            // the pool is shut down, nothing else will be prefetched
+            synchronized (this) {
+                running = false;
+                token = null;
+                pending.addFirst(url);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // runs on the DownloadPool
+    private void prefetch(String url, CancellationToken prefetchToken) {
+        long bytes = 0;
+        boolean done = false;
+        boolean cached = false;
+        try {
+            bytes = imageLoader.prefetch(url, prefetchToken);
+            done = true;
+            // nothing is warmed without a disk cache
+            DiskCache disk = imageLoader.getDiskCache();
+            cached = disk != null && disk.peek(url) != null;
+        } catch (CancelledException e) {
+            // the bytes already read are lost
+            bytes = prefetchToken.getBytesRead();
+        } catch (IOException e) {
+            Log.w(TAG, "prefetch(): failed " + url, e);
+            // not retried, the url may be unreachable
+            done = true;
+        } finally {
+            synchronized (this) {
+                running = false;
+                token = null;
+                spentBytes += bytes;
+                if ( cached ) {
+                    prefetched++;
+                } else if ( done ) {
+                    failed++;
+                } else {
+                    // real work arrived
+                    deferred++;
+                    if ( !stopped )
+                        pending.addFirst(url);
+                }
+            }
+        }
+        if ( !paused )
+            wakeHandler.sendEmptyMessage(0);
+    }
+}
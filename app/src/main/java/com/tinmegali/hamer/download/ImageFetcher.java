@@ -0,0 +1,573 @@
+package com.tinmegali.hamer.download;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Network side of the {@link ImageLoader}.
+ * Downloads images into the {@link DiskCache}, or
+ * streams them directly to a {@link BodyReader}
+ * when there's no disk cache.
+ *
+ * When the cache has a copy of the url with validators
+ * the request is conditional, using If-None-Match (ETag)
+ * and If-Modified-Since (Last-Modified). If the server
+ * answers 304 Not Modified, the body isn't transferred and
+ * the cached file is kept, only its freshness is renewed.
+ *
+ * The freshness of a response comes from its Cache-Control
+ * max-age. Responses without it are fresh for
+ * {@link #defaultFreshnessMillis}.
+ *
+ * Connections come from the {@link ConnectionManager}, finished
+ * responses are released to it so the socket can be reused.
+ *
+ * Downloads to the disk cache don't buffer the body, it's
+ * transferred to the cache file through a channel, see
+ * {@link DiskCache#put(String, java.nio.channels.ReadableByteChannel, String, String, long)}.
+ *
+ * The bytes of the body can be counted while they are read,
+ * reporting a throttled progress to an {@link OnProgressListener}.
+ *
+ * A download is stopped by its {@link CancellationToken}: the
+ * connection is aborted and a {@link CancelledException} is thrown.
+ * The deadline of the token bounds the socket timeouts, and a download
+ * that outlives it throws a {@link DeadlineExceededException}.
+ *
+ * Failed downloads can be retried by a {@link RetryPolicy}, with a
+ * jittered exponential backoff. Downloads to the disk cache can be
+ * hedged by a {@link HedgePolicy}: a slow request is raced by a
+ * second one, and the loser is cancelled.
+ */
+public class ImageFetcher {
+
+    private static final String TAG = ImageFetcher.class.getSimpleName();
+
+    public static final long DEFAULT_FRESHNESS_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // freshness of responses without a Cache-Control max-age
+    private volatile long defaultFreshnessMillis = DEFAULT_FRESHNESS_MILLIS;
+
+    // opens, releases and keeps alive the connections
+    private final ConnectionManager connections;
+
+    // retries the failed downloads, never by default
+    private volatile RetryPolicy retryPolicy = RetryPolicy.NONE;
+    private final Random jitter = new Random();
+    private final AtomicLong retries = new AtomicLong();
+
+    // hedges the slow downloads, null when disabled
+    private volatile HedgePolicy hedgePolicy;
+    // runs the requests of the hedged downloads. Its Threads are
+    // bounded by the callers, at most two requests each. Guarded by 'this'
+    private ThreadPoolExecutor hedgeExecutor;
+
+    public ImageFetcher(ConnectionManager connections) {
+        this.connections = connections;
+    }
+
+    public ImageFetcher() {
+        this(new ConnectionManager());
+    }
+
+    public ConnectionManager getConnectionManager() {
+        return connections;
+    }
+
+    public void setDefaultFreshnessMillis(long defaultFreshnessMillis) {
+        this.defaultFreshnessMillis = defaultFreshnessMillis;
+    }
+
+    /**
+     * Defines how the failed downloads are retried
+     * @param retryPolicy   the policy, {@link RetryPolicy#NONE} to never retry
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Defines when the downloads to the disk cache are hedged
+     * @param hedgePolicy   the policy, null to disable the hedging
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public String getResilienceStats() {
+        HedgePolicy hedge = hedgePolicy;
+        return "retries=" + retries.get() + " " + (hedge != null ? hedge.getStats() : "hedging off");
+    }
+
+    /**
+     * Outcome of a {@link #fetch(String, DiskCache)}
+     */
+    public enum Status {
+        // a new body was downloaded
+        DOWNLOADED,
+        // the server confirmed the cached copy with a 304
+        NOT_MODIFIED
+    }
+
+    public static class Result {
+        public final Status status;
+        // the cached file, new or revalidated
+        public final File file;
+
+        Result(Status status, File file) {
+            this.status = status;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Downloads the url into the disk cache, or revalidates
+     * the cached copy if there's one with validators.
+     * @param urlStr    image url, also the disk cache key
+     * @param disk      cache where the image is stored
+     * @return          the status and the cached file
+     * @throws IOException  on network errors or unexpected responses
+     */
+    public Result fetch(String urlStr, DiskCache disk) throws IOException {
+        return fetch(urlStr, disk, null);
+    }
+
+    /**
+     * Same as {@link #fetch(String, DiskCache)}, reporting
+     * the progress of the body download.
+     * @param listener  receives the progress, may be null
+     */
+    public Result fetch(String urlStr, DiskCache disk, OnProgressListener listener)
+            throws IOException {
+        return fetch(urlStr, disk, listener, new CancellationToken());
+    }
+
+    /**
+     * Same as {@link #fetch(String, DiskCache, OnProgressListener)}, stopped
+     * when the token is cancelled. A partial body isn't cached.
+     * @param token     cancels the download
+     * @throws CancelledException   if the token was cancelled
+     */
+    public Result fetch(String urlStr, DiskCache disk, OnProgressListener listener,
+                        CancellationToken token) throws IOException {
+        RetryPolicy policy = retryPolicy;
+        for ( int attempt = 1; ; attempt++ ) {
+            try {
+                return fetchHedged(urlStr, disk, listener, token);
+            } catch (IOException e) {
+                awaitRetry(policy, attempt, e, urlStr, token);
+            }
+        }
+    }
+
+    /**
+     * Sends the request, and a hedged one if the first didn't
+     * receive any byte within the {@link HedgePolicy} delay.
+     * The first successful response wins, the other request is cancelled.
+     */
+    private Result fetchHedged(String urlStr, DiskCache disk, OnProgressListener listener,
+                               CancellationToken token) throws IOException {
+        HedgePolicy hedge = hedgePolicy;
+        if ( hedge == null )
+            return fetchAttempt(urlStr, disk, listener, token);
+        token.throwIfCancelled();
+        CompletionService<Result> requests = new ExecutorCompletionService<>(getHedgeExecutor());
+        HedgedRequest first = new HedgedRequest(token, hedge);
+        HedgedRequest second = null;
+        first.submit(requests, urlStr, disk, listener);
+        try {
+            Future<Result> done = requests.poll(hedge.hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            if ( done == null && first.token.getBytesRead() == 0 && !token.isCancelled() ) {
+                Log.d(TAG, "fetch(): hedging " + urlStr);
+                hedge.onHedged();
+                second = new HedgedRequest(token, hedge);
+                // only the first request reports the progress
+                second.submit(requests, urlStr, disk, null);
+            }
+            int running = second != null ? 2 : 1;
+            IOException failure = null;
+            for ( ; running > 0; running-- ) {
+                if ( done == null )
+                    done = requests.take();
+                try {
+                    Result result = done.get();
+                    if ( second != null && done == second.future )
+                        hedge.onHedgeWon();
+                    return result;
+                } catch (ExecutionException e) {
+                    // waits for the other request, if any
+                    failure = ioExceptionOf(e);
+                }
+                done = null;
+            }
+            throw cancelledOr(failure, urlStr, token);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted " + urlStr);
+        } finally {
+            // the loser is cancelled, aborting its connection
+            first.finish();
+            if ( second != null )
+                second.finish();
+        }
+    }
+
+    // a fetch attempt, downloading again if the revalidated file is gone
+    private Result fetchAttempt(String urlStr, DiskCache disk, OnProgressListener listener,
+                                CancellationToken token) throws IOException {
+        Result result = fetchOnce(urlStr, disk, listener, token);
+        if ( result == null ) {
+            // the file was deleted meanwhile, download it again
+            disk.remove(urlStr);
+            result = fetchOnce(urlStr, disk, listener, token);
+        }
+        return result;
+    }
+
+    // returns null if the response was 304 but the cached file is gone
+    private Result fetchOnce(String urlStr, DiskCache disk, OnProgressListener listener,
+                             CancellationToken token) throws IOException {
+        token.throwIfCancelled();
+        DiskCache.Entry cached = disk.peek(urlStr);
+        HttpURLConnection connection = null;
+        Runnable abort = null;
+        InputStream in = null;
+        // the response was completely handled, the connection can be reused
+        boolean reusable = false;
+        try {
+            connection = connections.open(new URL(urlStr), token.remainingMillis());
+            abort = abortOnCancel(connection, token);
+            if ( cached != null ) {
+                // conditional request
+                if ( cached.etag != null )
+                    connection.setRequestProperty("If-None-Match", cached.etag);
+                if ( cached.lastModified != null )
+                    connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+
+            int code = connection.getResponseCode();
+            if ( code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null ) {
+                Log.d(TAG, "fetch(): not modified " + urlStr);
+                reusable = true;
+                disk.revalidated(urlStr,
+                        connection.getHeaderField("ETag"),
+                        connection.getHeaderField("Last-Modified"),
+                        maxAgeOf(connection));
+                File file = disk.get(urlStr);
+                return file != null ? new Result(Status.NOT_MODIFIED, file) : null;
+            }
+            if ( code != HttpURLConnection.HTTP_OK ) {
+                reusable = true;
+                throw new HttpStatusException(code, urlStr);
+            }
+
+            // the body goes straight to the cache file, without a BufferedInputStream
+            in = openRawBody(urlStr, connection, listener, token);
+            File file = disk.put(urlStr, Channels.newChannel(in),
+                    connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"),
+                    maxAgeOf(connection));
+            reusable = true;
+            return new Result(Status.DOWNLOADED, file);
+        } catch (IOException e) {
+            throw cancelledOr(e, urlStr, token);
+        } finally {
+            if ( abort != null )
+                token.removeListener(abort);
+            finish(connection, in, reusable && !token.isCancelled());
+        }
+    }
+
+    /**
+     * Downloads the url passing its body to the reader.
+     * The connection is released after the reader returns.
+     * @param urlStr    image url
+     * @param reader    consumes the body
+     * @return          the value returned by the reader
+     * @throws IOException  on network errors or unexpected responses
+     */
+    public <T> T stream(String urlStr, BodyReader<T> reader) throws IOException {
+        return stream(urlStr, reader, null);
+    }
+
+    /**
+     * Same as {@link #stream(String, BodyReader)}, reporting
+     * the progress of the body download.
+     * @param listener  receives the progress, may be null
+     */
+    public <T> T stream(String urlStr, BodyReader<T> reader, OnProgressListener listener)
+            throws IOException {
+        return stream(urlStr, reader, listener, new CancellationToken());
+    }
+
+    /**
+     * Same as {@link #stream(String, BodyReader, OnProgressListener)},
+     * stopped when the token is cancelled.
+     * @param token     cancels the download
+     * @throws CancelledException   if the token was cancelled
+     */
+    public <T> T stream(String urlStr, BodyReader<T> reader, OnProgressListener listener,
+                        CancellationToken token) throws IOException {
+        RetryPolicy policy = retryPolicy;
+        for ( int attempt = 1; ; attempt++ ) {
+            long bytesBefore = token.getBytesRead();
+            try {
+                return streamOnce(urlStr, reader, listener, token);
+            } catch (IOException e) {
+                // the reader already consumed part of the body
+                if ( token.getBytesRead() != bytesBefore )
+                    throw e;
+                awaitRetry(policy, attempt, e, urlStr, token);
+            }
+        }
+    }
+
+    private <T> T streamOnce(String urlStr, BodyReader<T> reader, OnProgressListener listener,
+                             CancellationToken token) throws IOException {
+        token.throwIfCancelled();
+        HttpURLConnection connection = null;
+        Runnable abort = null;
+        InputStream in = null;
+        boolean reusable = false;
+        try {
+            connection = connections.open(new URL(urlStr), token.remainingMillis());
+            abort = abortOnCancel(connection, token);
+            int code = connection.getResponseCode();
+            if ( code != HttpURLConnection.HTTP_OK ) {
+                reusable = true;
+                throw new HttpStatusException(code, urlStr);
+            }
+
+            // get the stream from the url
+            in = openBody(urlStr, connection, listener, token);
+            T result = reader.read(in);
+            // the reader may have given up because of the cancel
+            if ( result == null )
+                token.throwIfCancelled();
+            reusable = true;
+            return result;
+        } catch (IOException e) {
+            throw cancelledOr(e, urlStr, token);
+        } finally {
+            if ( abort != null )
+                token.removeListener(abort);
+            finish(connection, in, reusable && !token.isCancelled());
+        }
+    }
+
+    /**
+     * Waits the backoff before the next attempt, or throws
+     * the failure if it can't be retried.
+     * @param attempt   attempts already done
+     * @throws CancelledException   if the token is cancelled while waiting
+     * @throws DeadlineExceededException    if the deadline comes before the next attempt
+     */
+    private void awaitRetry(RetryPolicy policy, int attempt, IOException failure,
+                            String urlStr, CancellationToken token) throws IOException {
+        if ( attempt >= policy.getMaxAttempts() || token.isCancelled()
+                || !RetryPolicy.isRetryable(failure) )
+            throw failure;
+        long delay = policy.backoffMillis(attempt, jitter);
+        if ( delay >= token.remainingMillis() ) {
+            // no time left for another attempt, doesn't wait for nothing
+            throw new DeadlineExceededException("no time to retry " + urlStr, failure);
+        }
+        Log.w(TAG, "attempt " + attempt + " failed, retrying in " + delay + "ms: " + failure);
+        retries.incrementAndGet();
+        // the cancel ends the wait
+        token.sleep(delay);
+    }
+
+    private synchronized ThreadPoolExecutor getHedgeExecutor() {
+        if ( hedgeExecutor == null )
+            hedgeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>());
+        return hedgeExecutor;
+    }
+
+    // the failure of a request ran on the hedgeExecutor
+    private static IOException ioExceptionOf(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if ( cause instanceof IOException )
+            return (IOException) cause;
+        if ( cause instanceof RuntimeException )
+            throw (RuntimeException) cause;
+        if ( cause instanceof Error )
+            throw (Error) cause;
+        return new IOException(cause);
+    }
+
+    /**
+     * One of the requests of a hedged download.
+     * It has its own token, cancelled with the download token
+     * or when the other request wins. Its bytes are added
+     * to the download token when it finishes.
+     */
+    private class HedgedRequest {
+        final CancellationToken parent;
+        final CancellationToken token = new CancellationToken();
+        final HedgePolicy hedge;
+        Future<Result> future;
+        private final Runnable cancel = new Runnable() {
+            @Override
+            public void run() {
+                token.cancel();
+            }
+        };
+
+        HedgedRequest(CancellationToken parent, HedgePolicy hedge) {
+            this.parent = parent;
+            this.hedge = hedge;
+            token.setDeadlineNanos(parent.getDeadlineNanos());
+            parent.addListener(cancel);
+        }
+
+        void submit(CompletionService<Result> requests, final String urlStr,
+                    final DiskCache disk, final OnProgressListener listener) {
+            future = requests.submit(new Callable<Result>() {
+                @Override
+                public Result call() throws IOException {
+                    long start = System.nanoTime();
+                    try {
+                        return fetchAttempt(urlStr, disk, listener, token);
+                    } finally {
+                        long firstByte = token.getFirstByteNanos();
+                        if ( firstByte != 0 )
+                            hedge.recordFirstByte(firstByte - start);
+                    }
+                }
+            });
+        }
+
+        void finish() {
+            token.cancel();
+            parent.removeListener(cancel);
+            parent.addBytesRead(token.getBytesRead());
+        }
+    }
+
+    // aborts the connection when the token is cancelled
+    private Runnable abortOnCancel(final HttpURLConnection connection, CancellationToken token) {
+        Runnable abort = new Runnable() {
+            @Override
+            public void run() {
+                connections.abort(connection);
+            }
+        };
+        token.addListener(abort);
+        return abort;
+    }
+
+    // a failure caused by the cancel is reported as a CancelledException,
+    // and one caused by the deadline, like a socket timeout, as a DeadlineExceededException
+    private static IOException cancelledOr(IOException e, String urlStr, CancellationToken token) {
+        if ( e instanceof DeadlineExceededException )
+            return e;
+        if ( token.isExpired() )
+            return new DeadlineExceededException("deadline exceeded " + urlStr, e);
+        if ( e instanceof CancelledException || !token.isCancelled() )
+            return e;
+        return new CancelledException("cancelled " + urlStr, e);
+    }
+
+    // the response body, counting its bytes if there's a listener
+    private static InputStream openBody(String urlStr, HttpURLConnection connection,
+                                        OnProgressListener listener,
+                                        CancellationToken token) throws IOException {
+        return new BufferedInputStream(openRawBody(urlStr, connection, listener, token));
+    }
+
+    // same as openBody(), without buffering
+    private static InputStream openRawBody(String urlStr, HttpURLConnection connection,
+                                           OnProgressListener listener,
+                                           CancellationToken token) throws IOException {
+        InputStream body = new CancellableInputStream(connection.getInputStream(), token);
+        if ( listener != null )
+            body = new ProgressInputStream(body, urlStr, connection.getContentLength(), listener);
+        return body;
+    }
+
+    // releases the connection for reuse, or closes it after a failure
+    private void finish(HttpURLConnection connection, InputStream in, boolean reusable) {
+        if ( connection == null )
+            return;
+        if ( reusable )
+            connections.release(connection, in);
+        else
+            connections.discard(connection);
+    }
+
+    /**
+     * Receives the progress of a download.
+     * Called on the download Thread, already throttled
+     * by a {@link ProgressThrottle}.
+     */
+    public interface OnProgressListener {
+        /**
+         * @param urlStr        url being downloaded
+         * @param bytesRead     bytes of the body read so far
+         * @param contentLength size of the body, -1 if unknown
+         * @param percent       0 to 100, -1 if the size is unknown
+         */
+        void onProgress(String urlStr, long bytesRead, long contentLength, int percent);
+    }
+
+    /**
+     * Consumes the body of a response
+     */
+    public interface BodyReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    // freshness of the response in milliseconds
+    private long maxAgeOf(HttpURLConnection connection) {
+        return parseMaxAge(connection.getHeaderField("Cache-Control"), defaultFreshnessMillis);
+    }
+
+    /**
+     * Reads the max-age of a Cache-Control header.
+     * no-cache and no-store make the response stale right away.
+     * @param cacheControl  header value, may be null
+     * @param defaultMillis returned when there's no max-age
+     */
+    static long parseMaxAge(String cacheControl, long defaultMillis) {
+        if ( cacheControl == null )
+            return defaultMillis;
+        for ( String directive : cacheControl.split(",") ) {
+            directive = directive.trim().toLowerCase();
+            if ( directive.equals("no-cache") || directive.equals("no-store") )
+                return 0;
+            if ( directive.startsWith("max-age=") ) {
+                try {
+                    long seconds = Long.parseLong(directive.substring("max-age=".length()).trim());
+                    return TimeUnit.SECONDS.toMillis(Math.max(0, seconds));
+                } catch (NumberFormatException e) {
+                    return defaultMillis;
+                }
+            }
+        }
+        return defaultMillis;
+    }
+}
@@ -0,0 +1,579 @@
+package com.tinmegali.hamer.download;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads Bitmaps for the {@link com.tinmegali.hamer.WorkerThread}.
+ *
+ * Images are searched on two cache levels before any network I/O:
+ *
+ * {@link #memoryCache}     decoded Bitmaps
+ * {@link #diskCache}       downloaded files, persisted between executions
+ *
+ * Downloaded images are written to the disk cache
+ * and then decoded from the cached file.
+ *
+ * Cached images have a freshness. A stale image is revalidated
+ * with a conditional request by the {@link #fetcher}, a 304
+ * response skips the body transfer and, if the Bitmap is still
+ * in memory, the decode too. With {@link #staleWhileRevalidate}
+ * the stale image is returned right away and revalidated in the
+ * background, a changed image is delivered to an {@link OnRefreshListener}.
+ * A refresh has its own token, and is dropped when a newer load
+ * of the same {@link ImageRequest#slot} starts, see {@link RefreshSlots}.
+ *
+ * Images can be decoded sized to a target using
+ * {@link #load(String, int, int)}, see {@link BitmapDecoder}.
+ * The {@link #load(ImageRequest)} also reports the
+ * download progress to an {@link ImageFetcher.OnProgressListener}
+ * and can be cancelled by the request {@link CancellationToken}.
+ * A cancelled load aborts its download, skips the decode and returns null.
+ *
+ * Concurrent loads of the same url and size are coalesced
+ * by the {@link #singleFlight}: only one download and decode
+ * happens and every caller receives the same Bitmap.
+ *
+ * Decoding reuses Bitmaps from the {@link #bitmapPool}.
+ * A Bitmap returns to the pool when it isn't referenced
+ * by the memory cache nor by the UI anymore. The UI
+ * must give back every loaded Bitmap using {@link #release(Bitmap)}
+ * when it stops showing it.
+ *
+ * All methods are blocking and must be called
+ * from a background Thread.
+ */
+public class ImageLoader {
+
+    private static final String TAG = ImageLoader.class.getSimpleName();
+
+    // default maximum size of the disk cache
+    public static final long DEFAULT_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    // decoded Bitmaps, identified by url and decode parameters
+    private final BitmapMemoryCache memoryCache;
+
+    // directory of the diskCache, null if there's no disk cache
+    private final File diskCacheDir;
+    private final long diskCacheBytes;
+
+    // downloaded files. Opened on the first load,
+    // so the journal is never read on the UI Thread
+    private DiskCache diskCache;
+    private boolean diskCacheFailed;
+
+    // scales the downsampled Bitmaps to fit exactly inside the target
+    private volatile boolean scaleToTarget;
+
+    // downloads and revalidates the images
+    private final ImageFetcher fetcher = new ImageFetcher();
+
+    // returns stale images while they are revalidated in background
+    private volatile boolean staleWhileRevalidate;
+
+    // background revalidations, identified by the memory cache key,
+    // and the refresh token of each one. Guarded by 'itself'
+    private final Map<String, CancellationToken> revalidating = new HashMap<>();
+    // drops the refreshes superseded by a newer load of their slot
+    private final RefreshSlots refreshSlots = new RefreshSlots();
+    private final ThreadPoolExecutor revalidateExecutor;
+
+    // Bitmaps reused by the decoder
+    private final BitmapPool bitmapPool;
+
+    // references to each Bitmap, held by the memory cache
+    // and by the UI. The last release gives it to the bitmapPool
+    private final ReferenceCounter<Bitmap> references;
+
+    // the memory cache, for the atomic lookups of the references
+    private final ReferenceCounter.Source<String, Bitmap> cacheSource =
+            new ReferenceCounter.Source<String, Bitmap>() {
+        @Override
+        public Bitmap get(String key) {
+            return memoryCache.get(key);
+        }
+    };
+
+    // loads running, identified by the memory cache key
+    private final SingleFlight<String, Bitmap> singleFlight = new SingleFlight<String, Bitmap>() {
+        @Override
+        protected void onComplete(String key, Bitmap bitmap, int callers) {
+            if ( bitmap == null )
+                return;
+            // a reference for every caller, then drops the
+            // reference that kept the Bitmap alive during the call
+            for ( int i = 0; i < callers; i++ )
+                retain(bitmap);
+            release(bitmap);
+        }
+    };
+
+    public ImageLoader(BitmapMemoryCache memoryCache, BitmapPool bitmapPool,
+                       File diskCacheDir, long diskCacheBytes) {
+        this.memoryCache = memoryCache;
+        this.bitmapPool = bitmapPool;
+        this.references = new ReferenceCounter<>(new ReferenceCounter.OnReleasedListener<Bitmap>() {
+            @Override
+            public void onReleased(Bitmap bitmap) {
+                if ( ImageLoader.this.bitmapPool != null )
+                    ImageLoader.this.bitmapPool.put(bitmap);
+            }
+        });
+        this.diskCacheDir = diskCacheDir;
+        this.diskCacheBytes = diskCacheBytes;
+        // a single Thread, that dies when there's nothing to revalidate
+        revalidateExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        revalidateExecutor.allowCoreThreadTimeOut(true);
+        // the cache dropped its reference
+        memoryCache.setOnEntryRemovedListener(new BitmapMemoryCache.OnEntryRemovedListener() {
+            @Override
+            public void onEntryRemoved(Bitmap bitmap) {
+                release(bitmap);
+            }
+        });
+    }
+
+    public ImageLoader(File diskCacheDir) {
+        this(BitmapMemoryCache.withDefaultSize(), BitmapPool.withDefaultSize(),
+                diskCacheDir, DEFAULT_DISK_CACHE_BYTES);
+    }
+
+    // loader without a disk cache
+    public ImageLoader() {
+        this(BitmapMemoryCache.withDefaultSize(), BitmapPool.withDefaultSize(), null, 0);
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Number of loads that received the Bitmap of
+     * an identical load, instead of downloading it again
+     */
+    public long getCoalescedCount() {
+        return singleFlight.getCoalescedCount();
+    }
+
+    public BitmapMemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    /**
+     * Defines if the Bitmaps decoded with a target size
+     * are scaled, after the downsampling, to fit inside the target.
+     */
+    public void setScaleToTarget(boolean scaleToTarget) {
+        this.scaleToTarget = scaleToTarget;
+    }
+
+    public ImageFetcher getFetcher() {
+        return fetcher;
+    }
+
+    /**
+     * Enables the stale-while-revalidate mode.
+     * Stale images are returned immediately and revalidated
+     * in background. If the image has changed, the new Bitmap
+     * is delivered to the {@link OnRefreshListener} given to
+     * {@link #load(String, int, int, OnRefreshListener)}.
+     */
+    public void setStaleWhileRevalidate(boolean staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Get the disk cache, opening it if needed.
+     * @return  the cache or null if it's unavailable
+     */
+    public synchronized DiskCache getDiskCache() {
+        if ( diskCache == null && diskCacheDir != null && !diskCacheFailed ) {
+            try {
+                diskCache = DiskCache.open(diskCacheDir, diskCacheBytes);
+            } catch (IOException e) {
+                Log.e(TAG, "getDiskCache(): can't open disk cache", e);
+                diskCacheFailed = true;
+            }
+        }
+        return diskCache;
+    }
+
+    /**
+     * Get the Bitmap from a given url, in its original size.
+     * @param urlStr    image url
+     * @return          the Bitmap or null if it couldn't be loaded
+     */
+    public Bitmap load(String urlStr) {
+        return load(urlStr, 0, 0);
+    }
+
+    /**
+     * Get the Bitmap from a given url, decoded to the target size.
+     * The same as {@link #load(String, int, int, OnRefreshListener)}
+     * without a listener.
+     */
+    public Bitmap load(String urlStr, int reqWidth, int reqHeight) {
+        return load(urlStr, reqWidth, reqHeight, null);
+    }
+
+    /**
+     * Get the Bitmap from a given url, decoded to the target size.
+     * Returns the cached Bitmap if available and fresh,
+     * otherwise downloads or revalidates and decodes the image.
+     * The caller must {@link #release(Bitmap)} the returned Bitmap.
+     * @param urlStr    image url
+     * @param reqWidth  target width, 0 for any width
+     * @param reqHeight target height, 0 for any height
+     * @param listener  receives the image refreshed on background,
+     *                  on stale-while-revalidate mode. May be null
+     * @return          the Bitmap or null if it couldn't be loaded
+     */
+    public Bitmap load(String urlStr, int reqWidth, int reqHeight, OnRefreshListener listener) {
+        return load(new ImageRequest.Builder(urlStr)
+                .size(reqWidth, reqHeight)
+                .refreshListener(listener)
+                .build());
+    }
+
+    /**
+     * Get the Bitmap described by the request.
+     * Returns the cached Bitmap if available and fresh,
+     * otherwise downloads or revalidates and decodes the image.
+     * The progress is reported only for a download started by
+     * this request, a load that joins an identical one doesn't report it.
+     * The caller must {@link #release(Bitmap)} the returned Bitmap.
+     * @return  the Bitmap or null if it couldn't be loaded or was cancelled
+     */
+    public Bitmap load(final ImageRequest request) {
+        if ( request.isCancelled() )
+            return null;
+        final String key = request.cacheKey();
+        final String urlStr = request.url;
+        // a new generation of the slot, older refreshes are dropped
+        final CancellationToken refresh = refreshSlots.newLoad(request.slot);
+        // retained with the lookup, so an eviction can't pool it meanwhile
+        Bitmap bitmap = retainCached(key);
+        if ( bitmap != null ) {
+            DiskCache.Entry entry = peekDisk(urlStr);
+            if ( entry == null || entry.isFresh(System.currentTimeMillis()) ) {
+                Log.d(TAG, "load(): memory hit " + key);
+                return bitmap;
+            }
+            if ( staleWhileRevalidate ) {
+                Log.d(TAG, "load(): stale memory hit " + key);
+                revalidateInBackground(key, request, refresh);
+                return bitmap;
+            }
+            // stale, revalidates before returning
+            release(bitmap);
+        }
+
+        while ( true ) {
+            try {
+                // joins an identical load, if there's one running
+                return singleFlight.execute(key, new Callable<Bitmap>() {
+                    @Override
+                    public Bitmap call() throws CancelledException {
+                        return loadUncached(key, request, refresh);
+                    }
+                });
+            } catch (ExecutionException e) {
+                if ( !(e.getCause() instanceof CancelledException) ) {
+                    Log.e(TAG, "load(): failed " + key, e.getCause());
+                    return null;
+                }
+                if ( request.isCancelled() ) {
+                    Log.d(TAG, (request.token.isExpired() ? "load(): timed out " : "load(): cancelled ") + key);
+                    return null;
+                }
+                // joined a load cancelled by its own request, tries again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Loads a Bitmap that isn't on the memory cache, or is stale.
+     * The result has a single reference, held for the
+     * {@link #singleFlight} call, see {@link SingleFlight#onComplete}
+     * @param refresh   token of a background refresh of the request
+     * @throws CancelledException   if the request was cancelled
+     */
+    private Bitmap loadUncached(String key, ImageRequest request, CancellationToken refresh)
+            throws CancelledException {
+        CancellationToken token = request.token;
+        String urlStr = request.url;
+        int reqWidth = request.reqWidth;
+        int reqHeight = request.reqHeight;
+        DiskCache disk = getDiskCache();
+        // may have been cached while waiting to join the call. Retained
+        // until the end, so it can't be pooled before the 304 returns it
+        Bitmap cached = retainCached(key);
+        boolean returnsCached = false;
+        try {
+            DiskCache.Entry entry = disk != null ? disk.peek(urlStr) : null;
+            long now = System.currentTimeMillis();
+            if ( cached != null && (entry == null || entry.isFresh(now)) ) {
+                returnsCached = true;
+                return cached;
+            }
+
+            if ( disk == null )
+                return cache(key, download(request));
+
+            Bitmap bitmap = null;
+            if ( entry != null && (entry.isFresh(now) || staleWhileRevalidate) ) {
+                File file = disk.get(urlStr);
+                if ( file != null ) {
+                    Log.d(TAG, "load(): disk hit " + urlStr);
+                    token.throwIfCancelled();
+                    bitmap = decode(file, reqWidth, reqHeight);
+                    if ( bitmap == null )
+                        // corrupted file, download it again
+                        disk.remove(urlStr);
+                    else if ( !entry.isFresh(now) )
+                        revalidateInBackground(key, request, refresh);
+                }
+            }
+            if ( bitmap != null )
+                return cache(key, bitmap);
+
+            // conditional request if there's a cached copy
+            ImageFetcher.Result result = fetcher.fetch(urlStr, disk, request.progressListener, token);
+            if ( result.status == ImageFetcher.Status.NOT_MODIFIED && cached != null ) {
+                // no body and no decode
+                Log.d(TAG, "load(): revalidated " + key);
+                returnsCached = true;
+                return cached;
+            }
+            if ( result.status == ImageFetcher.Status.DOWNLOADED && entry != null )
+                invalidateOtherSizes(urlStr, key);
+            // the file stays cached, only the decode is skipped
+            token.throwIfCancelled();
+            bitmap = decode(result.file, reqWidth, reqHeight);
+            if ( bitmap == null )
+                disk.remove(urlStr);
+            return cache(key, bitmap);
+        } catch (CancelledException e) {
+            throw e;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if ( !returnsCached )
+                release(cached);
+        }
+    }
+
+    /**
+     * Warms the disk cache with the url, without decoding it.
+     * A next {@link #load(ImageRequest)} of any size decodes it
+     * from the disk, without network I/O.
+     * Nothing is done if the cached copy is fresh,
+     * or if there's no disk cache.
+     * @param urlStr    image url
+     * @return          bytes downloaded, 0 if no body was transferred
+     * @throws IOException  on network errors
+     */
+    public long prefetch(String urlStr) throws IOException {
+        return prefetch(urlStr, new CancellationToken());
+    }
+
+    /**
+     * Same as {@link #prefetch(String)}, stopped when the token is cancelled.
+     * @throws CancelledException   if the token was cancelled
+     */
+    public long prefetch(String urlStr, CancellationToken token) throws IOException {
+        DiskCache disk = getDiskCache();
+        if ( disk == null )
+            return 0;
+        DiskCache.Entry entry = disk.peek(urlStr);
+        if ( entry != null && entry.isFresh(System.currentTimeMillis()) )
+            return 0;
+        Log.d(TAG, "prefetch(" + urlStr + ")");
+        ImageFetcher.Result result = fetcher.fetch(urlStr, disk, null, token);
+        if ( result.status == ImageFetcher.Status.NOT_MODIFIED )
+            return 0;
+        if ( entry != null )
+            // the Bitmaps decoded from the old copy are outdated
+            invalidateOtherSizes(urlStr, null);
+        return result.file.length();
+    }
+
+    /**
+     * Revalidates the image on the {@link #revalidateExecutor}.
+     * If the image has changed, the new Bitmap replaces the cached one
+     * and is delivered to the listener.
+     * The progress isn't reported, the UI is already showing an image.
+     * The refresh isn't stopped by the request token, that ends with the
+     * load, but by a newer load of the same slot, see {@link RefreshSlots}.
+     * @param refresh   token of the refresh, from {@link RefreshSlots#newLoad(Object)}
+     */
+    private void revalidateInBackground(final String key, ImageRequest request,
+                                        final CancellationToken refresh) {
+        final String urlStr = request.url;
+        final int reqWidth = request.reqWidth;
+        final int reqHeight = request.reqHeight;
+        final OnRefreshListener listener = request.refreshListener;
+        final DiskCache disk = getDiskCache();
+        if ( disk == null )
+            return;
+        synchronized (revalidating) {
+            // a dropped refresh may still be running, but won't deliver
+            CancellationToken running = revalidating.get(key);
+            if ( running != null && !running.isCancelled() )
+                return;
+            revalidating.put(key, refresh);
+        }
+        Log.d(TAG, "revalidateInBackground(" + key + ")");
+        revalidateExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ImageFetcher.Result result = fetcher.fetch(urlStr, disk, null, refresh);
+                    if ( result.status == ImageFetcher.Status.NOT_MODIFIED )
+                        return;
+                    invalidateOtherSizes(urlStr, key);
+                    // nobody is waiting for the new image
+                    refresh.throwIfCancelled();
+                    Bitmap fresh = cache(key, decode(result.file, reqWidth, reqHeight));
+                    if ( fresh == null )
+                        return;
+                    Log.d(TAG, "revalidateInBackground(): refreshed " + key);
+                    // the listener receives the call reference, unless
+                    // a newer load of the slot started and the UI moved on
+                    boolean delivered = listener != null && refreshSlots.deliver(refresh,
+                            new RefreshSlots.Delivery<Bitmap>() {
+                                @Override
+                                public void deliver(Bitmap bitmap) {
+                                    listener.onRefreshed(urlStr, bitmap);
+                                }
+                            }, fresh);
+                    if ( !delivered )
+                        release(fresh);
+                } catch (CancelledException e) {
+                    Log.d(TAG, "revalidateInBackground(): cancelled " + key);
+                } catch (IOException e) {
+                    Log.w(TAG, "revalidateInBackground(): failed " + key, e);
+                } finally {
+                    synchronized (revalidating) {
+                        if ( revalidating.get(key) == refresh )
+                            revalidating.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Puts a new Bitmap on the memory cache.
+     * @return  the Bitmap, with a reference for the caller
+     */
+    private Bitmap cache(String key, Bitmap bitmap) {
+        if ( bitmap != null ) {
+            // one reference for the caller, other for the cache.
+            // The caller reference comes first, so the Bitmap isn't pooled
+            // if the cache evicts it right away
+            retain(bitmap);
+            retain(bitmap);
+            memoryCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    // the content of the url changed, other sizes of it are outdated
+    private void invalidateOtherSizes(String urlStr, String key) {
+        String prefix = BitmapMemoryCache.keyFor(urlStr, 0, 0);
+        prefix = prefix.substring(0, prefix.lastIndexOf('#') + 1);
+        for ( String cachedKey : memoryCache.snapshot().keySet() ) {
+            if ( cachedKey.startsWith(prefix) && !cachedKey.equals(key) )
+                memoryCache.remove(cachedKey);
+        }
+    }
+
+    // metadata of the url on the disk cache, if any
+    private DiskCache.Entry peekDisk(String urlStr) {
+        DiskCache disk = getDiskCache();
+        return disk != null ? disk.peek(urlStr) : null;
+    }
+
+    private Bitmap decode(File file, int reqWidth, int reqHeight) {
+        // through the file descriptor, no Java buffer in between
+        return BitmapDecoder.decodeFile(file, reqWidth, reqHeight, scaleToTarget, bitmapPool);
+    }
+
+    /**
+     * Gives back a Bitmap that was returned by {@link #load(String, int, int)}.
+     * When nobody else references it the Bitmap goes to the {@link #bitmapPool}
+     * and its memory will be reused by a next decode.
+     * The Bitmap can't be used after this call.
+     */
+    public void release(Bitmap bitmap) {
+        references.release(bitmap);
+    }
+
+    // adds a reference to the Bitmap
+    private Bitmap retain(Bitmap bitmap) {
+        return references.retain(bitmap);
+    }
+
+    // the Bitmap on the memory cache, with a new reference. The lookup and
+    // the retain are atomic with release(), so an eviction can't pool it between
+    private Bitmap retainCached(String key) {
+        return references.retainFrom(cacheSource, key);
+    }
+
+    /**
+     * Download a bitmap using its url,
+     * decoding it directly from the network stream.
+     * Used when there's no disk cache.
+     */
+    private Bitmap download(ImageRequest request) throws CancelledException {
+        String urlStr = request.url;
+        final int reqWidth = request.reqWidth;
+        final int reqHeight = request.reqHeight;
+        Log.d(TAG, "download(" + urlStr + ")");
+        try {
+            return fetcher.stream(urlStr, new ImageFetcher.BodyReader<Bitmap>() {
+                @Override
+                public Bitmap read(InputStream in) throws IOException {
+                    return BitmapDecoder.decodeStream(in, reqWidth, reqHeight, scaleToTarget, bitmapPool);
+                }
+            }, request.progressListener, request.token);
+        } catch (CancelledException e) {
+            throw e;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Receives images refreshed in background,
+     * on the stale-while-revalidate mode.
+     */
+    public interface OnRefreshListener {
+        /**
+         * Called on a background Thread, never after a newer load of the
+         * same {@link ImageRequest#slot} started, so it must not block.
+         * The listener must {@link #release(Bitmap)} the Bitmap when done with it.
+         * @param urlStr    url of the image
+         * @param bitmap    new Bitmap of the image
+         */
+        void onRefreshed(String urlStr, Bitmap bitmap);
+    }
+}
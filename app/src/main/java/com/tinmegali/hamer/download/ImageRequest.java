@@ -0,0 +1,102 @@
+package com.tinmegali.hamer.download;
+
+/**
+ * Describes a load of the {@link ImageLoader}:
+ * the image url, the target size and the
+ * listeners that follow the load.
+ *
+ * Created with a {@link Builder}:
+ *
+ *      ImageRequest request = new ImageRequest.Builder(url)
+ *              .size(width, height)
+ *              .progressListener(listener)
+ *              .build();
+ */
+public final class ImageRequest {
+
+    public final String url;
+    // target size, 0 for any size
+    public final int reqWidth;
+    public final int reqHeight;
+    // receives the image refreshed on background. May be null
+    public final ImageLoader.OnRefreshListener refreshListener;
+    // where the image is shown, a newer load of the same slot
+    // drops the refresh of this one. The refreshListener by default
+    public final Object slot;
+    // receives the download progress. May be null
+    public final ImageFetcher.OnProgressListener progressListener;
+    // cancels the load, never null
+    public final CancellationToken token;
+
+    private ImageRequest(Builder builder) {
+        this.url = builder.url;
+        this.reqWidth = builder.reqWidth;
+        this.reqHeight = builder.reqHeight;
+        this.refreshListener = builder.refreshListener;
+        this.slot = builder.slot != null ? builder.slot : builder.refreshListener;
+        this.progressListener = builder.progressListener;
+        this.token = builder.token != null ? builder.token : new CancellationToken();
+    }
+
+    public boolean isCancelled() {
+        return token.isCancelled();
+    }
+
+    /**
+     * Key of the decoded Bitmap on the {@link BitmapMemoryCache}
+     */
+    public String cacheKey() {
+        return BitmapMemoryCache.keyFor(url, reqWidth, reqHeight);
+    }
+
+    @Override
+    public String toString() {
+        return "ImageRequest{" + cacheKey() + "}";
+    }
+
+    public static class Builder {
+        private final String url;
+        private int reqWidth;
+        private int reqHeight;
+        private ImageLoader.OnRefreshListener refreshListener;
+        private Object slot;
+        private ImageFetcher.OnProgressListener progressListener;
+        private CancellationToken token;
+
+        public Builder(String url) {
+            if ( url == null )
+                throw new IllegalArgumentException("url can't be null");
+            this.url = url;
+        }
+
+        public Builder size(int reqWidth, int reqHeight) {
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+            return this;
+        }
+
+        public Builder refreshListener(ImageLoader.OnRefreshListener refreshListener) {
+            this.refreshListener = refreshListener;
+            return this;
+        }
+
+        public Builder slot(Object slot) {
+            this.slot = slot;
+            return this;
+        }
+
+        public Builder progressListener(ImageFetcher.OnProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public Builder cancellationToken(CancellationToken token) {
+            this.token = token;
+            return this;
+        }
+
+        public ImageRequest build() {
+            return new ImageRequest(this);
+        }
+    }
+}
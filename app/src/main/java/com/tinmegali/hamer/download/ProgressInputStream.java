@@ -0,0 +1,80 @@
+package com.tinmegali.hamer.download;
+
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a response body and reports
+ * the progress against its Content-Length.
+ * Updates pass through a {@link ProgressThrottle} before
+ * reaching the {@link ImageFetcher.OnProgressListener}.
+ */
+class ProgressInputStream extends FilterInputStream {
+
+    private final String url;
+    private final long contentLength;
+    private final ImageFetcher.OnProgressListener listener;
+    private final ProgressThrottle throttle = new ProgressThrottle();
+
+    private long bytesRead;
+
+    /**
+     * @param contentLength size of the body, -1 if unknown
+     */
+    ProgressInputStream(InputStream in, String url, long contentLength,
+                        ImageFetcher.OnProgressListener listener) {
+        super(in);
+        this.url = url;
+        this.contentLength = contentLength;
+        this.listener = listener;
+        report(false);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if ( b == -1 )
+            report(true);
+        else
+            count(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if ( read == -1 )
+            report(true);
+        else
+            count(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = super.skip(count);
+        count(skipped);
+        return skipped;
+    }
+
+    // mark/reset would count the same bytes twice
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long read) {
+        bytesRead += read;
+        report(contentLength > 0 && bytesRead >= contentLength);
+    }
+
+    private void report(boolean done) {
+        int percent = contentLength > 0
+                ? (int) Math.min(100, bytesRead * 100 / contentLength) : -1;
+        if ( throttle.accept(percent, SystemClock.uptimeMillis(), done) )
+            listener.onProgress(url, bytesRead, contentLength, percent);
+    }
+}
@@ -0,0 +1,60 @@
+package com.tinmegali.hamer.download;
+
+/**
+ * Decides which download progress updates reach the UI.
+ *
+ * A fast download can produce thousands of reads, and
+ * sending one Message per read would flood the UI Thread.
+ * An update is accepted only if:
+ *      at least {@link #minIntervalMillis} passed since the last one,
+ *      about a frame by default, and
+ *      the percent moved at least {@link #minPercentStep}.
+ * The final update, when the download ends, is always accepted.
+ *
+ * Not thread safe, each download has its own throttle.
+ */
+public class ProgressThrottle {
+
+    // ~ one frame at 60fps
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 16;
+    public static final int DEFAULT_MIN_PERCENT_STEP = 5;
+
+    private final long minIntervalMillis;
+    private final int minPercentStep;
+
+    private int lastPercent = -1;
+    private long lastTime = Long.MIN_VALUE;
+    private boolean finished;
+
+    public ProgressThrottle(long minIntervalMillis, int minPercentStep) {
+        this.minIntervalMillis = minIntervalMillis;
+        this.minPercentStep = minPercentStep;
+    }
+
+    public ProgressThrottle() {
+        this(DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MIN_PERCENT_STEP);
+    }
+
+    /**
+     * @param percent   current progress, -1 if the size is unknown
+     * @param nowMillis current time
+     * @param done      if the download has ended
+     * @return          true if the update must be reported
+     */
+    public boolean accept(int percent, long nowMillis, boolean done) {
+        if ( finished )
+            return false;
+        if ( done ) {
+            finished = true;
+            return percent != lastPercent || percent < 0;
+        }
+        if ( lastTime != Long.MIN_VALUE && nowMillis - lastTime < minIntervalMillis )
+            return false;
+        // with an unknown size only the time is throttled
+        if ( percent >= 0 && lastPercent >= 0 && percent - lastPercent < minPercentStep )
+            return false;
+        lastPercent = percent;
+        lastTime = nowMillis;
+        return true;
+    }
+}
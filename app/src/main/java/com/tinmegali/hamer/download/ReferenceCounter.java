@@ -0,0 +1,99 @@
+package com.tinmegali.hamer.download;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Counts the references to shared values, like the Bitmaps
+ * held by the memory cache and by the UI at the same time.
+ * When the last reference is released the value is handed
+ * to the {@link OnReleasedListener}, usually a {@link BitmapPool}.
+ *
+ * A value found on a cache must be retained with
+ * {@link #retainFrom(Source, Object)}: the lookup and the retain
+ * happen under the same lock as {@link #release(Object)}, so a
+ * concurrent eviction can't hand the value to the pool between them.
+ *
+ * Weak keys, so values never released are still garbage collected.
+ * Thread safe.
+ */
+class ReferenceCounter<T> {
+
+    // Guarded by 'this'
+    private final Map<T, Integer> references = new WeakHashMap<>();
+
+    private final OnReleasedListener<T> listener;
+
+    /**
+     * @param listener  receives the values without references, may be null
+     */
+    ReferenceCounter(OnReleasedListener<T> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a reference to the value
+     * @return  the value
+     */
+    synchronized T retain(T value) {
+        Integer count = references.get(value);
+        references.put(value, count == null ? 1 : count + 1);
+        return value;
+    }
+
+    /**
+     * Looks up the value and retains it, atomically
+     * @return  the value with a new reference, or null if it's not on the source
+     */
+    synchronized <K> T retainFrom(Source<K, T> source, K key) {
+        T value = source.get(key);
+        return value != null ? retain(value) : null;
+    }
+
+    /**
+     * Drops a reference to the value. The last one hands it
+     * to the listener, on the calling Thread, outside the lock.
+     * @return  true if it was the last reference
+     */
+    boolean release(T value) {
+        if ( value == null )
+            return false;
+        synchronized (this) {
+            Integer count = references.get(value);
+            if ( count == null ) {
+                // not counted here
+                return false;
+            }
+            if ( count > 1 ) {
+                references.put(value, count - 1);
+                return false;
+            }
+            references.remove(value);
+        }
+        if ( listener != null )
+            listener.onReleased(value);
+        return true;
+    }
+
+    /**
+     * @return  references to the value, 0 if it isn't counted
+     */
+    synchronized int count(T value) {
+        Integer count = references.get(value);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Where {@link #retainFrom(Source, Object)} finds the values
+     */
+    interface Source<K, T> {
+        T get(K key);
+    }
+
+    /**
+     * Receives a value that lost its last reference
+     */
+    interface OnReleasedListener<T> {
+        void onReleased(T value);
+    }
+}
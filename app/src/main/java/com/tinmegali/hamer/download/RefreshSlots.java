@@ -0,0 +1,56 @@
+package com.tinmegali.hamer.download;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Generations of the background refreshes of the {@link ImageLoader},
+ * by the slot where the images are shown, see {@link ImageRequest#slot}.
+ *
+ * Every load of a slot starts a new generation, with its own
+ * {@link CancellationToken} for the refresh. The token of the
+ * previous generation is cancelled, so a refresh started by an
+ * older load, maybe of another url, can't replace the image of
+ * a newer load.
+ *
+ * Thread safe.
+ */
+class RefreshSlots {
+
+    // the refresh token of the last load of each slot. Guarded by 'this'
+    private final Map<Object, CancellationToken> current = new WeakHashMap<>();
+
+    /**
+     * A load of the slot started, the refreshes of the previous loads are dropped.
+     * @param slot  where the image is shown, null if it isn't tracked
+     * @return      the token of the refresh of this load
+     */
+    synchronized CancellationToken newLoad(Object slot) {
+        CancellationToken refresh = new CancellationToken();
+        if ( slot == null )
+            return refresh;
+        CancellationToken previous = current.put(slot, refresh);
+        if ( previous != null )
+            previous.cancel();
+        return refresh;
+    }
+
+    /**
+     * Delivers a refreshed Bitmap, unless a newer load of its slot started.
+     * The check and the delivery are atomic with {@link #newLoad(Object)},
+     * so the refresh is handed to the listener before the newer load starts.
+     * The listener must not block.
+     * @param refresh   token returned by {@link #newLoad(Object)}
+     * @return          true if the listener received the value
+     */
+    synchronized <T> boolean deliver(CancellationToken refresh, Delivery<T> delivery, T value) {
+        if ( refresh.isCancelled() )
+            return false;
+        delivery.deliver(value);
+        return true;
+    }
+
+    interface Delivery<T> {
+        void deliver(T value);
+    }
+}
@@ -0,0 +1,87 @@
+package com.tinmegali.hamer.download;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.util.Random;
+
+/**
+ * Defines how the {@link ImageFetcher} retries a failed download.
+ *
+ * Only failures that may pass are retried: network errors,
+ * timeouts, 5xx responses, 408 Request Timeout and 429 Too Many Requests.
+ * A cancel or a client error, like a 404, fails right away.
+ *
+ * The wait before every retry grows exponentially, from
+ * {@link #baseDelayMillis} up to {@link #maxDelayMillis}, and is
+ * randomized between 0 and that limit ("full jitter"), so many
+ * clients failing together don't retry together.
+ *
+ * Immutable.
+ */
+public class RetryPolicy {
+
+    // a single attempt, never retries
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    // three attempts, waiting up to 200ms and then 400ms
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 200, 2000);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxAttempts       attempts, counting the first one
+     * @param baseDelayMillis   limit of the wait before the first retry
+     * @param maxDelayMillis    limit of the wait before any retry
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if ( maxAttempts <= 0 )
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Wait before the next attempt
+     * @param attempt   attempts already failed, 1 or more
+     * @param random    source of the jitter
+     */
+    public long backoffMillis(int attempt, Random random) {
+        // base * 2^(attempt - 1), without overflowing
+        int shift = Math.min(attempt - 1, 30);
+        long limit = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        if ( limit <= 0 )
+            return 0;
+        return (long) (random.nextDouble() * (limit + 1));
+    }
+
+    /**
+     * @return  true if another attempt may succeed
+     */
+    public static boolean isRetryable(IOException e) {
+        if ( e instanceof CancelledException )
+            return false;
+        if ( e instanceof HttpStatusException ) {
+            int code = ((HttpStatusException) e).getCode();
+            return code >= 500 || code == 408 || code == 429;
+        }
+        // the url or the request is wrong, it would fail again
+        return !(e instanceof MalformedURLException
+                || e instanceof FileNotFoundException
+                || e instanceof ProtocolException);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{attempts=" + maxAttempts
+                + " base=" + baseDelayMillis + "ms max=" + maxDelayMillis + "ms}";
+    }
+}
@@ -0,0 +1,133 @@
+package com.tinmegali.hamer.download;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls identified by the same key.
+ *
+ * The first caller of a key executes the call. Callers that arrive
+ * while it's still running don't execute anything, they wait
+ * for the first call and receive the same result.
+ *
+ * Once a call finishes its key is released, so a
+ * later caller executes a new call.
+ *
+ * @param <K>   key of the calls
+ * @param <V>   result of the calls
+ */
+public class SingleFlight<K, V> {
+
+    // calls running. Guarded by itself
+    private final Map<K, Flight<V>> flights = new HashMap<>();
+
+    // calls that joined a running call instead of executing
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Executes the call, or waits for the running call with the same key.
+     * @param key   identifies the call
+     * @param call  executed only if there's no running call for the key
+     * @return      the result of the call
+     * @throws ExecutionException   the call has thrown an exception
+     * @throws InterruptedException interrupted while waiting the running call
+     */
+    public V execute(K key, Callable<V> call) throws ExecutionException, InterruptedException {
+        Flight<V> flight;
+        boolean first = false;
+        synchronized (flights) {
+            flight = flights.get(key);
+            if ( flight != null ) {
+                flight.callers++;
+                coalesced.incrementAndGet();
+            } else {
+                flight = new Flight<>();
+                flights.put(key, flight);
+                first = true;
+            }
+        }
+        // the first caller executes the call, the others wait for it
+        return first ? run(key, flight, call) : flight.await();
+    }
+
+    /**
+     * Number of calls that received the result of another call
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Number of calls running right now
+     */
+    public int getInFlightCount() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+
+    /**
+     * Called when a call finishes successfully, before the result
+     * is delivered. No caller can join the call anymore.
+     * @param key       key of the call
+     * @param result    result of the call
+     * @param callers   callers that will receive the result
+     */
+    protected void onComplete(K key, V result, int callers) {
+    }
+
+    // executes the call and delivers the result to the waiting callers
+    private V run(K key, Flight<V> flight, Callable<V> call) throws ExecutionException {
+        V result = null;
+        Throwable error = null;
+        try {
+            result = call.call();
+        } catch (Throwable e) {
+            error = e;
+        } finally {
+            int callers;
+            synchronized (flights) {
+                flights.remove(key);
+                callers = flight.callers;
+            }
+            try {
+                if ( error == null )
+                    onComplete(key, result, callers);
+            } finally {
+                flight.complete(result, error);
+            }
+        }
+        if ( error != null )
+            throw new ExecutionException(error);
+        return result;
+    }
+
+    /**
+     * A running call and its result
+     */
+    private static class Flight<V> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        // callers waiting for this call, including the first one.
+        // Guarded by the flights map
+        private int callers = 1;
+        private V result;
+        private Throwable error;
+
+        void complete(V result, Throwable error) {
+            this.result = result;
+            this.error = error;
+            done.countDown();
+        }
+
+        V await() throws ExecutionException, InterruptedException {
+            done.await();
+            if ( error != null )
+                throw new ExecutionException(error);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.tinmegali.hamer.looper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the work in flight on a Looper and the pools it
+ * dispatches to, so a burst of requests can't pile up and
+ * hold memory forever.
+ *
+ * Every item is admitted before being queued, is marked
+ * {@link #start(Object) started} when it leaves the queue, and
+ * {@link #leave(Object) leaves} when it ends or is cancelled.
+ * A started item keeps its slot: work handed to another queue,
+ * like a download pool, is still in flight.
+ * When {@link #capacity} items are already in flight, a new one is
+ * handled by the {@link Policy}:
+ *
+ *      {@link Policy#REJECT}           the new item is shed
+ *      {@link Policy#DROP_OLDEST}      the oldest queued item is shed
+ *      {@link Policy#DROP_SAME_KIND}   the oldest queued item of the same
+ *                                      kind is shed, or the new one if there's none
+ *      {@link Policy#BLOCK}            the caller waits for a free slot,
+ *                                      up to {@link #blockTimeoutMillis}
+ *
+ * Only queued items are dropped, never started ones: when every
+ * item in flight has started, the new one is shed instead.
+ * A shed item that was queued is given to the {@link Evictor},
+ * which removes it from the Looper.
+ *
+ * Thread safe.
+ */
+public class AdmissionControl<T> {
+
+    public enum Policy {
+        REJECT,
+        DROP_OLDEST,
+        DROP_SAME_KIND,
+        BLOCK
+    }
+
+    /**
+     * Removes a shed item from the queue. Called
+     * outside of any lock, on the Thread of the new item
+     */
+    public interface Evictor<T> {
+        void evict(T item);
+    }
+
+    private final int capacity;
+    private final Policy policy;
+    private final long blockTimeoutMillis;
+    private final Evictor<T> evictor;
+
+    // items in flight, queued or started, the oldest first. Guarded by 'this'
+    private final LinkedList<Entry<T>> inFlight = new LinkedList<>();
+
+    // statistics. Guarded by 'this'
+    private long accepted;
+    private long rejected;
+    private long dropped;
+    private long timedOut;
+    private long blocked;
+
+    /**
+     * @param capacity              items that can be in flight
+     * @param policy                what happens when the queue is full
+     * @param blockTimeoutMillis    maximum wait of {@link Policy#BLOCK}
+     * @param evictor               removes the dropped items
+     */
+    public AdmissionControl(int capacity, Policy policy, long blockTimeoutMillis, Evictor<T> evictor) {
+        if ( capacity <= 0 )
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.evictor = evictor;
+    }
+
+    /**
+     * Admits an item on the queue.
+     * With {@link Policy#BLOCK} it may wait for a free slot.
+     * @param kind  groups the items for {@link Policy#DROP_SAME_KIND}
+     * @param item  item that will be queued
+     * @return      true if the item can be queued, false if it was shed
+     */
+    public boolean admit(Object kind, T item) {
+        List<T> evicted = new ArrayList<>(1);
+        boolean admitted;
+        synchronized (this) {
+            admitted = admitLocked(kind, item, evicted);
+            if ( admitted ) {
+                inFlight.add(new Entry<>(kind, item));
+                accepted++;
+            }
+        }
+        for ( T shed : evicted )
+            evictor.evict(shed);
+        return admitted;
+    }
+
+    private boolean admitLocked(Object kind, T item, List<T> evicted) {
+        if ( inFlight.size() < capacity )
+            return true;
+        switch ( policy ) {
+            case DROP_OLDEST:
+            case DROP_SAME_KIND:
+                for ( Iterator<Entry<T>> iterator = inFlight.iterator(); iterator.hasNext(); ) {
+                    Entry<T> entry = iterator.next();
+                    if ( entry.started )
+                        continue;
+                    if ( policy == Policy.DROP_OLDEST || entry.kind.equals(kind) ) {
+                        iterator.remove();
+                        evicted.add(entry.item);
+                        dropped++;
+                        return true;
+                    }
+                }
+                rejected++;
+                return false;
+            case BLOCK:
+                blocked++;
+                if ( awaitSlot() )
+                    return true;
+                timedOut++;
+                return false;
+            default:
+                rejected++;
+                return false;
+        }
+    }
+
+    // waits until an item leaves the queue, or the timeout
+    private boolean awaitSlot() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        try {
+            while ( inFlight.size() >= capacity ) {
+                long remaining = deadline - System.nanoTime();
+                if ( remaining <= 0 )
+                    return false;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * The item left the queue and is running, it can't be dropped anymore.
+     * It keeps its slot until it {@link #leave(Object) leaves}.
+     */
+    public synchronized void start(T item) {
+        for ( Entry<T> entry : inFlight ) {
+            if ( entry.item == item ) {
+                entry.started = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * The item ended or was cancelled, its slot is free.
+     * Items that already left are ignored.
+     */
+    public synchronized void leave(T item) {
+        for ( Iterator<Entry<T>> iterator = inFlight.iterator(); iterator.hasNext(); ) {
+            if ( iterator.next().item == item ) {
+                iterator.remove();
+                notifyAll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Items admitted that haven't started yet
+     */
+    public synchronized int getQueued() {
+        return inFlight.size() - getRunning();
+    }
+
+    /**
+     * Items started that haven't ended yet
+     */
+    public synchronized int getRunning() {
+        int running = 0;
+        for ( Entry<T> entry : inFlight ) {
+            if ( entry.started )
+                running++;
+        }
+        return running;
+    }
+
+    public synchronized long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Items shed: rejected, dropped from the queue or timed out blocking
+     */
+    public synchronized long getShed() {
+        return rejected + dropped + timedOut;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public synchronized String getStats() {
+        return policy + " inFlight=" + inFlight.size() + "/" + capacity
+                + " running=" + getRunning()
+                + " accepted=" + accepted + " shed=" + getShed()
+                + " (rejected=" + rejected + " dropped=" + dropped + " timedOut=" + timedOut + ")"
+                + " blocked=" + blocked;
+    }
+
+    private static class Entry<T> {
+        final Object kind;
+        final T item;
+        boolean started;
+
+        Entry(Object kind, T item) {
+            this.kind = kind;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.tinmegali.hamer.looper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs scheduled Runnables on a Looper, grouping the ones
+ * that are due close to each other into a single wakeup.
+ * Due Runnables aren't run by the wakeup itself, they're handed
+ * to a {@link PriorityScheduler} by their {@link Priority}, so timed
+ * work is ordered with the rest of the work of the Looper.
+ *
+ * Each Runnable has a tolerance window (timer slack): it never
+ * runs before its time, and at most tolerance millis after it.
+ * Instead of a delayed Message per Runnable, only one wakeup is
+ * posted, at the end of the earliest window, and it dispatches
+ * every Runnable whose window is open. {@link #getStats()} reports
+ * the wakeups saved.
+ *
+ * Messages can be scheduled too, see
+ * {@link #sendMessageDelayed(Priority, Message, long, long)}: they wait here
+ * and are dispatched to their target Handler, that must be on
+ * the same Looper, through the {@link PriorityScheduler}.
+ *
+ * It can be used from any Thread, the Runnables run on the Looper.
+ */
+public class CoalescingScheduler {
+
+    private static final String TAG = CoalescingScheduler.class.getSimpleName();
+
+    // slack used when none is given
+    public static final long DEFAULT_TOLERANCE_MILLIS = 1000;
+
+    private final Handler handler;
+    // runs the due work by priority
+    private final PriorityScheduler scheduler;
+
+    // Guarded by 'queue'
+    private final WakeupQueue<Runnable> queue = new WakeupQueue<>();
+    // uptime of the posted wakeup, Long.MAX_VALUE if there's none
+    private long wakeupAt = Long.MAX_VALUE;
+
+    /**
+     * @param looper    Looper of the scheduler
+     * @param scheduler runs the due work on the Looper
+     */
+    public CoalescingScheduler(Looper looper, PriorityScheduler scheduler) {
+        this.handler = new Handler(looper);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Runs the Runnable between the uptime and uptime + tolerance,
+     * when the {@link PriorityScheduler} reaches it
+     * @return  a token to {@link #cancel(Object)} it
+     */
+    public Object postAtTime(final Priority priority, final Runnable runnable,
+                             long uptimeMillis, long toleranceMillis) {
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.post(priority, runnable);
+            }
+        }, uptimeMillis, toleranceMillis);
+    }
+
+    // the Runnable hands the work to the scheduler
+    private Object schedule(Runnable runnable, long uptimeMillis, long toleranceMillis) {
+        synchronized (queue) {
+            WakeupQueue.Entry<Runnable> entry = queue.add(runnable, uptimeMillis, toleranceMillis);
+            reschedule();
+            return entry;
+        }
+    }
+
+    /**
+     * Runs the Runnable between the delay and delay + tolerance
+     * @return  a token to {@link #cancel(Object)} it
+     */
+    public Object postDelayed(Priority priority, Runnable runnable,
+                              long delayMillis, long toleranceMillis) {
+        return postAtTime(priority, runnable, SystemClock.uptimeMillis() + delayMillis, toleranceMillis);
+    }
+
+    /**
+     * Sends the Message to its target Handler between the uptime
+     * and uptime + tolerance, like {@link Handler#sendMessageAtTime(Message, long)}
+     * with a slack, when the {@link PriorityScheduler} reaches it.
+     * The target must be a Handler of the Looper of this scheduler.
+     * @return  a token to {@link #cancel(Object)} it
+     */
+    public Object sendMessageAtTime(final Priority priority, final Message msg,
+                                    long uptimeMillis, long toleranceMillis) {
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.sendMessage(priority, msg);
+            }
+        }, uptimeMillis, toleranceMillis);
+    }
+
+    /**
+     * Sends the Message to its target Handler between the delay and delay + tolerance,
+     * like {@link Handler#sendMessageDelayed(Message, long)} with a slack
+     * @return  a token to {@link #cancel(Object)} it
+     */
+    public Object sendMessageDelayed(Priority priority, Message msg,
+                                     long delayMillis, long toleranceMillis) {
+        return sendMessageAtTime(priority, msg, SystemClock.uptimeMillis() + delayMillis, toleranceMillis);
+    }
+
+    /**
+     * @param token returned when the Runnable or Message was posted
+     * @return      false if it was already due or was cancelled
+     */
+    @SuppressWarnings("unchecked")
+    public boolean cancel(Object token) {
+        synchronized (queue) {
+            boolean removed = queue.remove((WakeupQueue.Entry<Runnable>) token);
+            if ( removed )
+                reschedule();
+            return removed;
+        }
+    }
+
+    /**
+     * Removes every pending Runnable and Message
+     */
+    public void cancelAll() {
+        synchronized (queue) {
+            queue.clear();
+            handler.removeCallbacks(wakeup);
+            wakeupAt = Long.MAX_VALUE;
+        }
+    }
+
+    public String getStats() {
+        synchronized (queue) {
+            return queue.getStats();
+        }
+    }
+
+    // posts the wakeup again if the earliest deadline changed. Guarded by 'queue'
+    private void reschedule() {
+        long next = queue.nextWakeup();
+        if ( next == wakeupAt )
+            return;
+        handler.removeCallbacks(wakeup);
+        wakeupAt = next;
+        if ( next != Long.MAX_VALUE )
+            handler.postAtTime(wakeup, next);
+    }
+
+    private final Runnable wakeup = new Runnable() {
+        @Override
+        public void run() {
+            List<Runnable> due = new ArrayList<>();
+            synchronized (queue) {
+                wakeupAt = Long.MAX_VALUE;
+                queue.pollDue(SystemClock.uptimeMillis(), due);
+                reschedule();
+            }
+            if ( due.size() > 1 )
+                Log.d(TAG, "wakeup: dispatching " + due.size() + " tasks together");
+            for ( Runnable runnable : due )
+                runnable.run();
+        }
+    };
+}
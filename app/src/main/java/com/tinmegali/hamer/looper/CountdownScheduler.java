@@ -0,0 +1,211 @@
+package com.tinmegali.hamer.looper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs many countdowns on a single tick source.
+ *
+ * Instead of a CountDownTimer, with its own delayed Messages,
+ * for every countdown, the next tick of each countdown is a
+ * {@link TimingWheel.Timeout}. One Runnable, posted to the Looper
+ * once per wheel tick and only while a countdown is running,
+ * advances the wheel. Starting, restarting and cancelling a
+ * countdown is O(1), whatever the number of countdowns.
+ *
+ * The ticks expired on the same wheel tick are sent together to
+ * the target Handler, as a single Message whose obj is a
+ * List of {@link Tick}. A countdown ticks right after it starts,
+ * then every interval, and finishes with a {@link Tick#isDone()} tick.
+ *
+ * The ticks are planned by a {@link TickSchedule}, from the start of
+ * the countdown, so a late tick doesn't delay the next ones.
+ *
+ * All the state belongs to the Looper Thread, the public
+ * methods post their work to it and can be called from any Thread.
+ */
+public class CountdownScheduler {
+
+    private static final String TAG = CountdownScheduler.class.getSimpleName();
+
+    // resolution of the ticks
+    public static final long DEFAULT_TICK_MILLIS = 50;
+    // 512 * 50ms, about 25s per round
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * A countdown tick, sent to the target Handler
+     */
+    public static class Tick {
+        public final int id;
+        // 0 when the countdown is done
+        public final long remainingMillis;
+
+        Tick(int id, long remainingMillis) {
+            this.id = id;
+            this.remainingMillis = remainingMillis;
+        }
+
+        public boolean isDone() {
+            return remainingMillis == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Tick{" + id + " " + remainingMillis + "ms}";
+        }
+    }
+
+    private static class Countdown {
+        final int id;
+        final TickSchedule schedule;
+        TimingWheel.Timeout<Countdown> timeout;
+
+        Countdown(int id, long startAt, long totalMillis, long intervalMillis) {
+            this.id = id;
+            this.schedule = new TickSchedule(startAt, totalMillis, intervalMillis);
+        }
+    }
+
+    private final Handler handler;
+    private final Handler target;
+    private final int what;
+
+    // Looper Thread only
+    private final TimingWheel<Countdown> wheel;
+    private final HashMap<Integer, Countdown> countdowns = new HashMap<>();
+    private boolean ticking;
+
+    // statistics, Looper Thread only
+    private long ticksSent;
+    private long batchesSent;
+    private long wheelTicks;
+
+    /**
+     * @param looper        Looper where the ticks are computed
+     * @param target        receives the List of {@link Tick}
+     * @param what          what of the Messages sent to the target
+     */
+    public CountdownScheduler(Looper looper, Handler target, int what,
+                              long tickMillis, int wheelSize) {
+        this.handler = new Handler(looper);
+        this.target = target;
+        this.what = what;
+        this.wheel = new TimingWheel<>(tickMillis, wheelSize, SystemClock.uptimeMillis());
+    }
+
+    public CountdownScheduler(Looper looper, Handler target, int what) {
+        this(looper, target, what, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Starts a countdown, restarting it if the id is running
+     * @param id                identifies the countdown on its ticks
+     * @param totalMillis       duration of the countdown
+     * @param intervalMillis    time between ticks
+     */
+    public void start(final int id, final long totalMillis, final long intervalMillis) {
+        if ( totalMillis <= 0 || intervalMillis <= 0 )
+            throw new IllegalArgumentException("totalMillis and intervalMillis must be positive");
+        final long startAt = SystemClock.uptimeMillis();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelOnLooper(id);
+                Countdown countdown = new Countdown(id, startAt, totalMillis, intervalMillis);
+                countdowns.put(id, countdown);
+                // the first tick is right away
+                schedule(countdown, startAt);
+            }
+        });
+    }
+
+    /**
+     * Stops a countdown, it doesn't send a done tick
+     */
+    public void cancel(final int id) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                cancelOnLooper(id);
+            }
+        });
+    }
+
+    public void cancelAll() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                for ( Countdown countdown : countdowns.values() )
+                    wheel.cancel(countdown.timeout);
+                countdowns.clear();
+            }
+        });
+    }
+
+    /**
+     * Countdowns running, ticks sent, Messages sent to the target
+     * and wheel ticks. Read on the Looper Thread or after it quits
+     */
+    public String getStats() {
+        return "running=" + countdowns.size() + " ticks=" + ticksSent
+                + " batches=" + batchesSent + " wheelTicks=" + wheelTicks;
+    }
+
+    private void cancelOnLooper(int id) {
+        Countdown countdown = countdowns.remove(id);
+        if ( countdown != null )
+            wheel.cancel(countdown.timeout);
+    }
+
+    private void schedule(Countdown countdown, long at) {
+        countdown.timeout = wheel.schedule(countdown, at);
+        if ( !ticking ) {
+            ticking = true;
+            handler.postAtTime(tick, wheel.nextTickMillis());
+        }
+    }
+
+    // the tick source, posted once per wheel tick while there are countdowns
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.uptimeMillis();
+            wheelTicks++;
+            List<Countdown> expired = new ArrayList<>();
+            wheel.advance(now, expired);
+            if ( !expired.isEmpty() )
+                sendTicks(expired, now);
+            if ( wheel.isEmpty() ) {
+                ticking = false;
+            } else {
+                // the wheel was advanced, the next tick is in the future
+                handler.postAtTime(this, wheel.nextTickMillis());
+            }
+        }
+    };
+
+    private void sendTicks(List<Countdown> expired, long now) {
+        List<Tick> ticks = new ArrayList<>(expired.size());
+        for ( Countdown countdown : expired ) {
+            if ( countdown.schedule.isDone(now) ) {
+                countdowns.remove(countdown.id);
+                ticks.add(new Tick(countdown.id, 0));
+                continue;
+            }
+            ticks.add(new Tick(countdown.id, countdown.schedule.remaining(now)));
+            countdown.timeout = wheel.schedule(countdown, countdown.schedule.nextTickAt(now));
+        }
+        ticksSent += ticks.size();
+        batchesSent++;
+        Log.d(TAG, "sendTicks(): " + ticks.size() + " ticks");
+        target.sendMessage(Message.obtain(target, what, ticks));
+    }
+}
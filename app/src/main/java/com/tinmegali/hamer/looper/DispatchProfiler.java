@@ -0,0 +1,101 @@
+package com.tinmegali.hamer.looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link DispatchStats} recorded by every
+ * {@link ProfiledHandler} of the app.
+ *
+ * Enabled by default. Recording costs a map lookup,
+ * two clock reads and a few atomic increments per Message.
+ */
+public class DispatchProfiler {
+
+    private static final DispatchProfiler INSTANCE = new DispatchProfiler();
+
+    private volatile boolean enabled = true;
+
+    private final ConcurrentHashMap<String, DispatchStats> stats = new ConcurrentHashMap<>();
+
+    public static DispatchProfiler get() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get the stats with the given name, creating them if needed
+     * @param name  like "HandlerCounter KEY_MSG_TICK"
+     */
+    public DispatchStats statsFor(String name) {
+        DispatchStats current = stats.get(name);
+        if ( current == null ) {
+            DispatchStats created = new DispatchStats(name);
+            current = stats.putIfAbsent(name, created);
+            if ( current == null )
+                current = created;
+        }
+        return current;
+    }
+
+    /**
+     * @return  the stats with the given name, or null if nothing was recorded
+     */
+    public DispatchStats getStats(String name) {
+        return stats.get(name);
+    }
+
+    /**
+     * @return  all the stats, ordered by name
+     */
+    public List<DispatchStats> getAllStats() {
+        List<DispatchStats> all = new ArrayList<>(stats.values());
+        Collections.sort(all, new Comparator<DispatchStats>() {
+            @Override
+            public int compare(DispatchStats a, DispatchStats b) {
+                return a.getName().compareTo(b.getName());
+            }
+        });
+        return all;
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    /**
+     * A table with the count, queue-wait and handle time
+     * percentiles in milliseconds and the queue depth of every
+     * kind of Message
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder(String.format(Locale.US,
+                "%-48s %7s  %-22s  %-22s  %s%n", "handler / what", "count",
+                "wait p50/p99/max ms", "handle p50/p99/max ms", "depth/max"));
+        for ( DispatchStats stat : getAllStats() ) {
+            dump.append(String.format(Locale.US, "%-48s %7d  %-22s  %-22s  %d/%d%n",
+                    stat.getName(), stat.getHandleTime().getCount(),
+                    percentiles(stat.getQueueWait()), percentiles(stat.getHandleTime()),
+                    stat.getDepth(), stat.getMaxDepth()));
+        }
+        return dump.toString();
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        return String.format(Locale.US, "%.1f/%.1f/%.1f",
+                histogram.getPercentileMicros(0.5) / 1000.0,
+                histogram.getPercentileMicros(0.99) / 1000.0,
+                histogram.getMaxMicros() / 1000.0);
+    }
+}
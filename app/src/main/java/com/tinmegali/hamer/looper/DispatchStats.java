@@ -0,0 +1,59 @@
+package com.tinmegali.hamer.looper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatch statistics of one kind of Message:
+ * a Handler class and a {@link android.os.Message#what},
+ * or a Handler class and a posted Runnable class.
+ *
+ * {@link #queueWait}   time between the Message being sent and its dispatch
+ * {@link #handleTime}  time spent handling it
+ * {@link #depth}       Messages waiting on the queue, and its max
+ */
+public class DispatchStats {
+
+    private final String name;
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram handleTime = new LatencyHistogram();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    DispatchStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getHandleTime() {
+        return handleTime;
+    }
+
+    public int getDepth() {
+        // Messages removed from the queue aren't seen
+        return Math.max(0, depth.get());
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    void onEnqueued() {
+        int current = depth.incrementAndGet();
+        int currentMax;
+        while ( current > (currentMax = maxDepth.get()) ) {
+            if ( maxDepth.compareAndSet(currentMax, current) )
+                break;
+        }
+    }
+
+    void onDequeued() {
+        depth.decrementAndGet();
+    }
+}
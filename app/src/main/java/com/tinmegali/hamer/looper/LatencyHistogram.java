@@ -0,0 +1,108 @@
+package com.tinmegali.hamer.looper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in microseconds.
+ *
+ * Values below {@link #LINEAR_LIMIT} have a bucket each. Above it
+ * every power of two is split in {@link #SUB_BUCKETS} buckets, so
+ * a percentile is reported with at most 12.5% error, using a fixed
+ * array of counters. Recording is a few atomic increments,
+ * cheap enough to stay enabled on production builds.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    // values up to 2^40us, about 12 days
+    private static final int MAX_EXPONENT = 40;
+    private static final int FIRST_EXPONENT = 63 - Long.numberOfLeadingZeros(LINEAR_LIMIT);
+    private static final int BUCKET_COUNT =
+            LINEAR_LIMIT + (MAX_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param micros    latency, negative values count as 0
+     */
+    public void record(long micros) {
+        if ( micros < 0 )
+            micros = 0;
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long currentMax;
+        while ( micros > (currentMax = max.get()) ) {
+            if ( max.compareAndSet(currentMax, micros) )
+                break;
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    public long getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * @param quantile  between 0 and 1, like 0.99 for the p99
+     * @return          the upper bound of the bucket holding the quantile,
+     *                  never more than the max. 0 if empty
+     */
+    public long getPercentileMicros(double quantile) {
+        long n = count.get();
+        if ( n == 0 )
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+            seen += counts.get(i);
+            if ( seen >= rank ) {
+                // the last bucket also holds the values beyond it
+                return i == BUCKET_COUNT - 1 ? max.get() : Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for ( int i = 0; i < BUCKET_COUNT; i++ )
+            counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int bucketOf(long micros) {
+        if ( micros < LINEAR_LIMIT )
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if ( exponent > MAX_EXPONENT )
+            return BUCKET_COUNT - 1;
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    // biggest value that falls on the bucket
+    static long upperBoundOf(int bucket) {
+        if ( bucket < LINEAR_LIMIT )
+            return bucket;
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + FIRST_EXPONENT;
+        int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+}
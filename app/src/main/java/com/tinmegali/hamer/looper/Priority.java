@@ -0,0 +1,27 @@
+package com.tinmegali.hamer.looper;
+
+/**
+ * Priority classes of the work done by the WorkerThread.
+ *
+ * Tasks run in order of a virtual deadline: the time they were
+ * queued plus {@link #ordinal()} times an aging interval.
+ * A BACKGROUND task queued at t runs before a USER_VISIBLE task
+ * queued after t + aging, so it isn't starved forever.
+ */
+public enum Priority {
+    // the user is waiting for it right now
+    IMMEDIATE,
+    // its result will be shown on the UI
+    USER_VISIBLE,
+    // nobody is waiting for it, like a prefetch
+    BACKGROUND;
+
+    /**
+     * @param enqueuedAt    time the task was queued
+     * @param agingMillis   wait that promotes a task to the class above
+     * @return              the virtual deadline of the task
+     */
+    public long deadline(long enqueuedAt, long agingMillis) {
+        return enqueuedAt + ordinal() * agingMillis;
+    }
+}
@@ -0,0 +1,132 @@
+package com.tinmegali.hamer.looper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runs Runnables and Messages on a Looper by {@link Priority},
+ * instead of the FIFO order of the Looper queue.
+ *
+ * Tasks wait on a {@link PriorityTaskQueue}. Every task sends
+ * one Message to the {@link #handler}, and every Message runs
+ * the best task queued at that moment, so other Messages of the
+ * Looper still interleave with the tasks. IMMEDIATE tasks send
+ * their Message to the front of the Looper queue.
+ *
+ * The queue-wait of every class is kept on a {@link QueueWaitStats}.
+ */
+public class PriorityScheduler {
+
+    private static final String TAG = PriorityScheduler.class.getSimpleName();
+
+    // wait that promotes a task to the class above
+    public static final long DEFAULT_AGING_MILLIS = 500;
+
+    private final Handler handler;
+    private final long agingMillis;
+
+    // Runnables and Messages waiting. Guarded by 'queue'
+    private final PriorityTaskQueue<Object> queue;
+
+    private final QueueWaitStats waitStats = new QueueWaitStats();
+
+    public PriorityScheduler(Looper looper, long agingMillis) {
+        this.agingMillis = agingMillis;
+        queue = new PriorityTaskQueue<>(agingMillis);
+        handler = new ProfiledHandler(looper) {
+            @Override
+            protected String handlerName() {
+                return "PriorityScheduler";
+            }
+
+            @Override
+            protected String whatName(int what) {
+                return "runNext";
+            }
+
+            @Override
+            public void handleMessage(Message msg) {
+                runNext();
+            }
+        };
+    }
+
+    public PriorityScheduler(Looper looper) {
+        this(looper, DEFAULT_AGING_MILLIS);
+    }
+
+    /**
+     * Runs the Runnable on the Looper
+     */
+    public void post(Priority priority, Runnable runnable) {
+        post(priority, runnable, null);
+    }
+
+    /**
+     * Runs the Runnable on the Looper
+     * @param token identifies the Runnable on {@link #remove(Object)}
+     */
+    public void post(Priority priority, Runnable runnable, Object token) {
+        enqueue(runnable, token, priority);
+    }
+
+    /**
+     * Dispatches the Message to its target Handler.
+     * The {@link Message#obj} identifies it on {@link #remove(Object)}
+     */
+    public void sendMessage(Priority priority, Message msg) {
+        if ( msg.getTarget() == null )
+            throw new IllegalArgumentException("Message without a target Handler");
+        enqueue(msg, msg.obj, priority);
+    }
+
+    /**
+     * Removes the Runnables and Messages that didn't run yet
+     * @param token the Runnable token or the Message obj
+     * @return      number of tasks removed
+     */
+    public int remove(Object token) {
+        synchronized (queue) {
+            return queue.remove(token);
+        }
+    }
+
+    public QueueWaitStats getWaitStats() {
+        return waitStats;
+    }
+
+    private void enqueue(Object task, Object token, Priority priority) {
+        synchronized (queue) {
+            queue.add(task, token, priority, SystemClock.uptimeMillis());
+        }
+        Message next = handler.obtainMessage();
+        if ( priority == Priority.IMMEDIATE )
+            handler.sendMessageAtFrontOfQueue(next);
+        else
+            handler.sendMessage(next);
+    }
+
+    // runs on the Looper
+    private void runNext() {
+        PriorityTaskQueue.Entry<Object> entry;
+        synchronized (queue) {
+            entry = queue.poll();
+        }
+        if ( entry == null )
+            // its task was removed
+            return;
+        long wait = SystemClock.uptimeMillis() - entry.enqueuedAt;
+        waitStats.record(entry.priority, wait);
+        if ( entry.priority == Priority.USER_VISIBLE && wait > agingMillis )
+            Log.w(TAG, "runNext(): user visible task waited " + wait + "ms");
+        if ( entry.task instanceof Runnable ) {
+            ((Runnable) entry.task).run();
+        } else {
+            Message msg = (Message) entry.task;
+            msg.getTarget().dispatchMessage(msg);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.tinmegali.hamer.looper;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Queue of tasks ordered by {@link Priority} with aging.
+ * The next task is the one with the earliest virtual deadline,
+ * see {@link Priority#deadline(long, long)}. Tasks with the same
+ * deadline run in the order they were added.
+ *
+ * Times are given by the caller, so the queue
+ * doesn't depend on any clock. Not thread safe.
+ * @param <T>   the task type
+ */
+public class PriorityTaskQueue<T> {
+
+    private final long agingMillis;
+    private final PriorityQueue<Entry<T>> queue = new PriorityQueue<>();
+    private long sequence;
+
+    /**
+     * @param agingMillis   wait that promotes a task to the class above
+     */
+    public PriorityTaskQueue(long agingMillis) {
+        if ( agingMillis < 0 )
+            throw new IllegalArgumentException("agingMillis can't be negative");
+        this.agingMillis = agingMillis;
+    }
+
+    /**
+     * @param task          the task
+     * @param token         identifies the task on {@link #remove(Object)}, may be null
+     * @param priority      class of the task
+     * @param nowMillis     current time
+     */
+    public void add(T task, Object token, Priority priority, long nowMillis) {
+        queue.add(new Entry<>(task, token, priority, nowMillis,
+                priority.deadline(nowMillis, agingMillis), sequence++));
+    }
+
+    /**
+     * @return  the next task, or null if the queue is empty
+     */
+    public Entry<T> poll() {
+        return queue.poll();
+    }
+
+    /**
+     * Removes every task added with the token
+     * @return  number of tasks removed
+     */
+    public int remove(Object token) {
+        int removed = 0;
+        for ( Iterator<Entry<T>> iterator = queue.iterator(); iterator.hasNext(); ) {
+            if ( iterator.next().token == token ) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * A queued task
+     */
+    public static final class Entry<T> implements Comparable<Entry<T>> {
+        public final T task;
+        public final Object token;
+        public final Priority priority;
+        public final long enqueuedAt;
+        private final long deadline;
+        private final long sequence;
+
+        Entry(T task, Object token, Priority priority, long enqueuedAt,
+              long deadline, long sequence) {
+            this.task = task;
+            this.token = token;
+            this.priority = priority;
+            this.enqueuedAt = enqueuedAt;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry<T> other) {
+            if ( deadline != other.deadline )
+                return deadline < other.deadline ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
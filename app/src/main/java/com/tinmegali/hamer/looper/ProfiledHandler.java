@@ -0,0 +1,120 @@
+package com.tinmegali.hamer.looper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A Handler that records its dispatches on the {@link DispatchProfiler}.
+ *
+ * Every Message passes by {@link #sendMessageAtTime(Message, long)},
+ * where the queue depth grows and the Message is stamped with the
+ * time it was sent, and by {@link #dispatchMessage(Message)}, where
+ * the queue-wait (now - the stamp) and the handle time are recorded.
+ * The queue-wait of a delayed Message includes its delay.
+ * {@link Message#getWhen()} can't be used, for a delayed Message it
+ * only tells how late the dispatch was.
+ *
+ * Messages are identified by the Handler class and {@link Message#what},
+ * named by {@link #whatName(int)}, posted Runnables by their class.
+ * Messages sent to the front of the queue (final on Handler, it can't
+ * stamp them) or dispatched directly: only their handle time is recorded.
+ */
+public class ProfiledHandler extends Handler {
+
+    // stats of this Handler, by what (Integer) or Runnable class
+    private final ConcurrentHashMap<Object, DispatchStats> stats = new ConcurrentHashMap<>();
+
+    // System.nanoTime() when each queued Message was sent.
+    // Weak keys, a Message removed from the queue is never dispatched
+    private final Map<Message, Long> sentAt =
+            Collections.synchronizedMap(new WeakHashMap<Message, Long>());
+
+    public ProfiledHandler() {
+        super();
+    }
+
+    public ProfiledHandler(Looper looper) {
+        super(looper);
+    }
+
+    public ProfiledHandler(Looper looper, Callback callback) {
+        super(looper, callback);
+    }
+
+    /**
+     * Name of a {@link Message#what} on the dump,
+     * Handlers should return their constant names
+     */
+    protected String whatName(int what) {
+        return "what=" + what;
+    }
+
+    /**
+     * Name of the Handler on the dump, its class name by default
+     */
+    protected String handlerName() {
+        return nameOf(getClass());
+    }
+
+    @Override
+    public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+        if ( !DispatchProfiler.get().isEnabled() )
+            return super.sendMessageAtTime(msg, uptimeMillis);
+        // stamped before it is queued, the Looper may dispatch it at once
+        DispatchStats dispatchStats = statsOf(msg);
+        sentAt.put(msg, System.nanoTime());
+        boolean sent = super.sendMessageAtTime(msg, uptimeMillis);
+        if ( sent )
+            dispatchStats.onEnqueued();
+        else
+            sentAt.remove(msg);
+        return sent;
+    }
+
+    @Override
+    public void dispatchMessage(Message msg) {
+        if ( !DispatchProfiler.get().isEnabled() ) {
+            super.dispatchMessage(msg);
+            return;
+        }
+        // read before the dispatch, the Message is recycled after it
+        DispatchStats dispatchStats = statsOf(msg);
+        Long sent = sentAt.remove(msg);
+        long start = System.nanoTime();
+        if ( sent != null ) {
+            dispatchStats.onDequeued();
+            dispatchStats.getQueueWait().record((start - sent) / 1000);
+        }
+        try {
+            super.dispatchMessage(msg);
+        } finally {
+            dispatchStats.getHandleTime().record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    private DispatchStats statsOf(Message msg) {
+        Runnable callback = msg.getCallback();
+        Object key = callback != null ? callback.getClass() : Integer.valueOf(msg.what);
+        DispatchStats current = stats.get(key);
+        if ( current == null ) {
+            String name = handlerName() + " "
+                    + (callback != null ? "Runnable " + nameOf(callback.getClass())
+                    : whatName(msg.what));
+            current = DispatchProfiler.get().statsFor(name);
+            stats.put(key, current);
+        }
+        return current;
+    }
+
+    // anonymous classes have no simple name, like WorkerThread$3
+    private static String nameOf(Class<?> type) {
+        String name = type.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+}
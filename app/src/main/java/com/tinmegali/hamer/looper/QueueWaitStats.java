@@ -0,0 +1,47 @@
+package com.tinmegali.hamer.looper;
+
+/**
+ * Time that tasks wait on a queue before running,
+ * for each {@link Priority} class. Thread safe.
+ */
+public class QueueWaitStats {
+
+    private final long[] count = new long[Priority.values().length];
+    private final long[] totalMillis = new long[count.length];
+    private final long[] maxMillis = new long[count.length];
+
+    public synchronized void record(Priority priority, long waitMillis) {
+        int i = priority.ordinal();
+        count[i]++;
+        totalMillis[i] += waitMillis;
+        maxMillis[i] = Math.max(maxMillis[i], waitMillis);
+    }
+
+    public synchronized long getCount(Priority priority) {
+        return count[priority.ordinal()];
+    }
+
+    public synchronized long getMeanMillis(Priority priority) {
+        int i = priority.ordinal();
+        return count[i] == 0 ? 0 : totalMillis[i] / count[i];
+    }
+
+    public synchronized long getMaxMillis(Priority priority) {
+        return maxMillis[priority.ordinal()];
+    }
+
+    /**
+     * @return  count, mean and max wait of every class
+     */
+    public synchronized String getStats() {
+        StringBuilder stats = new StringBuilder();
+        for ( Priority priority : Priority.values() ) {
+            if ( stats.length() > 0 )
+                stats.append(", ");
+            stats.append(priority).append(" n=").append(getCount(priority))
+                    .append(" avg=").append(getMeanMillis(priority)).append("ms")
+                    .append(" max=").append(getMaxMillis(priority)).append("ms");
+        }
+        return stats.toString();
+    }
+}
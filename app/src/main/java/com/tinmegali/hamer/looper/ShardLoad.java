@@ -0,0 +1,83 @@
+package com.tinmegali.hamer.looper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load of one shard of a worker group: the work routed to it,
+ * the tasks still queued on its Looper and the time it was busy.
+ *
+ * {@link #imbalance(long[])} compares the shards, telling
+ * how far the busiest one is from an even split.
+ *
+ * Thread safe.
+ */
+public class ShardLoad {
+
+    // tasks and downloads routed to the shard
+    private final AtomicLong routed = new AtomicLong();
+    // tasks and downloads queued on the shard and not finished yet
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    /**
+     * A task or a download was queued on the shard
+     */
+    public void onQueued() {
+        routed.incrementAndGet();
+        pending.incrementAndGet();
+    }
+
+    /**
+     * A queued task or download has ended
+     * @param nanos time the shard was busy with it
+     */
+    public void onFinished(long nanos) {
+        pending.decrementAndGet();
+        completed.incrementAndGet();
+        busyNanos.addAndGet(nanos);
+    }
+
+    public long getRouted() {
+        return routed.get();
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    public String getStats() {
+        return "routed=" + routed.get() + " pending=" + pending.get()
+                + " completed=" + completed.get()
+                + " busy=" + TimeUnit.NANOSECONDS.toMillis(busyNanos.get()) + "ms";
+    }
+
+    /**
+     * The busiest shard load divided by the average load.
+     * 1 is an even split, N is all the load on one of N shards.
+     * @return  the imbalance, 1 when there's no load at all
+     */
+    public static double imbalance(long[] loads) {
+        if ( loads.length == 0 )
+            return 1;
+        long max = 0;
+        long total = 0;
+        for ( long load : loads ) {
+            max = Math.max(max, load);
+            total += load;
+        }
+        if ( total == 0 )
+            return 1;
+        return (double) max * loads.length / total;
+    }
+}
@@ -0,0 +1,78 @@
+package com.tinmegali.hamer.looper;
+
+/**
+ * Plans the ticks of a countdown against the uptime clock.
+ *
+ * Tick n is due at start + n * interval, whatever the time the
+ * previous ticks really ran. A late tick doesn't push the next
+ * ones, so the delays of the Looper don't add up (drift).
+ * Ticks missed by a long delay are skipped, not run in a burst.
+ * The last tick is due at the end of the countdown.
+ */
+public class TickSchedule {
+
+    private final long startAt;
+    private final long endAt;
+    private final long intervalMillis;
+
+    // index of the last tick planned, 0 is the start
+    private long next;
+    private long skipped;
+
+    /**
+     * @param startAt           uptime of the start, the first tick
+     * @param totalMillis       duration of the countdown
+     * @param intervalMillis    time between ticks
+     */
+    public TickSchedule(long startAt, long totalMillis, long intervalMillis) {
+        if ( totalMillis <= 0 || intervalMillis <= 0 )
+            throw new IllegalArgumentException("totalMillis and intervalMillis must be positive");
+        this.startAt = startAt;
+        this.endAt = startAt + totalMillis;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public long getStartAt() {
+        return startAt;
+    }
+
+    public long getEndAt() {
+        return endAt;
+    }
+
+    /**
+     * @return  millis left until the end, 0 when it's done
+     */
+    public long remaining(long now) {
+        return Math.max(0, endAt - now);
+    }
+
+    public boolean isDone(long now) {
+        return now >= endAt;
+    }
+
+    /**
+     * Plans the tick after the one running now
+     * @param now   uptime of the running tick
+     * @return      uptime when the next tick is due
+     */
+    public long nextTickAt(long now) {
+        next++;
+        long at = startAt + next * intervalMillis;
+        if ( at <= now && at < endAt ) {
+            // the Looper was late, skip the ticks already missed
+            long missed = (now - at) / intervalMillis + 1;
+            next += missed;
+            skipped += missed;
+            at = startAt + next * intervalMillis;
+        }
+        return Math.min(at, endAt);
+    }
+
+    /**
+     * @return  ticks skipped because the Looper was late
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,174 @@
+package com.tinmegali.hamer.looper;
+
+import java.util.List;
+
+/**
+ * Hashed timing wheel: a ring of {@link #wheelSize} buckets,
+ * each one holding the timeouts that expire on the ticks
+ * hashed to it. A tick is {@link #tickMillis} long.
+ *
+ * Scheduling and cancelling a timeout is O(1), it's linked or
+ * unlinked from a bucket. Advancing the wheel visits one bucket
+ * per elapsed tick, and only expires the timeouts of the current
+ * round. Timeouts that expire on the same tick are returned
+ * together, so their owner can handle them in one batch.
+ *
+ * Not thread safe, it must be used by a single Thread,
+ * usually the one of a Looper.
+ */
+public class TimingWheel<T> {
+
+    /**
+     * A scheduled payload, used to cancel it
+     */
+    public static final class Timeout<T> {
+        private final T payload;
+        private final long deadlineTick;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+        private boolean scheduled = true;
+
+        private Timeout(T payload, long deadlineTick) {
+            this.payload = payload;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        public boolean isScheduled() {
+            return scheduled;
+        }
+    }
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final int mask;
+    // first Timeout of each bucket
+    private final Timeout<T>[] buckets;
+    // uptime of the tick 0
+    private final long startMillis;
+
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis    resolution of the wheel
+     * @param wheelSize     buckets, rounded up to a power of two
+     * @param nowMillis     current uptime, the start of the first tick
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, int wheelSize, long nowMillis) {
+        if ( tickMillis <= 0 || wheelSize <= 0 )
+            throw new IllegalArgumentException("tickMillis and wheelSize must be positive");
+        this.tickMillis = tickMillis;
+        int buckets = 1;
+        while ( buckets < wheelSize )
+            buckets <<= 1;
+        this.wheelSize = buckets;
+        this.mask = buckets - 1;
+        this.buckets = new Timeout[buckets];
+        this.startMillis = nowMillis;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public int getWheelSize() {
+        return wheelSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return  uptime when the next tick ends, when
+     *          {@link #advance(long, List)} should be called
+     */
+    public long nextTickMillis() {
+        return startMillis + (currentTick + 1) * tickMillis;
+    }
+
+    /**
+     * Schedules the payload, O(1)
+     * @param deadlineMillis    uptime when it expires. It's rounded up to
+     *                          the end of its tick, a deadline already
+     *                          passed expires on the next tick
+     */
+    public Timeout<T> schedule(T payload, long deadlineMillis) {
+        long offset = deadlineMillis - startMillis;
+        long tick = offset <= 0 ? 0 : (offset + tickMillis - 1) / tickMillis;
+        if ( tick <= currentTick )
+            tick = currentTick + 1;
+        Timeout<T> timeout = new Timeout<>(payload, tick);
+        int bucket = (int) (tick & mask);
+        timeout.next = buckets[bucket];
+        if ( timeout.next != null )
+            timeout.next.previous = timeout;
+        buckets[bucket] = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Removes the timeout from the wheel, O(1)
+     * @return  false if it already expired or was cancelled
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if ( timeout == null || !timeout.scheduled )
+            return false;
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Moves the wheel to the current time, collecting the expired payloads.
+     * After a long pause every bucket is visited once, not once per tick.
+     * @param nowMillis current uptime
+     * @param expired   receives the expired payloads, by bucket
+     * @return          number of expired payloads
+     */
+    public int advance(long nowMillis, List<T> expired) {
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        if ( targetTick <= currentTick )
+            return 0;
+        long ticks = Math.min(targetTick - currentTick, wheelSize);
+        int count = 0;
+        for ( long tick = currentTick + 1; tick <= currentTick + ticks; tick++ ) {
+            Timeout<T> timeout = buckets[(int) (tick & mask)];
+            while ( timeout != null ) {
+                Timeout<T> next = timeout.next;
+                // the others expire on later rounds
+                if ( timeout.deadlineTick <= targetTick ) {
+                    unlink(timeout);
+                    expired.add(timeout.payload);
+                    count++;
+                }
+                timeout = next;
+            }
+        }
+        currentTick = targetTick;
+        return count;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        int bucket = (int) (timeout.deadlineTick & mask);
+        if ( timeout.previous != null )
+            timeout.previous.next = timeout.next;
+        else
+            buckets[bucket] = timeout.next;
+        if ( timeout.next != null )
+            timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        size--;
+    }
+}
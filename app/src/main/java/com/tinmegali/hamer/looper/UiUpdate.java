@@ -0,0 +1,83 @@
+package com.tinmegali.hamer.looper;
+
+import android.graphics.Bitmap;
+
+/**
+ * Changes to the UI merged by the {@link UiUpdateBatcher}
+ * during a frame. Only the last value of every field is kept,
+ * a null field hasn't changed.
+ *
+ * The feedback text and the download progress are shown on
+ * the same view, so setting one of them clears the other.
+ */
+public final class UiUpdate {
+
+    private String feedback;
+    private String operation;
+    private Bitmap image;
+    private Boolean progressVisible;
+    // percent, -1 if the size is unknown
+    private Integer downloadPercent;
+    private long downloadBytes;
+
+    UiUpdate() {
+    }
+
+    // merged by the UiUpdateBatcher, the last value wins
+
+    void setFeedback(String feedback) {
+        this.feedback = feedback;
+        downloadPercent = null;
+    }
+
+    void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    void setProgressVisible(boolean visible) {
+        progressVisible = visible;
+    }
+
+    void setDownloadProgress(int percent, long bytesRead) {
+        downloadPercent = percent;
+        downloadBytes = bytesRead;
+        feedback = null;
+    }
+
+    /**
+     * @return  the image it replaced, or null
+     */
+    Bitmap setImage(Bitmap image) {
+        Bitmap replaced = this.image;
+        this.image = image;
+        return replaced;
+    }
+
+    public String getFeedback() {
+        return feedback;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public Bitmap getImage() {
+        return image;
+    }
+
+    public Boolean getProgressVisible() {
+        return progressVisible;
+    }
+
+    public boolean hasDownloadProgress() {
+        return downloadPercent != null;
+    }
+
+    public int getDownloadPercent() {
+        return downloadPercent;
+    }
+
+    public long getDownloadBytes() {
+        return downloadBytes;
+    }
+}
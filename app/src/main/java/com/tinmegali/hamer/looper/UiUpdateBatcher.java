@@ -0,0 +1,157 @@
+package com.tinmegali.hamer.looper;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Merges the UI updates sent by background Threads
+ * and applies them once per frame.
+ *
+ * A download sends a burst of updates: progress, feedback, image,
+ * operation. Posting each one is a main Thread Message per update.
+ * Here they are merged into a pending {@link UiUpdate}, keeping only
+ * the last value of every field, and a single
+ * {@link Choreographer.FrameCallback} applies them to the {@link Target}
+ * on the next frame.
+ *
+ * The frames aren't Handler Messages, so they are recorded on the
+ * {@link DispatchProfiler} here, as "UiUpdateBatcher frame": the
+ * queue-wait goes from the first merged update to the frame.
+ *
+ * Must be created on the UI Thread, so it gets its Choreographer.
+ * The setters can be called from any Thread.
+ */
+public class UiUpdateBatcher implements Choreographer.FrameCallback {
+
+    private static final String TAG = UiUpdateBatcher.class.getSimpleName();
+
+    // name of the frames on the DispatchProfiler
+    static final String STATS_NAME = "UiUpdateBatcher frame";
+
+    /**
+     * Applies the merged updates, called on the UI Thread
+     */
+    public interface Target {
+        void applyUpdate(UiUpdate update);
+    }
+
+    private final Choreographer choreographer;
+
+    // it is a WeakReference because the Activity
+    // can be destroyed while updates are pending
+    private final WeakReference<Target> target;
+
+    // Guarded by 'this'
+    private UiUpdate pending = new UiUpdate();
+    private boolean frameScheduled;
+    // System.nanoTime() of the first update merged on pending
+    private long scheduledAt;
+    private long updates;
+    private long frames;
+
+    public UiUpdateBatcher(Target target) {
+        this.choreographer = Choreographer.getInstance();
+        this.target = new WeakReference<>(target);
+    }
+
+    public void setFeedback(String feedback) {
+        synchronized (this) {
+            pending.setFeedback(feedback);
+        }
+        updated();
+    }
+
+    public void setOperation(String operation) {
+        synchronized (this) {
+            pending.setOperation(operation);
+        }
+        updated();
+    }
+
+    public void setProgressVisible(boolean visible) {
+        synchronized (this) {
+            pending.setProgressVisible(visible);
+        }
+        updated();
+    }
+
+    public void setDownloadProgress(int percent, long bytesRead) {
+        synchronized (this) {
+            pending.setDownloadProgress(percent, bytesRead);
+        }
+        updated();
+    }
+
+    /**
+     * @param image new image
+     * @return      the image it replaced before being shown, or null.
+     *              The caller must release it
+     */
+    public Bitmap setImage(Bitmap image) {
+        Bitmap dropped;
+        synchronized (this) {
+            dropped = pending.setImage(image);
+        }
+        updated();
+        return dropped;
+    }
+
+    /**
+     * @return  updates received and frames that applied them
+     */
+    public synchronized String getStats() {
+        return "updates=" + updates + " dispatches=" + frames;
+    }
+
+    // schedules a frame, if there isn't one already
+    private void updated() {
+        synchronized (this) {
+            updates++;
+            if ( frameScheduled )
+                return;
+            frameScheduled = true;
+            scheduledAt = System.nanoTime();
+        }
+        if ( DispatchProfiler.get().isEnabled() )
+            DispatchProfiler.get().statsFor(STATS_NAME).onEnqueued();
+        // thread safe, the Choreographer schedules
+        // the vsync on its own Looper
+        choreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Called on the UI Thread, once per frame with pending updates
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        UiUpdate update;
+        long waitingSince;
+        synchronized (this) {
+            update = pending;
+            pending = new UiUpdate();
+            frameScheduled = false;
+            waitingSince = scheduledAt;
+            frames++;
+        }
+        DispatchStats stats = null;
+        long start = System.nanoTime();
+        if ( DispatchProfiler.get().isEnabled() ) {
+            stats = DispatchProfiler.get().statsFor(STATS_NAME);
+            stats.onDequeued();
+            stats.getQueueWait().record((start - waitingSince) / 1000);
+        }
+        try {
+            Target current = target.get();
+            if ( current != null )
+                current.applyUpdate(update);
+            else
+                Log.w(TAG, "doFrame(): target unavailable");
+        } finally {
+            if ( stats != null )
+                stats.getHandleTime().record((System.nanoTime() - start) / 1000);
+        }
+    }
+}
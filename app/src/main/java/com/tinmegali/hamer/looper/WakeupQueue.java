@@ -0,0 +1,163 @@
+package com.tinmegali.hamer.looper;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Plans the wakeups of tasks scheduled with a tolerance window.
+ *
+ * A task can run anywhere between its earliest and latest time.
+ * The queue wakes up as late as possible, at the smallest latest
+ * time, and runs every task whose window is already open. Tasks
+ * with overlapping windows share a single wakeup, and the number
+ * of wakeups is the smallest possible for the windows.
+ *
+ * Not thread safe, guarded by its owner.
+ */
+public class WakeupQueue<T> {
+
+    /**
+     * A scheduled task, used to cancel it
+     */
+    public static final class Entry<T> {
+        private final T task;
+        private final long earliest;
+        private final long latest;
+        private final long sequence;
+        private boolean pending = true;
+
+        private Entry(T task, long earliest, long latest, long sequence) {
+            this.task = task;
+            this.earliest = earliest;
+            this.latest = latest;
+            this.sequence = sequence;
+        }
+
+        public T getTask() {
+            return task;
+        }
+
+        public boolean isPending() {
+            return pending;
+        }
+    }
+
+    // by the window start, the tasks that can run first
+    private final PriorityQueue<Entry<T>> byEarliest = new PriorityQueue<>(11,
+            new Comparator<Entry<T>>() {
+                @Override
+                public int compare(Entry<T> a, Entry<T> b) {
+                    int order = Long.compare(a.earliest, b.earliest);
+                    return order != 0 ? order : Long.compare(a.sequence, b.sequence);
+                }
+            });
+    // by the window end, the tasks that can't wait any longer.
+    // Entries that ran or were cancelled are dropped lazily
+    private final PriorityQueue<Entry<T>> byLatest = new PriorityQueue<>(11,
+            new Comparator<Entry<T>>() {
+                @Override
+                public int compare(Entry<T> a, Entry<T> b) {
+                    return Long.compare(a.latest, b.latest);
+                }
+            });
+
+    private long sequence;
+    private int size;
+
+    // statistics
+    private long scheduled;
+    private long ran;
+    private long wakeups;
+
+    /**
+     * @param earliest  the task doesn't run before it
+     * @param tolerance the task runs at most this late
+     */
+    public Entry<T> add(T task, long earliest, long tolerance) {
+        Entry<T> entry = new Entry<>(task, earliest, earliest + Math.max(0, tolerance), sequence++);
+        byEarliest.add(entry);
+        byLatest.add(entry);
+        size++;
+        scheduled++;
+        return entry;
+    }
+
+    /**
+     * @return  false if the task already ran or was cancelled
+     */
+    public boolean remove(Entry<T> entry) {
+        if ( entry == null || !entry.pending )
+            return false;
+        entry.pending = false;
+        byEarliest.remove(entry);
+        size--;
+        return true;
+    }
+
+    /**
+     * Cancels every task
+     */
+    public void clear() {
+        for ( Entry<T> entry : byEarliest )
+            entry.pending = false;
+        byEarliest.clear();
+        byLatest.clear();
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  time of the next wakeup, Long.MAX_VALUE if there's no task
+     */
+    public long nextWakeup() {
+        while ( !byLatest.isEmpty() && !byLatest.peek().pending )
+            byLatest.poll();
+        return byLatest.isEmpty() ? Long.MAX_VALUE : byLatest.peek().latest;
+    }
+
+    /**
+     * Takes every task whose window is open, counted as one wakeup
+     * @param now   current time
+     * @param due   receives the tasks, in the order they can run
+     * @return      number of tasks taken
+     */
+    public int pollDue(long now, List<T> due) {
+        int count = 0;
+        while ( !byEarliest.isEmpty() && byEarliest.peek().earliest <= now ) {
+            Entry<T> entry = byEarliest.poll();
+            entry.pending = false;
+            size--;
+            due.add(entry.task);
+            count++;
+        }
+        if ( count > 0 ) {
+            wakeups++;
+            ran += count;
+        }
+        return count;
+    }
+
+    public long getScheduledCount() {
+        return scheduled;
+    }
+
+    public long getWakeupCount() {
+        return wakeups;
+    }
+
+    /**
+     * @return  wakeups avoided by running tasks together
+     */
+    public long getSavedWakeups() {
+        return ran - wakeups;
+    }
+
+    public String getStats() {
+        return "scheduled=" + scheduled + " ran=" + ran + " wakeups=" + wakeups
+                + " saved=" + getSavedWakeups() + " pending=" + size;
+    }
+}
@@ -13,12 +13,16 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import com.tinmegali.hamer.MessageActivity;
 import com.tinmegali.hamer.R;
+import com.tinmegali.hamer.looper.UiUpdate;
+import com.tinmegali.hamer.looper.UiUpdateBatcher;
 
 /**
  * Base Activity with some helper methods and the basic UI.
- * It also initializes a FragmentRetainer and saves the UI states on it
+ * It also initializes a FragmentRetainer and saves the UI states on it.
+ * Applies the UI updates merged by a {@link UiUpdateBatcher}.
  */
-public abstract class BaseActivity extends AppCompatActivity implements View.OnClickListener {
+public abstract class BaseActivity extends AppCompatActivity
+        implements View.OnClickListener, UiUpdateBatcher.Target {
 
     private final String TAG = BaseActivity.class.getSimpleName();
 
@@ -35,6 +39,10 @@ public abstract class BaseActivity extends AppCompatActivity implements View.OnC
     protected final String KEY_IMAGE = "image-view";
     protected final String KEY_PROGRESS_STATUS = "progressbar-status";
 
+    // directory, inside the app cache dir, where the
+    // images downloaded by the WorkerThread are persisted
+    protected static final String IMAGE_CACHE_DIR = "images";
+
     protected void initBasicUI(){
         progressBar = (ProgressBar) findViewById(R.id.progressBar);
         myImage = (ImageView) findViewById(R.id.myimage);
@@ -42,6 +50,65 @@ public abstract class BaseActivity extends AppCompatActivity implements View.OnC
         operation = (TextView) findViewById(R.id.operation);
     }
 
+    /**
+     * Shows a new Bitmap on {@link #myImage}
+     * @return  the Bitmap that was being shown, or null
+     */
+    protected Bitmap replaceImage(Bitmap bitmap){
+        Bitmap previous = null;
+        if ( myImage.getDrawable() instanceof BitmapDrawable )
+            previous = ((BitmapDrawable) myImage.getDrawable()).getBitmap();
+        myImage.setImageBitmap(bitmap);
+        return previous;
+    }
+
+    /**
+     * Called when {@link #applyUpdate(UiUpdate)} replaces the image.
+     * @param previous  the Bitmap that was being shown, or null
+     */
+    protected void onImageReplaced(Bitmap previous){
+    }
+
+    /**
+     * Applies the updates merged during a frame by the
+     * {@link UiUpdateBatcher}, all at once on the UI Thread
+     */
+    @Override
+    public void applyUpdate(UiUpdate update){
+        if ( update.getImage() != null )
+            onImageReplaced(replaceImage(update.getImage()));
+        if ( update.hasDownloadProgress() )
+            feedback.setText(downloadProgressText(
+                    update.getDownloadPercent(), update.getDownloadBytes()));
+        if ( update.getFeedback() != null )
+            feedback.setText(update.getFeedback());
+        if ( update.getOperation() != null )
+            operation.setText(update.getOperation());
+        if ( update.getProgressVisible() != null )
+            progressBar.setVisibility(update.getProgressVisible() ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Text shown on {@link #feedback} while an image downloads
+     * @param percent   0 to 100, -1 if the image size is unknown
+     * @param bytesRead bytes downloaded so far
+     */
+    protected String downloadProgressText(int percent, long bytesRead){
+        if ( percent >= 0 )
+            return "Downloading... " + percent + "%";
+        return "Downloading... " + (bytesRead / 1024) + " KB";
+    }
+
+    /**
+     * Text shown on {@link #feedback} when a download doesn't end before its deadline
+     * @param url   the image url, null for a batch
+     */
+    protected String timedOutText(String url){
+        if ( url == null )
+            return "Download timed out";
+        return "Download timed out: " + url.substring(url.lastIndexOf('/') + 1);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
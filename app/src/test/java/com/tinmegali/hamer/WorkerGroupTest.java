@@ -0,0 +1,74 @@
+package com.tinmegali.hamer;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the routing and the stats of a {@link WorkerGroup}.
+ * The shards never loop on a local unit test, only the
+ * routing to them is checked.
+ */
+public class WorkerGroupTest {
+
+    private static String url(int i) {
+        return "https://pixabay.com/static/uploads/photo/2016/08/05/" + i + "_960_720.jpg";
+    }
+
+    @Test
+    public void sameUrl_sameShard() {
+        WorkerGroup group = new WorkerGroup(null, null, 4);
+        Set<WorkerThread> used = new HashSet<>();
+        for ( int i = 0; i < 1000; i++ ) {
+            WorkerThread shard = group.shardFor(url(i));
+            assertSame(shard, group.shardFor(url(i)));
+            used.add(shard);
+        }
+        // every shard gets some of the urls
+        assertEquals(4, used.size());
+    }
+
+    @Test
+    public void workOfAKey_isCountedOnItsShard() {
+        WorkerGroup group = new WorkerGroup(null, null, 4);
+        group.start();
+        try {
+            for ( int i = 0; i < 3; i++ )
+                group.execute(url(7), new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+            int loaded = 0;
+            for ( int shard = 0; shard < group.getShardCount(); shard++ ) {
+                long routed = group.getLoad(shard).getRouted();
+                assertTrue("routed " + routed, routed == 0 || routed == 3);
+                if ( routed == 3 )
+                    loaded++;
+            }
+            assertEquals(1, loaded);
+            // a single busy shard of four
+            assertEquals(4, group.getImbalance(), 1e-9);
+        } finally {
+            group.quit();
+        }
+    }
+
+    @Test
+    public void stats_ignoreTheDefaultLocale() {
+        Locale previous = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            WorkerGroup group = new WorkerGroup(null, null, 2);
+            String stats = group.getStats();
+            assertTrue(stats, stats.startsWith("shard 0: "));
+            assertTrue(stats, stats.endsWith("imbalance=1.00 busyImbalance=1.00"));
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+}
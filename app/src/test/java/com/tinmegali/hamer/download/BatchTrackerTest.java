@@ -0,0 +1,62 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BatchTracker}
+ */
+public class BatchTrackerTest {
+
+    private static final String[] URLS = {"a", "b", "c", "d"};
+
+    @Test
+    public void nextUrl_respectsTheConcurrency() {
+        BatchTracker batch = new BatchTracker(URLS, 2);
+        assertEquals("a", batch.nextUrl());
+        assertEquals("b", batch.nextUrl());
+        assertNull(batch.nextUrl());
+
+        assertFalse(batch.onCompleted(true));
+        assertEquals("c", batch.nextUrl());
+        assertNull(batch.nextUrl());
+    }
+
+    @Test
+    public void lastCompletion_endsTheBatch() {
+        BatchTracker batch = new BatchTracker(URLS, 4);
+        while ( batch.nextUrl() != null ) {
+            // all of them start at once
+        }
+        assertFalse(batch.onCompleted(true));
+        assertFalse(batch.onCompleted(false));
+        assertFalse(batch.onCompleted(true));
+        assertTrue(batch.onCompleted(true));
+
+        BatchTracker.Summary summary = batch.summary(2048);
+        assertEquals(4, summary.total);
+        assertEquals(3, summary.succeeded);
+        assertEquals(1, summary.failed);
+        assertEquals(0, summary.skipped);
+        assertEquals(2048, summary.bytes);
+    }
+
+    @Test
+    public void cancel_skipsTheUrlsNotStarted() {
+        BatchTracker batch = new BatchTracker(URLS, 1);
+        assertEquals("a", batch.nextUrl());
+        assertFalse(batch.cancel());
+        assertTrue(batch.onCompleted(true));
+        assertNull(batch.nextUrl());
+
+        BatchTracker.Summary summary = batch.summary(0);
+        assertEquals(1, summary.succeeded);
+        assertEquals(3, summary.skipped);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyBatch_isRefused() {
+        new BatchTracker(new String[0], 1);
+    }
+}
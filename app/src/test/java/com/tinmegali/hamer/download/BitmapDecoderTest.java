@@ -0,0 +1,40 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link BitmapDecoder#calculateInSampleSize(int, int, int, int)}
+ */
+public class BitmapDecoderTest {
+
+    @Test
+    public void noTarget_keepsOriginalSize() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(960, 720, 0, 0));
+    }
+
+    @Test
+    public void biggerTarget_keepsOriginalSize() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(960, 720, 1920, 1080));
+    }
+
+    @Test
+    public void sampleSize_keepsBothDimensionsAboveTarget() {
+        // 960x720 / 4 = 240x180, still bigger than 200x150
+        assertEquals(4, BitmapDecoder.calculateInSampleSize(960, 720, 200, 150));
+        // 960x720 / 2 = 480x360, / 4 would be smaller than 300 wide
+        assertEquals(2, BitmapDecoder.calculateInSampleSize(960, 720, 300, 150));
+    }
+
+    @Test
+    public void unconstrainedDimension_doesNotLimitSampling() {
+        assertEquals(4, BitmapDecoder.calculateInSampleSize(960, 720, 240, 0));
+        assertEquals(4, BitmapDecoder.calculateInSampleSize(960, 720, 0, 180));
+    }
+
+    @Test
+    public void invalidBounds_keepsOriginalSize() {
+        assertEquals(1, BitmapDecoder.calculateInSampleSize(-1, -1, 100, 100));
+    }
+}
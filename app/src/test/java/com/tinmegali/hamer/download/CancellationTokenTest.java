@@ -0,0 +1,113 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link CancellationToken}
+ */
+public class CancellationTokenTest {
+
+    private static Runnable counter(final AtomicInteger count) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void listeners_runOnlyOnce() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger count = new AtomicInteger();
+        token.addListener(counter(count));
+        token.cancel();
+        token.cancel();
+        assertTrue(token.isCancelled());
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void listener_addedAfterCancel_runsRightAway() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        AtomicInteger count = new AtomicInteger();
+        token.addListener(counter(count));
+        assertEquals(1, count.get());
+    }
+
+    @Test
+    public void removedListener_doesNotRun() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger count = new AtomicInteger();
+        Runnable listener = counter(count);
+        token.addListener(listener);
+        token.removeListener(listener);
+        token.cancel();
+        assertEquals(0, count.get());
+    }
+
+    @Test(expected = CancelledException.class)
+    public void throwIfCancelled_throws() throws CancelledException {
+        CancellationToken token = new CancellationToken();
+        token.throwIfCancelled();
+        token.cancel();
+        token.throwIfCancelled();
+    }
+
+    @Test
+    public void withoutDeadline_neverExpires() {
+        CancellationToken token = new CancellationToken();
+        assertFalse(token.hasDeadline());
+        assertEquals(Long.MAX_VALUE, token.remainingMillis());
+        assertFalse(token.isExpired());
+    }
+
+    @Test
+    public void passedDeadline_expiresAndCancels() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger count = new AtomicInteger();
+        token.addListener(counter(count));
+        token.setDeadlineNanos(System.nanoTime() - 1);
+        assertEquals(0, token.remainingMillis());
+        assertTrue(token.isExpired());
+        assertTrue(token.isCancelled());
+        assertEquals(1, count.get());
+        try {
+            token.throwIfCancelled();
+            fail("an expired token didn't throw");
+        } catch (DeadlineExceededException expected) {
+        } catch (CancelledException e) {
+            fail("an expired token threw a plain cancel");
+        }
+    }
+
+    @Test
+    public void cancelBeforeDeadline_isNotExpired() {
+        CancellationToken token = new CancellationToken();
+        token.setDeadlineNanos(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(20));
+        token.cancel();
+        assertFalse(token.isExpired());
+    }
+
+    @Test
+    public void sleep_endsAtTheDeadline() {
+        CancellationToken token = new CancellationToken();
+        token.setDeadline(50, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            token.sleep(TimeUnit.SECONDS.toMillis(5));
+            fail("slept past the deadline");
+        } catch (DeadlineExceededException expected) {
+        } catch (CancelledException e) {
+            fail("a timeout was reported as a cancel");
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("slept " + elapsed + "ms", elapsed >= 50 && elapsed < 1000);
+    }
+}
@@ -0,0 +1,93 @@
+package com.tinmegali.hamer.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the {@link ConnectionManager} keeps
+ * connections alive between requests to the same host
+ */
+public class ConnectionManagerTest {
+
+    private HttpServer server;
+
+    // client port of every request received
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/image", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = new byte[8192];
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/image";
+    }
+
+    // reads only the first bytes, the manager must drain the rest
+    private static final ImageFetcher.BodyReader<Integer> PARTIAL_READER =
+            new ImageFetcher.BodyReader<Integer>() {
+                @Override
+                public Integer read(InputStream in) throws IOException {
+                    return in.read(new byte[16]);
+                }
+            };
+
+    @Test
+    public void sameHost_reusesConnection() throws Exception {
+        ConnectionManager connections = new ConnectionManager();
+        ImageFetcher fetcher = new ImageFetcher(connections);
+        fetcher.stream(url(), PARTIAL_READER);
+        fetcher.stream(url(), PARTIAL_READER);
+        fetcher.stream(url(), PARTIAL_READER);
+
+        assertEquals(1, connections.getIdleMissCount());
+        assertEquals(2, connections.getIdleHitCount());
+        // the server saw every request coming from the same socket
+        assertEquals(3, clientPorts.size());
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+        assertEquals(clientPorts.get(0), clientPorts.get(2));
+    }
+
+    @Test
+    public void expiredIdleConnection_isAMiss() throws Exception {
+        ConnectionManager connections = new ConnectionManager(5, 0);
+        ImageFetcher fetcher = new ImageFetcher(connections);
+        fetcher.stream(url(), PARTIAL_READER);
+        Thread.sleep(5);
+        fetcher.stream(url(), PARTIAL_READER);
+
+        // only the idle tracking expires, the platform may still reuse the socket
+        assertEquals(2, connections.getIdleMissCount());
+        assertEquals(0, connections.getIdleHitCount());
+    }
+}
@@ -0,0 +1,128 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link DiskCache} journal and eviction
+ */
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteArrayInputStream bytes(int size) {
+        return new ByteArrayInputStream(new byte[size]);
+    }
+
+    @Test
+    public void entries_surviveReopen() throws Exception {
+        File dir = folder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 1024);
+        cache.put("a", bytes(100));
+        cache.put("b", bytes(200));
+        cache.close();
+
+        DiskCache reopened = DiskCache.open(dir, 1024);
+        assertEquals(2, reopened.entryCount());
+        assertEquals(300, reopened.size());
+        assertEquals(100, reopened.get("a").length());
+        reopened.close();
+    }
+
+    @Test
+    public void leastRecentlyUsed_isEvicted() throws Exception {
+        DiskCache cache = DiskCache.open(folder.newFolder(), 250);
+        cache.put("a", bytes(100));
+        cache.put("b", bytes(100));
+        // 'a' becomes the most recently used
+        assertNotNull(cache.get("a"));
+        cache.put("c", bytes(100));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(200, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void accessOrder_isReplayed() throws Exception {
+        File dir = folder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 250);
+        cache.put("a", bytes(100));
+        cache.put("b", bytes(100));
+        cache.get("a");
+        cache.close();
+
+        DiskCache reopened = DiskCache.open(dir, 250);
+        reopened.put("c", bytes(100));
+        assertNull(reopened.get("b"));
+        assertNotNull(reopened.get("a"));
+        reopened.close();
+    }
+
+    @Test
+    public void truncatedRecord_isDiscarded() throws Exception {
+        File dir = folder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 1024);
+        cache.put("a", bytes(100));
+        cache.put("b", bytes(100));
+        cache.close();
+
+        // simulates a crash in the middle of the last record
+        File journal = new File(dir, DiskCache.JOURNAL_FILE);
+        RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        DiskCache reopened = DiskCache.open(dir, 1024);
+        assertEquals(1, reopened.entryCount());
+        assertNotNull(reopened.get("a"));
+        reopened.put("c", bytes(10));
+        reopened.close();
+
+        DiskCache again = DiskCache.open(dir, 1024);
+        assertEquals(2, again.entryCount());
+        again.close();
+    }
+
+    @Test
+    public void removedFile_isAMiss() throws Exception {
+        DiskCache cache = DiskCache.open(folder.newFolder(), 1024);
+        File file = cache.put("a", bytes(100));
+        assertTrue(file.delete());
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void channelPut_transfersEveryChunk() throws Exception {
+        DiskCache cache = DiskCache.open(folder.newFolder(), 1024 * 1024);
+        byte[] body = new byte[200 * 1024 + 7];
+        for ( int i = 0; i < body.length; i++ )
+            body[i] = (byte) i;
+        File file = cache.put("a", Channels.newChannel(new ByteArrayInputStream(body)),
+                "\"v1\"", null, 1000);
+
+        assertEquals(body.length, file.length());
+        assertEquals(body.length, cache.size());
+        byte[] read = new byte[body.length];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        raf.readFully(read);
+        raf.close();
+        assertTrue(Arrays.equals(body, read));
+        assertEquals("\"v1\"", cache.peek("a").etag);
+        cache.close();
+    }
+}
@@ -0,0 +1,156 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link DownloadPool}
+ */
+public class DownloadPoolTest {
+
+    private static final String HOST_A = "http://a.example.com/image.jpg";
+    private static final String HOST_B = "http://b.example.com/image.jpg";
+
+    private DownloadPool pool;
+
+    @After
+    public void tearDown() {
+        if ( pool != null )
+            pool.shutdown();
+    }
+
+    // a task that waits for the gate, counting the tasks running with it
+    private static Runnable blocking(final CountDownLatch gate, final AtomicInteger running,
+                                     final AtomicInteger maxRunning, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), now));
+                }
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void busyHost_doesNotBlockTheOthers() throws Exception {
+        pool = new DownloadPool(4, 2);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(6);
+        for ( int i = 0; i < 6; i++ )
+            assertTrue(pool.execute(HOST_A, blocking(gate, running, maxRunning, done)));
+
+        // host A is at its limit, host B still gets a Thread
+        final CountDownLatch otherHost = new CountDownLatch(1);
+        pool.execute(HOST_B, new Runnable() {
+            @Override
+            public void run() {
+                otherHost.countDown();
+            }
+        });
+        assertTrue(otherHost.await(5, TimeUnit.SECONDS));
+
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void waitingTasks_ofAHost_runInOrder() throws Exception {
+        pool = new DownloadPool(4, 1);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch first = new CountDownLatch(1);
+        pool.execute(HOST_A, blocking(gate, new AtomicInteger(), new AtomicInteger(), first));
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(5);
+        for ( int i = 0; i < 5; i++ ) {
+            final int index = i;
+            pool.execute(HOST_A, new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            });
+        }
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+    }
+
+    @Test
+    public void singleThreadLane_runsEveryHostInOrder() throws Exception {
+        // the lane of a WorkerGroup shard
+        pool = new DownloadPool(1, 1);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch first = new CountDownLatch(1);
+        pool.execute(HOST_A, blocking(gate, new AtomicInteger(), new AtomicInteger(), first));
+
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(6);
+        for ( int i = 0; i < 6; i++ ) {
+            final int index = i;
+            pool.execute(i % 2 == 0 ? HOST_A : HOST_B, new Runnable() {
+                @Override
+                public void run() {
+                    order.add(index);
+                    done.countDown();
+                }
+            });
+        }
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), order);
+    }
+
+    @Test
+    public void shutdown_dropsWaitingAndNewTasks() throws Exception {
+        pool = new DownloadPool(1, 1);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch first = new CountDownLatch(1);
+        pool.execute(HOST_A, blocking(gate, new AtomicInteger(), new AtomicInteger(), first));
+
+        final AtomicInteger dropped = new AtomicInteger();
+        Runnable neverRuns = new Runnable() {
+            @Override
+            public void run() {
+                dropped.incrementAndGet();
+            }
+        };
+        // waits behind the first one
+        assertTrue(pool.execute(HOST_A, neverRuns));
+        assertTrue(pool.execute(HOST_A, neverRuns));
+
+        pool.shutdown();
+        assertTrue(pool.isShutdown());
+        assertFalse(pool.execute(HOST_B, neverRuns));
+
+        // the running task ends without a RejectedExecutionException
+        gate.countDown();
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(0, dropped.get());
+        assertEquals(3, pool.getDroppedCount());
+    }
+}
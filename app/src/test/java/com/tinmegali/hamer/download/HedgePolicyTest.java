@@ -0,0 +1,74 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the hedge delay of the {@link HedgePolicy}
+ */
+public class HedgePolicyTest {
+
+    private static void record(HedgePolicy policy, long... millis) {
+        for ( long m : millis )
+            policy.recordFirstByte(TimeUnit.MILLISECONDS.toNanos(m));
+    }
+
+    // 1, 2, .. count milliseconds
+    private static void recordUpTo(HedgePolicy policy, int count) {
+        for ( int i = 1; i <= count; i++ )
+            record(policy, i);
+    }
+
+    @Test
+    public void belowMinSamples_usesTheDefaultDelay() {
+        HedgePolicy policy = new HedgePolicy(0.95, 100, 20, 700, 10, 5000);
+        assertEquals(700, policy.hedgeDelayMillis());
+        recordUpTo(policy, 19);
+        assertEquals(700, policy.hedgeDelayMillis());
+        // the 20th sample switches to the quantile
+        record(policy, 20);
+        assertEquals(19, policy.hedgeDelayMillis());
+    }
+
+    @Test
+    public void delay_isTheQuantileOfTheSamples() {
+        HedgePolicy policy = new HedgePolicy(0.95, 100, 20, 700, 10, 5000);
+        recordUpTo(policy, 100);
+        assertEquals(95, policy.hedgeDelayMillis());
+
+        HedgePolicy median = new HedgePolicy(0.5, 100, 20, 700, 10, 5000);
+        recordUpTo(median, 100);
+        assertEquals(50, median.hedgeDelayMillis());
+    }
+
+    @Test
+    public void delay_isClampedToMinAndMax() {
+        HedgePolicy fast = new HedgePolicy(0.95, 100, 20, 700, 50, 300);
+        recordUpTo(fast, 20);
+        assertEquals(50, fast.hedgeDelayMillis());
+
+        HedgePolicy slow = new HedgePolicy(0.95, 100, 20, 700, 50, 300);
+        for ( int i = 0; i < 20; i++ )
+            record(slow, 10000);
+        assertEquals(300, slow.hedgeDelayMillis());
+
+        // the default delay is clamped too
+        assertEquals(300, new HedgePolicy(0.95, 100, 20, 700, 50, 300).hedgeDelayMillis());
+        assertEquals(50, new HedgePolicy(0.95, 100, 20, 10, 50, 300).hedgeDelayMillis());
+    }
+
+    @Test
+    public void newSamples_replaceTheOldestOnes() {
+        HedgePolicy policy = new HedgePolicy(0.95, 10, 10, 700, 1, 5000);
+        for ( int i = 0; i < 10; i++ )
+            record(policy, 1000);
+        assertEquals(1000, policy.hedgeDelayMillis());
+        // a full window of fast samples
+        for ( int i = 0; i < 10; i++ )
+            record(policy, 20);
+        assertEquals(20, policy.hedgeDelayMillis());
+    }
+}
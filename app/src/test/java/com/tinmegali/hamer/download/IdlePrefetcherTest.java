@@ -0,0 +1,87 @@
+package com.tinmegali.hamer.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the counts of the {@link IdlePrefetcher} against a local HTTP server.
+ * {@link IdlePrefetcher#queueIdle()} is called directly, instead of by a Looper.
+ */
+public class IdlePrefetcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private DownloadPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/image", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = new byte[1024];
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=3600");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        pool = new DownloadPool(1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+        server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    // runs queueIdle() until the url ends, like an idle Looper would
+    private static void prefetchNext(IdlePrefetcher prefetcher, String expectedStats)
+            throws InterruptedException {
+        prefetcher.queueIdle();
+        long end = System.currentTimeMillis() + 5000;
+        while ( !prefetcher.getStats().startsWith(expectedStats)
+                && System.currentTimeMillis() < end )
+            Thread.sleep(10);
+        assertTrue(prefetcher.getStats(), prefetcher.getStats().startsWith(expectedStats));
+    }
+
+    @Test
+    public void failedFetch_isNotCountedAsPrefetched() throws Exception {
+        ImageLoader loader = new ImageLoader(folder.newFolder("cache"));
+        IdlePrefetcher prefetcher = new IdlePrefetcher(null, loader, pool,
+                new String[]{ url("/missing"), url("/image") }, 1024 * 1024);
+
+        prefetchNext(prefetcher, "prefetched=0 failed=1");
+        prefetchNext(prefetcher, "prefetched=1 failed=1");
+        assertNotNull(loader.getDiskCache().peek(url("/image")));
+    }
+}
@@ -0,0 +1,239 @@
+package com.tinmegali.hamer.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the conditional requests of the {@link ImageFetcher}
+ * against a local HTTP server
+ */
+public class ImageFetcherTest {
+
+    private static final byte[] BODY = new byte[4096];
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private DiskCache disk;
+
+    // responses sent with and without body
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private volatile String etag = "\"v1\"";
+    // holds the rest of the /stall body
+    private final CountDownLatch stalled = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/etag", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=0");
+                if ( etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match")) ) {
+                    notModified(exchange);
+                } else {
+                    exchange.getResponseHeaders().add("ETag", etag);
+                    ok(exchange);
+                }
+            }
+        });
+        server.createContext("/last-modified", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String lastModified = "Mon, 01 Aug 2016 10:00:00 GMT";
+                if ( lastModified.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since")) ) {
+                    notModified(exchange);
+                } else {
+                    exchange.getResponseHeaders().add("Last-Modified", lastModified);
+                    ok(exchange);
+                }
+            }
+        });
+        server.createContext("/stall", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // half of the body, then waits
+                exchange.sendResponseHeaders(200, BODY.length * 2);
+                OutputStream out = exchange.getResponseBody();
+                out.write(BODY);
+                out.flush();
+                try {
+                    stalled.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        disk = DiskCache.open(folder.newFolder(), 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        stalled.countDown();
+        disk.close();
+        server.stop(0);
+    }
+
+    private void ok(HttpExchange exchange) throws IOException {
+        fullResponses.incrementAndGet();
+        exchange.sendResponseHeaders(200, BODY.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(BODY);
+        out.close();
+    }
+
+    private void notModified(HttpExchange exchange) throws IOException {
+        notModifiedResponses.incrementAndGet();
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void firstFetch_downloadsAndStoresValidators() throws Exception {
+        ImageFetcher.Result result = new ImageFetcher().fetch(url("/etag"), disk);
+
+        assertEquals(ImageFetcher.Status.DOWNLOADED, result.status);
+        assertEquals(BODY.length, result.file.length());
+        DiskCache.Entry entry = disk.peek(url("/etag"));
+        assertEquals("\"v1\"", entry.etag);
+        // max-age=0, stale right away
+        assertFalse(entry.isFresh(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void matchingEtag_isNotModified() throws Exception {
+        ImageFetcher fetcher = new ImageFetcher();
+        fetcher.fetch(url("/etag"), disk);
+        ImageFetcher.Result result = fetcher.fetch(url("/etag"), disk);
+
+        assertEquals(ImageFetcher.Status.NOT_MODIFIED, result.status);
+        assertEquals(BODY.length, result.file.length());
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModifiedResponses.get());
+    }
+
+    @Test
+    public void changedEtag_downloadsAgain() throws Exception {
+        ImageFetcher fetcher = new ImageFetcher();
+        fetcher.fetch(url("/etag"), disk);
+        etag = "\"v2\"";
+        ImageFetcher.Result result = fetcher.fetch(url("/etag"), disk);
+
+        assertEquals(ImageFetcher.Status.DOWNLOADED, result.status);
+        assertEquals("\"v2\"", disk.peek(url("/etag")).etag);
+        assertEquals(2, fullResponses.get());
+    }
+
+    @Test
+    public void lastModified_isUsedWithoutEtag() throws Exception {
+        ImageFetcher fetcher = new ImageFetcher();
+        fetcher.fetch(url("/last-modified"), disk);
+        ImageFetcher.Result result = fetcher.fetch(url("/last-modified"), disk);
+
+        assertEquals(ImageFetcher.Status.NOT_MODIFIED, result.status);
+        assertEquals(1, notModifiedResponses.get());
+        // no Cache-Control, uses the default freshness
+        assertTrue(disk.peek(url("/last-modified")).isFresh(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void maxAge_isParsed() {
+        assertEquals(60000, ImageFetcher.parseMaxAge("public, max-age=60", 5));
+        assertEquals(0, ImageFetcher.parseMaxAge("no-cache", 5));
+        assertEquals(5, ImageFetcher.parseMaxAge(null, 5));
+        assertEquals(5, ImageFetcher.parseMaxAge("max-age=abc", 5));
+    }
+
+    @Test
+    public void progress_isReportedUntilTheWholeBody() throws Exception {
+        final List<Integer> percents = new ArrayList<>();
+        final long[] lastBytes = new long[1];
+        new ImageFetcher().fetch(url("/etag"), disk, new ImageFetcher.OnProgressListener() {
+            @Override
+            public void onProgress(String urlStr, long bytesRead, long contentLength, int percent) {
+                assertEquals(BODY.length, contentLength);
+                percents.add(percent);
+                lastBytes[0] = bytesRead;
+            }
+        });
+        assertFalse(percents.isEmpty());
+        assertEquals(100, (int) percents.get(percents.size() - 1));
+        assertEquals(BODY.length, lastBytes[0]);
+    }
+
+    @Test
+    public void progress_isNotReportedForNotModified() throws Exception {
+        ImageFetcher fetcher = new ImageFetcher();
+        fetcher.fetch(url("/etag"), disk);
+        final List<Integer> percents = new ArrayList<>();
+        fetcher.fetch(url("/etag"), disk, new ImageFetcher.OnProgressListener() {
+            @Override
+            public void onProgress(String urlStr, long bytesRead, long contentLength, int percent) {
+                percents.add(percent);
+            }
+        });
+        assertTrue(percents.isEmpty());
+    }
+
+    @Test
+    public void cancel_duringBody_cachesNothing() throws Exception {
+        final CancellationToken token = new CancellationToken();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                }
+                token.cancel();
+                // the server ends the response after the cancel
+                stalled.countDown();
+            }
+        }).start();
+
+        try {
+            new ImageFetcher().fetch(url("/stall"), disk, null, token);
+            fail("the fetch wasn't cancelled");
+        } catch (CancelledException expected) {
+        }
+        assertTrue(token.getBytesRead() > 0);
+        assertNull(disk.peek(url("/stall")));
+        assertEquals(0, disk.entryCount());
+    }
+
+    @Test
+    public void cancelledToken_doesNotConnect() throws Exception {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        try {
+            new ImageFetcher().fetch(url("/etag"), disk, null, token);
+            fail("the fetch wasn't cancelled");
+        } catch (CancelledException expected) {
+        }
+        assertEquals(0, fullResponses.get());
+    }
+}
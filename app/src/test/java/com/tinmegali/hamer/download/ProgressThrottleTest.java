@@ -0,0 +1,58 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ProgressThrottle}
+ */
+public class ProgressThrottleTest {
+
+    @Test
+    public void firstUpdate_isAccepted() {
+        ProgressThrottle throttle = new ProgressThrottle(16, 5);
+        assertTrue(throttle.accept(0, 1000, false));
+    }
+
+    @Test
+    public void updatesInsideInterval_areDropped() {
+        ProgressThrottle throttle = new ProgressThrottle(16, 5);
+        assertTrue(throttle.accept(0, 1000, false));
+        assertFalse(throttle.accept(50, 1010, false));
+        assertTrue(throttle.accept(50, 1016, false));
+    }
+
+    @Test
+    public void smallSteps_areDropped() {
+        ProgressThrottle throttle = new ProgressThrottle(16, 5);
+        assertTrue(throttle.accept(10, 1000, false));
+        assertFalse(throttle.accept(14, 2000, false));
+        assertTrue(throttle.accept(15, 3000, false));
+    }
+
+    @Test
+    public void finalUpdate_isAlwaysAccepted_once() {
+        ProgressThrottle throttle = new ProgressThrottle(16, 5);
+        assertTrue(throttle.accept(97, 1000, false));
+        assertTrue(throttle.accept(100, 1001, true));
+        assertFalse(throttle.accept(100, 2000, true));
+        assertFalse(throttle.accept(100, 3000, false));
+    }
+
+    @Test
+    public void finalUpdate_equalToLast_isNotRepeated() {
+        ProgressThrottle throttle = new ProgressThrottle(16, 5);
+        assertTrue(throttle.accept(100, 1000, false));
+        assertFalse(throttle.accept(100, 1001, true));
+    }
+
+    @Test
+    public void unknownSize_isThrottledByTimeOnly() {
+        ProgressThrottle throttle = new ProgressThrottle(16, 5);
+        assertTrue(throttle.accept(-1, 1000, false));
+        assertFalse(throttle.accept(-1, 1005, false));
+        assertTrue(throttle.accept(-1, 1016, false));
+        assertTrue(throttle.accept(-1, 1017, true));
+    }
+}
@@ -0,0 +1,152 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ReferenceCounter}, the references
+ * that decide when a Bitmap goes to the {@link BitmapPool}
+ */
+public class ReferenceCounterTest {
+
+    // stands for a Bitmap, compared by identity like one
+    private static class Image {
+    }
+
+    // collects the values handed to the pool
+    private static class Pool implements ReferenceCounter.OnReleasedListener<Image> {
+        final List<Image> pooled = new ArrayList<>();
+
+        @Override
+        public synchronized void onReleased(Image value) {
+            pooled.add(value);
+        }
+    }
+
+    private static ReferenceCounter.Source<String, Image> sourceOf(final Map<String, Image> cache) {
+        return new ReferenceCounter.Source<String, Image>() {
+            @Override
+            public Image get(String key) {
+                return cache.get(key);
+            }
+        };
+    }
+
+    @Test
+    public void lastRelease_handsTheValueToThePool() {
+        Pool pool = new Pool();
+        ReferenceCounter<Image> references = new ReferenceCounter<>(pool);
+        Image image = new Image();
+        // the cache and the UI
+        references.retain(image);
+        references.retain(image);
+        assertEquals(2, references.count(image));
+
+        assertFalse(references.release(image));
+        assertTrue(pool.pooled.isEmpty());
+        assertTrue(references.release(image));
+        assertEquals(1, pool.pooled.size());
+        assertSame(image, pool.pooled.get(0));
+        assertEquals(0, references.count(image));
+    }
+
+    @Test
+    public void uncountedValue_isNeverPooled() {
+        Pool pool = new Pool();
+        ReferenceCounter<Image> references = new ReferenceCounter<>(pool);
+        Image image = new Image();
+        references.retain(image);
+        assertTrue(references.release(image));
+        // released once more, by mistake
+        assertFalse(references.release(image));
+        assertFalse(references.release(null));
+        assertEquals(1, pool.pooled.size());
+    }
+
+    @Test
+    public void retainFrom_retainsOnlyCachedValues() {
+        ReferenceCounter<Image> references = new ReferenceCounter<>(null);
+        Map<String, Image> cache = new ConcurrentHashMap<>();
+        Image image = references.retain(new Image());
+        cache.put("url", image);
+
+        assertNull(references.retainFrom(sourceOf(cache), "other"));
+        assertSame(image, references.retainFrom(sourceOf(cache), "url"));
+        assertEquals(2, references.count(image));
+    }
+
+    /**
+     * Readers look up and retain the value while the cache evicts it.
+     * A reader must never hold a value that was already pooled.
+     */
+    @Test
+    public void eviction_neverPoolsAValueBeingRetained() throws Exception {
+        for ( int round = 0; round < 200; round++ ) {
+            final AtomicBoolean pooled = new AtomicBoolean();
+            final ReferenceCounter<Image> references = new ReferenceCounter<>(
+                    new ReferenceCounter.OnReleasedListener<Image>() {
+                        @Override
+                        public void onReleased(Image value) {
+                            pooled.set(true);
+                        }
+                    });
+            final Map<String, Image> cache = new ConcurrentHashMap<>();
+            final Image image = references.retain(new Image());
+            cache.put("url", image);
+
+            final AtomicInteger violations = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(4);
+            for ( int i = 0; i < 3; i++ ) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for ( int j = 0; j < 100; j++ ) {
+                                Image held = references.retainFrom(sourceOf(cache), "url");
+                                if ( held == null )
+                                    break;
+                                if ( pooled.get() )
+                                    violations.incrementAndGet();
+                                references.release(held);
+                            }
+                        } catch (InterruptedException ignored) {
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        // the eviction: out of the map, then the cache reference is dropped
+                        cache.remove("url");
+                        references.release(image);
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+
+            start.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(0, violations.get());
+            assertTrue(pooled.get());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link RefreshSlots}, that keep a background
+ * refresh from replacing the image of a newer load
+ */
+public class RefreshSlotsTest {
+
+    // stands for the ImageView, the last image delivered
+    private static class Screen implements RefreshSlots.Delivery<String> {
+        final List<String> shown = new ArrayList<>();
+
+        @Override
+        public void deliver(String image) {
+            shown.add(image);
+        }
+    }
+
+    @Test
+    public void staleRefresh_doesNotReplaceANewerLoad() {
+        RefreshSlots slots = new RefreshSlots();
+        Object slot = new Object();
+        Screen screen = new Screen();
+
+        // a stale hit of A starts a refresh
+        CancellationToken refreshA = slots.newLoad(slot);
+        // then B is loaded on the same slot and shown
+        CancellationToken refreshB = slots.newLoad(slot);
+        screen.deliver("B");
+
+        // the refresh of A completes after B
+        assertTrue(refreshA.isCancelled());
+        assertFalse(slots.deliver(refreshA, screen, "A refreshed"));
+        assertEquals(1, screen.shown.size());
+        assertEquals("B", screen.shown.get(0));
+
+        // the refresh of the newest load is delivered
+        assertFalse(refreshB.isCancelled());
+        assertTrue(slots.deliver(refreshB, screen, "B refreshed"));
+        assertEquals("B refreshed", screen.shown.get(1));
+    }
+
+    @Test
+    public void otherSlots_areIndependent() {
+        RefreshSlots slots = new RefreshSlots();
+        Screen screen = new Screen();
+        CancellationToken first = slots.newLoad(new Object());
+        CancellationToken second = slots.newLoad(new Object());
+
+        assertTrue(slots.deliver(first, screen, "first"));
+        assertTrue(slots.deliver(second, screen, "second"));
+    }
+
+    @Test
+    public void untrackedLoads_alwaysDeliver() {
+        RefreshSlots slots = new RefreshSlots();
+        CancellationToken first = slots.newLoad(null);
+        slots.newLoad(null);
+
+        assertTrue(slots.deliver(first, new Screen(), "image"));
+    }
+}
@@ -0,0 +1,263 @@
+package com.tinmegali.hamer.download;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RetryPolicy} and the {@link HedgePolicy} of the
+ * {@link ImageFetcher}, and the deadline of its {@link CancellationToken},
+ * against a local server that injects faults
+ */
+public class ResilienceTest {
+
+    private static final byte[] BODY = new byte[4096];
+    // every Nth /tail request stalls before answering, for much
+    // longer than a hedged request takes, so the outcome doesn't
+    // depend on the load of the machine
+    private static final int STALL_EVERY = 10;
+    private static final long STALL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    // every Nth /slow request sleeps this long, short enough
+    // to also fetch it without hedging
+    private static final long SLOW_MILLIS = 1500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private DiskCache disk;
+
+    private final AtomicInteger flakyRequests = new AtomicInteger();
+    private final AtomicInteger tailRequests = new AtomicInteger();
+    private final AtomicInteger slowRequests = new AtomicInteger();
+    private final AtomicInteger missingRequests = new AtomicInteger();
+    private final AtomicInteger hungRequests = new AtomicInteger();
+    // releases the stalled responses on tearDown
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/flaky", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // fails twice, then answers
+                if ( flakyRequests.incrementAndGet() <= 2 ) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                } else {
+                    ok(exchange);
+                }
+            }
+        });
+        server.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                missingRequests.incrementAndGet();
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.createContext("/tail", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ( tailRequests.incrementAndGet() % STALL_EVERY == 0 ) {
+                    try {
+                        released.await(STALL_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                ok(exchange);
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ( slowRequests.incrementAndGet() % STALL_EVERY == 0 ) {
+                    try {
+                        Thread.sleep(SLOW_MILLIS);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                ok(exchange);
+            }
+        });
+        server.createContext("/hung", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                // never answers before the test ends
+                hungRequests.incrementAndGet();
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                ok(exchange);
+            }
+        });
+        // the stalled requests can't block the others
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        disk = DiskCache.open(folder.newFolder(), 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        released.countDown();
+        disk.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private static void ok(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, BODY.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(BODY);
+        out.close();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void backoff_growsWithJitter() {
+        RetryPolicy policy = new RetryPolicy(5, 100, 300);
+        Random random = new Random(42);
+        for ( int i = 0; i < 100; i++ ) {
+            assertTrue(policy.backoffMillis(1, random) <= 100);
+            assertTrue(policy.backoffMillis(2, random) <= 200);
+            // capped by the max delay
+            assertTrue(policy.backoffMillis(10, random) <= 300);
+        }
+        assertEquals(0, RetryPolicy.NONE.backoffMillis(1, random));
+    }
+
+    @Test
+    public void onlyTransientFailures_areRetryable() {
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(503, "u")));
+        assertTrue(RetryPolicy.isRetryable(new HttpStatusException(429, "u")));
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertFalse(RetryPolicy.isRetryable(new HttpStatusException(404, "u")));
+        assertFalse(RetryPolicy.isRetryable(new CancelledException()));
+    }
+
+    @Test
+    public void serverErrors_areRetried() throws Exception {
+        ImageFetcher fetcher = new ImageFetcher();
+        fetcher.setRetryPolicy(new RetryPolicy(3, 10, 50));
+        ImageFetcher.Result result = fetcher.fetch(url("/flaky"), disk);
+
+        assertEquals(ImageFetcher.Status.DOWNLOADED, result.status);
+        assertEquals(3, flakyRequests.get());
+        assertEquals(2, fetcher.getRetryCount());
+    }
+
+    @Test
+    public void clientErrors_failRightAway() throws Exception {
+        ImageFetcher fetcher = new ImageFetcher();
+        fetcher.setRetryPolicy(new RetryPolicy(3, 10, 50));
+        try {
+            fetcher.fetch(url("/missing"), disk);
+            fail("a 404 was fetched");
+        } catch (HttpStatusException expected) {
+            assertEquals(404, expected.getCode());
+        }
+        assertEquals(1, missingRequests.get());
+        assertEquals(0, fetcher.getRetryCount());
+    }
+
+    @Test
+    public void hedging_cutsTheTailLatency() throws Exception {
+        ImageFetcher hedged = new ImageFetcher();
+        // before enough samples the fixed delay is used
+        HedgePolicy hedge = new HedgePolicy(0.95, 128, 1000, 100, 50, 5000);
+        hedged.setHedgePolicy(hedge);
+        long[] withHedge = latencies(hedged, "/tail", 40);
+
+        // a stalled request only answers after STALL_MILLIS, so every
+        // stalled fetch was won by its hedge, long before the stall ends
+        int stalled = 40 / STALL_EVERY;
+        assertTrue(hedge.getHedgedCount() >= stalled);
+        assertTrue(hedge.getHedgesWon() >= stalled);
+        long slowest = percentile(withHedge, 1);
+        assertTrue("slowest " + slowest + "ms", slowest < STALL_MILLIS / 2);
+    }
+
+    @Test
+    public void hedging_beatsTheUnhedgedP99() throws Exception {
+        // the same requests stall on both runs
+        long[] baseline = latencies(new ImageFetcher(), "/slow", 20);
+        slowRequests.set(0);
+
+        ImageFetcher hedged = new ImageFetcher();
+        // past the first 5 samples, the quantile of the fast requests is used
+        hedged.setHedgePolicy(new HedgePolicy(0.9, 128, 5, 100, 50, 500));
+        long[] withHedge = latencies(hedged, "/slow", 20);
+
+        long unhedgedP99 = percentile(baseline, 0.99);
+        long hedgedP99 = percentile(withHedge, 0.99);
+        // the server sleeps, so the baseline can't be faster than the stall
+        assertTrue("unhedged p99 " + unhedgedP99 + "ms", unhedgedP99 >= SLOW_MILLIS);
+        assertTrue("hedged p99 " + hedgedP99 + "ms, unhedged " + unhedgedP99 + "ms",
+                hedgedP99 < unhedgedP99);
+    }
+
+    @Test
+    public void hungSocket_endsAtTheDeadline() throws Exception {
+        ImageFetcher fetcher = new ImageFetcher();
+        fetcher.setRetryPolicy(new RetryPolicy(3, 10, 50));
+        CancellationToken token = new CancellationToken();
+        token.setDeadline(300, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            fetcher.fetch(url("/hung"), disk, null, token);
+            fail("a hung request was fetched");
+        } catch (DeadlineExceededException expected) {
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // the read timeout came from the deadline, and it wasn't retried
+        assertTrue("took " + elapsed + "ms", elapsed < 2000);
+        assertTrue(token.isExpired());
+        assertEquals(1, hungRequests.get());
+        assertEquals(0, fetcher.getRetryCount());
+        assertNull(disk.get(url("/hung")));
+    }
+
+    // milliseconds taken by each fetch of the path
+    private long[] latencies(ImageFetcher fetcher, String path, int count) throws IOException {
+        long[] latencies = new long[count];
+        for ( int i = 0; i < count; i++ ) {
+            long start = System.nanoTime();
+            fetcher.fetch(url(path), disk);
+            latencies[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        return latencies;
+    }
+
+    private static long percentile(long[] values, double quantile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(quantile * sorted.length) - 1];
+    }
+}
@@ -0,0 +1,84 @@
+package com.tinmegali.hamer.download;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SingleFlight}
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentCalls_areCoalesced() throws Exception {
+        final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                executions.incrementAndGet();
+                release.await();
+                return "image";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<String>> results = new ArrayList<>();
+        for ( int i = 0; i < 5; i++ ) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return singleFlight.execute("url", call);
+                }
+            }));
+        }
+        // waits until every caller joined the running call
+        while ( singleFlight.getCoalescedCount() < 4 )
+            Thread.sleep(5);
+        release.countDown();
+
+        for ( Future<String> result : results )
+            assertEquals("image", result.get(5, TimeUnit.SECONDS));
+        assertEquals(1, executions.get());
+        assertEquals(4, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+        executor.shutdown();
+    }
+
+    @Test
+    public void sequentialCalls_executeAgain() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<Integer> call = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executions.incrementAndGet();
+            }
+        };
+        assertEquals(1, (int) singleFlight.execute("url", call));
+        assertEquals(2, (int) singleFlight.execute("url", call));
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void callError_isPropagated() throws Exception {
+        new SingleFlight<String, String>().execute("url", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IllegalStateException();
+            }
+        });
+    }
+}
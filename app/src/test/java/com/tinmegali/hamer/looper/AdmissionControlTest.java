@@ -0,0 +1,140 @@
+package com.tinmegali.hamer.looper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link AdmissionControl}
+ */
+public class AdmissionControlTest {
+
+    private final List<String> evicted = Collections.synchronizedList(new ArrayList<String>());
+
+    private AdmissionControl<String> admission(AdmissionControl.Policy policy, long timeoutMillis) {
+        return new AdmissionControl<>(2, policy, timeoutMillis,
+                new AdmissionControl.Evictor<String>() {
+                    @Override
+                    public void evict(String item) {
+                        evicted.add(item);
+                    }
+                });
+    }
+
+    @Test
+    public void reject_shedsTheNewItem() {
+        AdmissionControl<String> admission = admission(AdmissionControl.Policy.REJECT, 0);
+        assertTrue(admission.admit("img", "a"));
+        assertTrue(admission.admit("img", "b"));
+        assertFalse(admission.admit("img", "c"));
+        assertEquals(2, admission.getQueued());
+        assertEquals(2, admission.getAccepted());
+        assertEquals(1, admission.getShed());
+        assertTrue(evicted.isEmpty());
+
+        // an ended item frees its slot
+        admission.leave("a");
+        assertTrue(admission.admit("img", "c"));
+    }
+
+    @Test
+    public void dropOldest_evictsTheFirstQueued() {
+        AdmissionControl<String> admission = admission(AdmissionControl.Policy.DROP_OLDEST, 0);
+        admission.admit("img", "a");
+        admission.admit("random", "b");
+        assertTrue(admission.admit("img", "c"));
+        assertEquals(Arrays.asList("a"), evicted);
+        assertEquals(2, admission.getQueued());
+        assertEquals(1, admission.getShed());
+    }
+
+    @Test
+    public void dropSameKind_evictsOnlyItsKind() {
+        AdmissionControl<String> admission = admission(AdmissionControl.Policy.DROP_SAME_KIND, 0);
+        admission.admit("img", "a");
+        admission.admit("random", "b");
+        assertTrue(admission.admit("random", "c"));
+        assertEquals(Arrays.asList("b"), evicted);
+
+        // nothing of its kind to replace
+        assertFalse(admission.admit("runnable", "d"));
+        assertEquals(2, admission.getShed());
+    }
+
+    @Test
+    public void block_timesOut() {
+        AdmissionControl<String> admission = admission(AdmissionControl.Policy.BLOCK, 50);
+        admission.admit("img", "a");
+        admission.admit("img", "b");
+        long start = System.nanoTime();
+        assertFalse(admission.admit("img", "c"));
+        assertTrue(System.nanoTime() - start >= 40 * 1000000L);
+        assertEquals(1, admission.getShed());
+    }
+
+    @Test
+    public void block_admitsWhenASlotIsFreed() throws Exception {
+        final AdmissionControl<String> admission = admission(AdmissionControl.Policy.BLOCK, 5000);
+        admission.admit("img", "a");
+        admission.admit("img", "b");
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                admission.leave("a");
+            }
+        });
+        worker.start();
+        assertTrue(admission.admit("img", "c"));
+        worker.join();
+        assertEquals(0, admission.getShed());
+        assertEquals(3, admission.getAccepted());
+    }
+
+    /**
+     * Slow downloads that left the Looper for a pool are
+     * still in flight, the excess is rejected until they end
+     */
+    @Test
+    public void startedItems_keepTheirSlot() {
+        AdmissionControl<String> admission = admission(AdmissionControl.Policy.REJECT, 0);
+        admission.admit("img", "a");
+        admission.admit("img", "b");
+        admission.start("a");
+        admission.start("b");
+        assertEquals(0, admission.getQueued());
+        assertEquals(2, admission.getRunning());
+
+        for ( int i = 0; i < 5; i++ )
+            assertFalse(admission.admit("img", "excess" + i));
+        assertEquals(5, admission.getShed());
+
+        admission.leave("a");
+        assertTrue(admission.admit("img", "c"));
+    }
+
+    @Test
+    public void drop_neverEvictsStartedItems() {
+        AdmissionControl<String> admission = admission(AdmissionControl.Policy.DROP_OLDEST, 0);
+        admission.admit("img", "a");
+        admission.admit("img", "b");
+        admission.start("a");
+        // a is older, but already running
+        assertTrue(admission.admit("img", "c"));
+        assertEquals(Arrays.asList("b"), evicted);
+
+        admission.start("c");
+        assertFalse(admission.admit("img", "d"));
+        assertEquals(Arrays.asList("b"), evicted);
+        assertEquals(2, admission.getShed());
+    }
+}
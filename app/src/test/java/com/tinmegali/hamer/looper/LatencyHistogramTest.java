@@ -0,0 +1,85 @@
+package com.tinmegali.hamer.looper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LatencyHistogram} and {@link DispatchProfiler}
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void empty_reportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(0.99));
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void buckets_coverEveryValue_inOrder() {
+        int previous = -1;
+        for ( long micros = 0; micros < 100000; micros++ ) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(bucket >= previous);
+            assertTrue(micros <= LatencyHistogram.upperBoundOf(bucket));
+            previous = bucket;
+        }
+    }
+
+    @Test
+    public void percentiles_areWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( int micros = 1; micros <= 1000; micros++ )
+            histogram.record(micros);
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(500, histogram.getMeanMicros());
+        long p50 = histogram.getPercentileMicros(0.5);
+        long p99 = histogram.getPercentileMicros(0.99);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+    }
+
+    @Test
+    public void smallValues_areExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+        assertEquals(3, histogram.getPercentileMicros(0.5));
+        assertEquals(7, histogram.getPercentileMicros(1));
+    }
+
+    @Test
+    public void hugeAndNegativeValues_areClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(0, histogram.getPercentileMicros(0.5));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getPercentileMicros(1));
+    }
+
+    @Test
+    public void depthGauge_tracksMax_andNeverGoesNegative() {
+        DispatchStats stats = new DispatchStats("test");
+        stats.onEnqueued();
+        stats.onEnqueued();
+        stats.onDequeued();
+        stats.onDequeued();
+        stats.onDequeued();
+        assertEquals(0, stats.getDepth());
+        assertEquals(2, stats.getMaxDepth());
+    }
+
+    @Test
+    public void profiler_dumpsEveryStats() {
+        DispatchProfiler profiler = new DispatchProfiler();
+        profiler.statsFor("HandlerCounter KEY_MSG_TICK").getHandleTime().record(2000);
+        assertSame(profiler.statsFor("HandlerCounter KEY_MSG_TICK"),
+                profiler.getStats("HandlerCounter KEY_MSG_TICK"));
+        String dump = profiler.dump();
+        assertTrue(dump, dump.contains("HandlerCounter KEY_MSG_TICK"));
+        assertTrue(dump, dump.contains("2.0/2.0/2.0"));
+    }
+}
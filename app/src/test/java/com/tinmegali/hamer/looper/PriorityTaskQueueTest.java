@@ -0,0 +1,100 @@
+package com.tinmegali.hamer.looper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link PriorityTaskQueue} and {@link QueueWaitStats}
+ */
+public class PriorityTaskQueueTest {
+
+    private static final long AGING = 100;
+
+    @Test
+    public void higherClass_runsFirst() {
+        PriorityTaskQueue<String> queue = new PriorityTaskQueue<>(AGING);
+        queue.add("prefetch", null, Priority.BACKGROUND, 0);
+        queue.add("download", null, Priority.USER_VISIBLE, 0);
+        queue.add("tap", null, Priority.IMMEDIATE, 0);
+
+        assertEquals("tap", queue.poll().task);
+        assertEquals("download", queue.poll().task);
+        assertEquals("prefetch", queue.poll().task);
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void sameClass_isFifo() {
+        PriorityTaskQueue<String> queue = new PriorityTaskQueue<>(AGING);
+        queue.add("a", null, Priority.USER_VISIBLE, 10);
+        queue.add("b", null, Priority.USER_VISIBLE, 10);
+        queue.add("c", null, Priority.USER_VISIBLE, 10);
+
+        assertEquals("a", queue.poll().task);
+        assertEquals("b", queue.poll().task);
+        assertEquals("c", queue.poll().task);
+    }
+
+    @Test
+    public void oldBackgroundTask_isPromoted() {
+        PriorityTaskQueue<String> queue = new PriorityTaskQueue<>(AGING);
+        queue.add("prefetch", null, Priority.BACKGROUND, 0);
+        // background deadline is 200, a user visible task queued
+        // after 100 has a later deadline
+        queue.add("late download", null, Priority.USER_VISIBLE, 150);
+        queue.add("early download", null, Priority.USER_VISIBLE, 50);
+
+        assertEquals("early download", queue.poll().task);
+        assertEquals("prefetch", queue.poll().task);
+        assertEquals("late download", queue.poll().task);
+    }
+
+    /**
+     * A Looper busy with a toast every millisecond: the disk
+     * warm-up waits behind them, until it ages past them
+     */
+    @Test
+    public void backgroundTask_waitsBehindImmediateWork_untilItAges() {
+        PriorityTaskQueue<String> queue = new PriorityTaskQueue<>(AGING);
+        queue.add("warm-up", null, Priority.BACKGROUND, 0);
+
+        long ranAt = -1;
+        for ( long now = 0; now <= 4 * AGING && ranAt < 0; now++ ) {
+            queue.add("toast", null, Priority.IMMEDIATE, now);
+            if ( queue.poll().task.equals("warm-up") )
+                ranAt = now;
+        }
+        // held back while its deadline was ahead of the toasts
+        assertTrue("ran at " + ranAt, ranAt >= 2 * AGING);
+        // but not starved
+        assertTrue("ran at " + ranAt, ranAt <= 2 * AGING + 1);
+    }
+
+    @Test
+    public void remove_dropsEveryTaskOfTheToken() {
+        PriorityTaskQueue<String> queue = new PriorityTaskQueue<>(AGING);
+        Object token = new Object();
+        queue.add("a", token, Priority.USER_VISIBLE, 0);
+        queue.add("b", null, Priority.USER_VISIBLE, 0);
+        queue.add("c", token, Priority.BACKGROUND, 0);
+
+        assertEquals(2, queue.remove(token));
+        assertEquals(1, queue.size());
+        assertEquals("b", queue.poll().task);
+    }
+
+    @Test
+    public void waitStats_arePerClass() {
+        QueueWaitStats stats = new QueueWaitStats();
+        stats.record(Priority.USER_VISIBLE, 10);
+        stats.record(Priority.USER_VISIBLE, 30);
+        stats.record(Priority.BACKGROUND, 500);
+
+        assertEquals(2, stats.getCount(Priority.USER_VISIBLE));
+        assertEquals(20, stats.getMeanMillis(Priority.USER_VISIBLE));
+        assertEquals(30, stats.getMaxMillis(Priority.USER_VISIBLE));
+        assertEquals(500, stats.getMaxMillis(Priority.BACKGROUND));
+        assertEquals(0, stats.getCount(Priority.IMMEDIATE));
+    }
+}
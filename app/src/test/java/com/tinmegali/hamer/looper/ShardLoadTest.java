@@ -0,0 +1,32 @@
+package com.tinmegali.hamer.looper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ShardLoad}
+ */
+public class ShardLoadTest {
+
+    @Test
+    public void finishedWork_leavesThePending() {
+        ShardLoad load = new ShardLoad();
+        load.onQueued();
+        load.onQueued();
+        load.onFinished(1000);
+
+        assertEquals(2, load.getRouted());
+        assertEquals(1, load.getPending());
+        assertEquals(1, load.getCompleted());
+        assertEquals(1000, load.getBusyNanos());
+    }
+
+    @Test
+    public void imbalance_ofTheBusiestShard() {
+        assertEquals(1, ShardLoad.imbalance(new long[]{0, 0}), 0);
+        assertEquals(1, ShardLoad.imbalance(new long[]{5, 5, 5, 5}), 0);
+        assertEquals(4, ShardLoad.imbalance(new long[]{8, 0, 0, 0}), 0);
+        assertEquals(1.5, ShardLoad.imbalance(new long[]{3, 1}), 1e-9);
+    }
+}
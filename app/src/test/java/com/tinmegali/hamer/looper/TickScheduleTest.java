@@ -0,0 +1,46 @@
+package com.tinmegali.hamer.looper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TickSchedule}
+ */
+public class TickScheduleTest {
+
+    @Test
+    public void ticks_arePlannedFromTheStart() {
+        TickSchedule schedule = new TickSchedule(1000, 3000, 1000);
+        // every tick runs late, the next ones don't move
+        assertEquals(2000, schedule.nextTickAt(1000 + 30));
+        assertEquals(3000, schedule.nextTickAt(2000 + 45));
+        assertEquals(4000, schedule.nextTickAt(3000 + 20));
+        assertEquals(0, schedule.getSkipped());
+    }
+
+    @Test
+    public void lastTick_isAtTheEnd() {
+        TickSchedule schedule = new TickSchedule(0, 2500, 1000);
+        assertEquals(1000, schedule.nextTickAt(0));
+        assertEquals(2000, schedule.nextTickAt(1000));
+        assertEquals(2500, schedule.nextTickAt(2000));
+        assertTrue(schedule.isDone(2500));
+        assertEquals(0, schedule.remaining(2600));
+    }
+
+    @Test
+    public void missedTicks_areSkipped() {
+        TickSchedule schedule = new TickSchedule(0, 10000, 1000);
+        // the Looper was blocked for 3.5s
+        assertEquals(4000, schedule.nextTickAt(3500));
+        assertEquals(3, schedule.getSkipped());
+        assertEquals(5000, schedule.nextTickAt(4000));
+    }
+
+    @Test
+    public void lateNearTheEnd_goesToTheEnd() {
+        TickSchedule schedule = new TickSchedule(0, 3000, 1000);
+        assertEquals(3000, schedule.nextTickAt(2900));
+    }
+}
@@ -0,0 +1,95 @@
+package com.tinmegali.hamer.looper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link TimingWheel}
+ */
+public class TimingWheelTest {
+
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    public void wheelSize_isRoundedToPowerOfTwo() {
+        assertEquals(8, new TimingWheel<String>(10, 5, 0).getWheelSize());
+        assertEquals(8, new TimingWheel<String>(10, 8, 0).getWheelSize());
+        assertEquals(1, new TimingWheel<String>(10, 1, 0).getWheelSize());
+    }
+
+    @Test
+    public void timeout_expiresAtTheEndOfItsTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 1000);
+        wheel.schedule("a", 1025);
+        assertEquals(0, wheel.advance(1029, expired));
+        assertEquals(1, wheel.advance(1030, expired));
+        assertEquals(Collections.singletonList("a"), expired);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void passedDeadline_expiresOnTheNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        wheel.advance(50, expired);
+        wheel.schedule("late", 20);
+        assertEquals(60, wheel.nextTickMillis());
+        assertEquals(1, wheel.advance(60, expired));
+    }
+
+    @Test
+    public void timeoutsOfLaterRounds_waitForTheirRound() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        // same bucket, one round apart
+        wheel.schedule("first", 10);
+        wheel.schedule("second", 90);
+        wheel.advance(10, expired);
+        assertEquals(Collections.singletonList("first"), expired);
+        wheel.advance(80, expired);
+        assertEquals(1, expired.size());
+        wheel.advance(90, expired);
+        assertEquals(Arrays.asList("first", "second"), expired);
+    }
+
+    @Test
+    public void sameTick_expiresInOneBatch() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        for ( int i = 0; i < 100; i++ )
+            wheel.schedule("t" + i, 41 + i % 9);
+        assertEquals(100, wheel.size());
+        assertEquals(100, wheel.advance(50, expired));
+    }
+
+    @Test
+    public void cancelled_neverExpires() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        TimingWheel.Timeout<String> a = wheel.schedule("a", 30);
+        TimingWheel.Timeout<String> b = wheel.schedule("b", 30);
+        TimingWheel.Timeout<String> c = wheel.schedule("c", 30);
+        assertTrue(wheel.cancel(b));
+        assertFalse(wheel.cancel(b));
+        assertFalse(b.isScheduled());
+        wheel.advance(30, expired);
+        assertEquals(2, expired.size());
+        assertFalse(expired.contains("b"));
+        assertFalse(wheel.cancel(a));
+        assertFalse(c.isScheduled());
+    }
+
+    @Test
+    public void longPause_expiresEverythingDue() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8, 0);
+        wheel.schedule("a", 15);
+        wheel.schedule("b", 500);
+        wheel.schedule("c", 5000);
+        assertEquals(2, wheel.advance(1000, expired));
+        assertEquals(1, wheel.size());
+        assertEquals(1010, wheel.nextTickMillis());
+        assertEquals(1, wheel.advance(5000, expired));
+    }
+}
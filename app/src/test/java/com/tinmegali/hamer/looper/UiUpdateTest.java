@@ -0,0 +1,54 @@
+package com.tinmegali.hamer.looper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the merge of the {@link UiUpdateBatcher} updates on a {@link UiUpdate}
+ */
+public class UiUpdateTest {
+
+    @Test
+    public void everyField_keepsItsLastValue() {
+        UiUpdate update = new UiUpdate();
+        update.setOperation("first");
+        update.setProgressVisible(true);
+        update.setOperation("second");
+        update.setProgressVisible(false);
+        update.setOperation("third");
+
+        assertEquals("third", update.getOperation());
+        assertEquals(Boolean.FALSE, update.getProgressVisible());
+    }
+
+    @Test
+    public void unchangedFields_areNull() {
+        UiUpdate update = new UiUpdate();
+        update.setOperation("operation");
+
+        assertNull(update.getFeedback());
+        assertNull(update.getProgressVisible());
+        assertNull(update.getImage());
+        assertFalse(update.hasDownloadProgress());
+    }
+
+    @Test
+    public void feedbackAndProgress_replaceEachOther() {
+        UiUpdate update = new UiUpdate();
+        update.setFeedback("downloading");
+        update.setDownloadProgress(10, 1024);
+        update.setDownloadProgress(60, 6144);
+
+        assertNull(update.getFeedback());
+        assertTrue(update.hasDownloadProgress());
+        assertEquals(60, update.getDownloadPercent());
+        assertEquals(6144, update.getDownloadBytes());
+
+        update.setFeedback("Image downloaded");
+        assertEquals("Image downloaded", update.getFeedback());
+        assertFalse(update.hasDownloadProgress());
+        // the operation isn't touched by either
+        assertNull(update.getOperation());
+    }
+}
@@ -0,0 +1,83 @@
+package com.tinmegali.hamer.looper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link WakeupQueue}
+ */
+public class WakeupQueueTest {
+
+    private final WakeupQueue<String> queue = new WakeupQueue<>();
+    private final List<String> due = new ArrayList<>();
+
+    @Test
+    public void empty_neverWakesUp() {
+        assertEquals(Long.MAX_VALUE, queue.nextWakeup());
+        assertEquals(0, queue.pollDue(1000, due));
+        assertEquals(0, queue.getWakeupCount());
+    }
+
+    @Test
+    public void overlappingWindows_shareOneWakeup() {
+        queue.add("toast", 5000, 1000);
+        queue.add("message", 5300, 1000);
+        queue.add("later", 5900, 1000);
+        // as late as the first window allows
+        assertEquals(6000, queue.nextWakeup());
+        assertEquals(3, queue.pollDue(6000, due));
+        assertEquals(Arrays.asList("toast", "message", "later"), due);
+        assertEquals(1, queue.getWakeupCount());
+        assertEquals(2, queue.getSavedWakeups());
+    }
+
+    @Test
+    public void separateWindows_wakeUpSeparately() {
+        queue.add("a", 1000, 100);
+        queue.add("b", 2000, 100);
+        assertEquals(1100, queue.nextWakeup());
+        queue.pollDue(1100, due);
+        assertEquals(Collections.singletonList("a"), due);
+        assertEquals(2100, queue.nextWakeup());
+        queue.pollDue(2100, due);
+        assertEquals(2, queue.getWakeupCount());
+        assertEquals(0, queue.getSavedWakeups());
+    }
+
+    @Test
+    public void tasks_neverRunEarly() {
+        queue.add("exact", 1000, 0);
+        queue.add("slack", 1500, 5000);
+        assertEquals(1000, queue.nextWakeup());
+        queue.pollDue(1000, due);
+        assertEquals(Collections.singletonList("exact"), due);
+        assertEquals(6500, queue.nextWakeup());
+    }
+
+    @Test
+    public void cancelled_isSkipped() {
+        WakeupQueue.Entry<String> first = queue.add("first", 1000, 0);
+        queue.add("second", 1200, 500);
+        assertTrue(queue.remove(first));
+        assertFalse(queue.remove(first));
+        assertEquals(1700, queue.nextWakeup());
+        queue.pollDue(1700, due);
+        assertEquals(Collections.singletonList("second"), due);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void clear_dropsEverything_withoutWakeups() {
+        WakeupQueue.Entry<String> entry = queue.add("a", 1000, 0);
+        queue.clear();
+        assertFalse(entry.isPending());
+        assertEquals(Long.MAX_VALUE, queue.nextWakeup());
+        assertEquals(0, queue.getWakeupCount());
+    }
+}
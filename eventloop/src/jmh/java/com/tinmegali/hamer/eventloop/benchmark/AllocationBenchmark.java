@@ -0,0 +1,83 @@
+package com.tinmegali.hamer.eventloop.benchmark;
+
+import com.tinmegali.hamer.eventloop.Message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation of each way of sending work to a Looper.
+ * Run with the gc profiler (enabled on build.gradle),
+ * gc.alloc.rate.norm gives the bytes allocated per Message.
+ *
+ *      pooledMessage   {@link Message#obtain()}, recycled by the Looper
+ *      newMessage      a new Message every time
+ *      newRunnable     a new Runnable every time, like the WorkerThread posts
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AllocationBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({"LOCKED", "MPSC"})
+    public String queueType;
+
+    private LoopFixture loop;
+
+    @Setup
+    public void setUp() {
+        loop = new LoopFixture("allocation", queueType);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        loop.quit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void pooledMessage() throws InterruptedException {
+        for ( int i = 0; i < BATCH; i++ )
+            loop.handler.sendMessage(loop.handler.obtainMessage(1, i, 0));
+        loop.drain();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void newMessage() throws InterruptedException {
+        for ( int i = 0; i < BATCH; i++ ) {
+            Message msg = new Message();
+            msg.what = 1;
+            msg.arg1 = i;
+            loop.handler.sendMessage(msg);
+        }
+        loop.drain();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void newRunnable() throws InterruptedException {
+        for ( int i = 0; i < BATCH; i++ ) {
+            final int value = i;
+            loop.handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    loop.handled += value;
+                }
+            });
+        }
+        loop.drain();
+    }
+}
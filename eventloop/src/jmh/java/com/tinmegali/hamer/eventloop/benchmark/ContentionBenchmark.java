@@ -0,0 +1,73 @@
+package com.tinmegali.hamer.eventloop.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of many Threads sending to the same Looper,
+ * like the UI, the CounterThread and the download callbacks
+ * all posting to the WorkerThread.
+ *
+ * Each of the {@link Threads} sends {@link #BATCH} Messages
+ * and waits for the Looper to handle them.
+ *
+ * Both engines obtain and recycle the Messages on per Thread
+ * lock-free pools, so only the queues themselves are compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class ContentionBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({"LOCKED", "MPSC"})
+    public String queueType;
+
+    private LoopFixture loop;
+
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            loop.handled++;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        loop = new LoopFixture("contention", queueType);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        loop.quit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void post() throws InterruptedException {
+        for ( int i = 0; i < BATCH; i++ )
+            loop.handler.post(task);
+        loop.drain();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendMessage() throws InterruptedException {
+        for ( int i = 0; i < BATCH; i++ )
+            loop.handler.sendMessage(loop.handler.obtainMessage(1, i, 0));
+        loop.drain();
+    }
+}
@@ -0,0 +1,75 @@
+package com.tinmegali.hamer.eventloop.benchmark;
+
+import com.tinmegali.hamer.eventloop.Clock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of scheduling and cancelling a delayed Message,
+ * like the CounterThread ticks and the delayed toast,
+ * while {@link #pending} other delayed Messages wait on the queue.
+ *
+ * The LOCKED queue is a sorted list, so both operations
+ * grow with the number of pending Messages on the caller.
+ * The MPSC queue only pushes them on its inbox, the
+ * sorting and the removal are paid by the Looper Thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DelayedSchedulingBenchmark {
+
+    private static final int WHAT_PENDING = 1;
+    private static final int WHAT_SCHEDULED = 2;
+    // far enough to never be due during the benchmark
+    private static final long DELAY = TimeUnit.HOURS.toMillis(1);
+
+    @Param({"0", "100", "1000"})
+    public int pending;
+
+    @Param({"LOCKED", "MPSC"})
+    public String queueType;
+
+    private LoopFixture loop;
+
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        loop = new LoopFixture("delayed", queueType);
+        for ( int i = 0; i < pending; i++ )
+            loop.handler.sendEmptyMessageDelayed(WHAT_PENDING, DELAY + i);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        loop.quit();
+    }
+
+    @Benchmark
+    public void sendMessageDelayed() {
+        // lands in the middle of the pending Messages
+        loop.handler.sendEmptyMessageDelayed(WHAT_SCHEDULED, DELAY + pending / 2);
+        loop.handler.removeMessages(WHAT_SCHEDULED);
+    }
+
+    @Benchmark
+    public void postAtTime() {
+        loop.handler.postAtTime(task, Clock.uptimeMillis() + DELAY + pending / 2);
+        loop.handler.removeCallbacks(task);
+    }
+}
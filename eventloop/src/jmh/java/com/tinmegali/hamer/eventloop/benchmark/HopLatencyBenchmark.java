@@ -0,0 +1,100 @@
+package com.tinmegali.hamer.eventloop.benchmark;
+
+import com.tinmegali.hamer.eventloop.Handler;
+import com.tinmegali.hamer.eventloop.HandlerThread;
+import com.tinmegali.hamer.eventloop.Message;
+import com.tinmegali.hamer.eventloop.MessageQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a Message crossing Threads, sampled
+ * to report its percentiles.
+ *
+ *      oneHop      caller -> worker
+ *      twoHops     caller -> worker -> counter, like the WorkerThread
+ *                  forwarding to the CounterThread
+ *
+ * The caller spins until the last Looper publishes the
+ * Message sequence, so the Looper wake-up is measured too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HopLatencyBenchmark {
+
+    private static final int WHAT_HOP = 1;
+    private static final int WHAT_FORWARD = 2;
+
+    @Param({"LOCKED", "MPSC"})
+    public String queueType;
+
+    private HandlerThread worker;
+    private HandlerThread counter;
+    private Handler workerHandler;
+    private Handler counterHandler;
+
+    // last sequence received by the end of the hops
+    private volatile int received;
+    private int sequence;
+
+    @Setup
+    public void setUp() {
+        counter = new HandlerThread("counter", MessageQueue.Type.valueOf(queueType));
+        counter.start();
+        counterHandler = new Handler(counter.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                received = msg.arg1;
+            }
+        };
+        worker = new HandlerThread("worker", MessageQueue.Type.valueOf(queueType));
+        worker.start();
+        workerHandler = new Handler(worker.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if ( msg.what == WHAT_FORWARD )
+                    counterHandler.sendMessage(counterHandler.obtainMessage(WHAT_HOP, msg.arg1, 0));
+                else
+                    received = msg.arg1;
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        worker.quit();
+        counter.quit();
+        worker.join();
+        counter.join();
+    }
+
+    @Benchmark
+    public int oneHop() {
+        return hop(WHAT_HOP);
+    }
+
+    @Benchmark
+    public int twoHops() {
+        return hop(WHAT_FORWARD);
+    }
+
+    private int hop(int what) {
+        int expected = ++sequence;
+        workerHandler.sendMessage(workerHandler.obtainMessage(what, expected, 0));
+        while ( received != expected ) {
+            // spin, parking would add its own wake-up latency
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,50 @@
+package com.tinmegali.hamer.eventloop.benchmark;
+
+import com.tinmegali.hamer.eventloop.Handler;
+import com.tinmegali.hamer.eventloop.HandlerThread;
+import com.tinmegali.hamer.eventloop.Message;
+import com.tinmegali.hamer.eventloop.MessageQueue;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A {@link HandlerThread} whose Handler counts the
+ * Messages it receives, shared by the benchmarks
+ */
+class LoopFixture {
+
+    final HandlerThread thread;
+    final Handler handler;
+    // Messages handled, only written by the loop Thread
+    volatile long handled;
+
+    LoopFixture(String name, String queueType) {
+        thread = new HandlerThread(name, MessageQueue.Type.valueOf(queueType));
+        thread.start();
+        handler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                handled++;
+            }
+        };
+    }
+
+    /**
+     * Waits until every Message sent before it is handled
+     */
+    void drain() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+    }
+
+    void quit() throws InterruptedException {
+        thread.quit();
+        thread.join();
+    }
+}
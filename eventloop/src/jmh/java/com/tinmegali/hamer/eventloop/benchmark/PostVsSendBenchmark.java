@@ -0,0 +1,76 @@
+package com.tinmegali.hamer.eventloop.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of posting Runnables against sending Messages
+ * from one Thread to a Looper, like the UI sending work
+ * to the WorkerThread.
+ *
+ * Each invocation sends {@link #BATCH} Messages and waits
+ * for the Looper to handle them all.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PostVsSendBenchmark {
+
+    static final int BATCH = 1000;
+
+    @Param({"LOCKED", "MPSC"})
+    public String queueType;
+
+    private LoopFixture loop;
+
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            loop.handled++;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        loop = new LoopFixture("post-vs-send", queueType);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        loop.quit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void post() throws InterruptedException {
+        for ( int i = 0; i < BATCH; i++ )
+            loop.handler.post(task);
+        loop.drain();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendMessage() throws InterruptedException {
+        for ( int i = 0; i < BATCH; i++ )
+            loop.handler.sendMessage(loop.handler.obtainMessage(1, i, 0));
+        loop.drain();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendEmptyMessage() throws InterruptedException {
+        for ( int i = 0; i < BATCH; i++ )
+            loop.handler.sendEmptyMessage(1);
+        loop.drain();
+    }
+}
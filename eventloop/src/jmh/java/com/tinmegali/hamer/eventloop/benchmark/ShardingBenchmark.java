@@ -0,0 +1,83 @@
+package com.tinmegali.hamer.eventloop.benchmark;
+
+import com.tinmegali.hamer.eventloop.ConsistentHashRing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a group of Loopers, like the app WorkerGroup,
+ * with the tasks routed by url through a {@link ConsistentHashRing}.
+ *
+ * The workload is mixed: most tasks are short, like a
+ * cache hit or a UI dispatch, and every {@link #HEAVY_EVERY}
+ * task is a long one, like a decode. With enough cores the
+ * throughput grows with the number of shards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ShardingBenchmark {
+
+    static final int BATCH = 1024;
+    static final int KEYS = 64;
+    static final int HEAVY_EVERY = 8;
+    static final long LIGHT_TOKENS = 100;
+    static final long HEAVY_TOKENS = 10000;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"LOCKED", "MPSC"})
+    public String queueType;
+
+    private ConsistentHashRing<LoopFixture> ring;
+    private final String[] keys = new String[KEYS];
+
+    @Setup
+    public void setUp() {
+        List<LoopFixture> loops = new ArrayList<>(shards);
+        for ( int i = 0; i < shards; i++ )
+            loops.add(new LoopFixture("shard-" + i, queueType));
+        ring = new ConsistentHashRing<>(loops);
+        for ( int i = 0; i < KEYS; i++ )
+            keys[i] = "https://pixabay.com/static/uploads/photo/" + i + "_960_720.jpg";
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        for ( LoopFixture loop : ring.getNodes() )
+            loop.quit();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void mixedWorkload() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BATCH);
+        for ( int i = 0; i < BATCH; i++ ) {
+            final long tokens = i % HEAVY_EVERY == 0 ? HEAVY_TOKENS : LIGHT_TOKENS;
+            ring.get(keys[i % KEYS]).handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Blackhole.consumeCPU(tokens);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,21 @@
+package com.tinmegali.hamer.eventloop;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time base of the event loop, like android.os.SystemClock.
+ * Monotonic, not affected by changes of the wall clock.
+ */
+public final class Clock {
+
+    private Clock() {}
+
+    /**
+     * Milliseconds since an arbitrary origin, the time used by
+     * {@link Handler#postAtTime(Runnable, long)} and
+     * {@link Handler#sendMessageAtTime(Message, long)}
+     */
+    public static long uptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
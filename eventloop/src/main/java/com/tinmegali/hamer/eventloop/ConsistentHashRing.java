@@ -0,0 +1,103 @@
+package com.tinmegali.hamer.eventloop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maps keys, like image urls, to a fixed list of nodes
+ * using consistent hashing.
+ *
+ * Every node is placed many times on a ring of int hashes, its
+ * virtual nodes. A key belongs to the first virtual node after
+ * the hash of the key. The same key always goes to the same
+ * node, and the keys spread evenly across the nodes.
+ *
+ * A virtual node is placed by the node index, so a ring with
+ * one more node only moves the keys the new node takes, about
+ * 1/N of them, and every other key keeps its node.
+ *
+ * Immutable, safe to be used by any Thread.
+ */
+public class ConsistentHashRing<T> {
+
+    // virtual nodes of every node, enough for an even spread
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private final List<T> nodes;
+    // hashes of the virtual nodes, sorted
+    private final int[] hashes;
+    // index of the node owning every hash
+    private final int[] owners;
+
+    public ConsistentHashRing(List<T> nodes, int virtualNodes) {
+        if ( nodes.isEmpty() )
+            throw new IllegalArgumentException("the ring needs at least one node");
+        if ( virtualNodes <= 0 )
+            throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+
+        int size = nodes.size() * virtualNodes;
+        long[] points = new long[size];
+        for ( int node = 0; node < nodes.size(); node++ ) {
+            for ( int replica = 0; replica < virtualNodes; replica++ ) {
+                int hash = mix(node * 0x9E3779B9 + replica);
+                // the hash on the high bits, the owner on the low bits,
+                // so sorting the points sorts by hash
+                points[node * virtualNodes + replica] = ((long) hash << 32) | node;
+            }
+        }
+        Arrays.sort(points);
+        hashes = new int[size];
+        owners = new int[size];
+        for ( int i = 0; i < size; i++ ) {
+            hashes[i] = (int) (points[i] >> 32);
+            owners[i] = (int) points[i];
+        }
+    }
+
+    public ConsistentHashRing(List<T> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Index of the node owning the key
+     */
+    public int indexFor(Object key) {
+        int hash = mix(key.hashCode());
+        int position = Arrays.binarySearch(hashes, hash);
+        if ( position < 0 )
+            position = -position - 1;
+        // past the last virtual node, wraps to the first one
+        if ( position == hashes.length )
+            position = 0;
+        return owners[position];
+    }
+
+    /**
+     * Node owning the key
+     */
+    public T get(Object key) {
+        return nodes.get(indexFor(key));
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    // spreads the bits of weak hashes, like String.hashCode()
+    // of similar urls (murmur3 finalizer)
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
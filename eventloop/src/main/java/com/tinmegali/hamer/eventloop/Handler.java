@@ -0,0 +1,204 @@
+package com.tinmegali.hamer.eventloop;
+
+/**
+ * Sends Messages and Runnables to a {@link Looper}
+ * and handles them on its Thread, like android.os.Handler.
+ *
+ * Runnables are posted inside a Message, so the post and
+ * send methods share the same queue and ordering:
+ *
+ *      post(Runnable), sendMessage(Message)        due now
+ *      postDelayed(), sendMessageDelayed()         due after a delay
+ *      postAtTime(), sendMessageAtTime()           due at an {@link Clock#uptimeMillis()}
+ *      postAtFrontOfQueue(), sendMessageAtFrontOfQueue()
+ *
+ * The send methods return false if the Looper is quitting.
+ */
+public class Handler {
+
+    /**
+     * Handles Messages without extending the Handler
+     */
+    public interface Callback {
+        /**
+         * @return  true if the Message was handled,
+         *          otherwise {@link #handleMessage(Message)} is called
+         */
+        boolean handleMessage(Message msg);
+    }
+
+    private final Looper looper;
+    private final MessageQueue queue;
+    private final Callback callback;
+
+    /**
+     * Handler of the current Thread Looper
+     */
+    public Handler() {
+        this((Callback) null);
+    }
+
+    public Handler(Callback callback) {
+        this(currentLooper(), callback);
+    }
+
+    public Handler(Looper looper) {
+        this(looper, null);
+    }
+
+    public Handler(Looper looper, Callback callback) {
+        this.looper = looper;
+        this.queue = looper.getQueue();
+        this.callback = callback;
+    }
+
+    private static Looper currentLooper() {
+        Looper looper = Looper.myLooper();
+        if ( looper == null )
+            throw new IllegalStateException(
+                    "Can't create handler inside thread that has not called Looper.prepare()");
+        return looper;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    /**
+     * Subclasses receive the Messages here
+     */
+    public void handleMessage(Message msg) {
+    }
+
+    /**
+     * Runs a posted Runnable, or passes the Message
+     * to the {@link Callback} and {@link #handleMessage(Message)}
+     */
+    public void dispatchMessage(Message msg) {
+        if ( msg.callback != null ) {
+            msg.callback.run();
+        } else {
+            if ( callback != null && callback.handleMessage(msg) )
+                return;
+            handleMessage(msg);
+        }
+    }
+
+    public final Message obtainMessage() {
+        return Message.obtain(this);
+    }
+
+    public final Message obtainMessage(int what) {
+        return Message.obtain(this, what);
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        return Message.obtain(this, what, obj);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2) {
+        return Message.obtain(this, what, arg1, arg2, null);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        return Message.obtain(this, what, arg1, arg2, obj);
+    }
+
+    public final boolean post(Runnable r) {
+        return sendMessageDelayed(Message.obtain(this, r), 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return sendMessageDelayed(Message.obtain(this, r), delayMillis);
+    }
+
+    public final boolean postAtTime(Runnable r, long uptimeMillis) {
+        return sendMessageAtTime(Message.obtain(this, r), uptimeMillis);
+    }
+
+    /**
+     * @param token identifies the Runnable on {@link #removeCallbacks(Runnable, Object)}
+     */
+    public final boolean postAtTime(Runnable r, Object token, long uptimeMillis) {
+        Message msg = Message.obtain(this, r);
+        msg.obj = token;
+        return sendMessageAtTime(msg, uptimeMillis);
+    }
+
+    public final boolean postAtFrontOfQueue(Runnable r) {
+        return sendMessageAtFrontOfQueue(Message.obtain(this, r));
+    }
+
+    public final boolean sendMessage(Message msg) {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    public final boolean sendEmptyMessage(int what) {
+        return sendMessageDelayed(obtainMessage(what), 0);
+    }
+
+    public final boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+        return sendMessageDelayed(obtainMessage(what), delayMillis);
+    }
+
+    public final boolean sendEmptyMessageAtTime(int what, long uptimeMillis) {
+        return sendMessageAtTime(obtainMessage(what), uptimeMillis);
+    }
+
+    public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+        if ( delayMillis < 0 )
+            delayMillis = 0;
+        return sendMessageAtTime(msg, Clock.uptimeMillis() + delayMillis);
+    }
+
+    /**
+     * All the send and post methods end here,
+     * subclasses can override it to observe them
+     * @param uptimeMillis  when the Message is due, on the {@link Clock}
+     */
+    public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+        msg.target = this;
+        return queue.enqueueMessage(msg, uptimeMillis);
+    }
+
+    /**
+     * The Message is dispatched before every other
+     */
+    public final boolean sendMessageAtFrontOfQueue(Message msg) {
+        msg.target = this;
+        return queue.enqueueMessage(msg, 0);
+    }
+
+    public final boolean hasMessages(int what) {
+        return queue.hasMessages(this, what, null);
+    }
+
+    public final void removeMessages(int what) {
+        queue.removeMessages(this, what, null);
+    }
+
+    public final void removeMessages(int what, Object obj) {
+        queue.removeMessages(this, what, obj);
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        queue.removeCallbacks(this, r, null);
+    }
+
+    public final void removeCallbacks(Runnable r, Object token) {
+        queue.removeCallbacks(this, r, token);
+    }
+
+    /**
+     * Removes every Message and Runnable with the token,
+     * or all of them if the token is null
+     */
+    public final void removeCallbacksAndMessages(Object token) {
+        queue.removeCallbacksAndMessages(this, token);
+    }
+
+    @Override
+    public String toString() {
+        return "Handler (" + getClass().getName() + ") {" + Integer.toHexString(hashCode()) + "}";
+    }
+}
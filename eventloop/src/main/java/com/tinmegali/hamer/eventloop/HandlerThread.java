@@ -0,0 +1,83 @@
+package com.tinmegali.hamer.eventloop;
+
+/**
+ * A Thread with a {@link Looper}, like android.os.HandlerThread.
+ *
+ *      HandlerThread thread = new HandlerThread("worker");
+ *      thread.start();
+ *      Handler handler = new Handler(thread.getLooper());
+ *
+ * The engine of its queue is chosen on the constructor,
+ * see {@link MessageQueue.Type}.
+ */
+public class HandlerThread extends Thread {
+
+    private final MessageQueue.Type queueType;
+
+    // Guarded by 'this'
+    private Looper looper;
+
+    public HandlerThread(String name) {
+        this(name, MessageQueue.Type.LOCKED);
+    }
+
+    public HandlerThread(String name, MessageQueue.Type queueType) {
+        super(name);
+        this.queueType = queueType;
+    }
+
+    /**
+     * Called after the Looper is prepared, before the loop starts
+     */
+    protected void onLooperPrepared() {
+    }
+
+    @Override
+    public void run() {
+        Looper.prepare(queueType);
+        synchronized (this) {
+            looper = Looper.myLooper();
+            notifyAll();
+        }
+        onLooperPrepared();
+        Looper.loop();
+    }
+
+    /**
+     * Waits for the Thread to prepare its Looper
+     * @return  the Looper, or null if the Thread isn't alive
+     */
+    public Looper getLooper() {
+        if ( !isAlive() )
+            return null;
+        boolean interrupted = false;
+        synchronized (this) {
+            while ( isAlive() && looper == null ) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if ( interrupted )
+            Thread.currentThread().interrupt();
+        return looper;
+    }
+
+    public boolean quit() {
+        Looper looper = getLooper();
+        if ( looper == null )
+            return false;
+        looper.quit();
+        return true;
+    }
+
+    public boolean quitSafely() {
+        Looper looper = getLooper();
+        if ( looper == null )
+            return false;
+        looper.quitSafely();
+        return true;
+    }
+}
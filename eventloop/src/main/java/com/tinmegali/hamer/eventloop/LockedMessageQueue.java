@@ -0,0 +1,195 @@
+package com.tinmegali.hamer.eventloop;
+
+/**
+ * {@link MessageQueue} kept on a linked list guarded by the
+ * queue monitor, like the one of android.os.MessageQueue.
+ * The Looper Thread waits on the monitor until the first
+ * Message is due, and is only notified when a new Message
+ * becomes the first one.
+ *
+ * Every producer takes the same lock, so it's
+ * contended when many Threads send to the Looper.
+ */
+class LockedMessageQueue extends MessageQueue {
+
+    // first Message, the next to be due. Guarded by 'this'
+    private Message messages;
+    private int size;
+    private boolean quitting;
+    // the Looper Thread is waiting for a Message
+    private boolean blocked;
+
+    @Override
+    boolean enqueueMessage(Message msg, long when) {
+        if ( msg.target == null )
+            throw new IllegalArgumentException("Message must have a target");
+        synchronized (this) {
+            if ( quitting ) {
+                msg.recycle();
+                return false;
+            }
+            msg.when = when;
+            Message previous = null;
+            Message current = messages;
+            // after every Message due before or at the same time
+            while ( when != 0 && current != null && current.when <= when ) {
+                previous = current;
+                current = current.next;
+            }
+            msg.next = current;
+            if ( previous == null )
+                messages = msg;
+            else
+                previous.next = msg;
+            size++;
+            // the Looper only needs to wake if its next due time changed
+            if ( previous == null && blocked )
+                notify();
+        }
+        return true;
+    }
+
+    @Override
+    Message next() {
+        boolean interrupted = false;
+        // the IdleHandlers run once every time the queue gets idle
+        boolean idleHandled = false;
+        try {
+            for ( ;; ) {
+                if ( !idleHandled ) {
+                    synchronized (this) {
+                        Message msg = poll();
+                        if ( msg != null || (quitting && messages == null) )
+                            return msg;
+                    }
+                    idleHandled = true;
+                    runIdleHandlers();
+                }
+                synchronized (this) {
+                    Message msg = poll();
+                    if ( msg != null || (quitting && messages == null) )
+                        return msg;
+                    long now = Clock.uptimeMillis();
+                    blocked = true;
+                    try {
+                        if ( messages == null )
+                            wait();
+                        else
+                            wait(messages.when - now);
+                    } catch (InterruptedException e) {
+                        // a Looper is only stopped by quit()
+                        interrupted = true;
+                    } finally {
+                        blocked = false;
+                    }
+                }
+            }
+        } finally {
+            if ( interrupted )
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // the first Message if it's due. Guarded by 'this'
+    private Message poll() {
+        Message msg = messages;
+        if ( msg == null || msg.when > Clock.uptimeMillis() )
+            return null;
+        messages = msg.next;
+        msg.next = null;
+        size--;
+        return msg;
+    }
+
+    @Override
+    void quit(boolean safe) {
+        synchronized (this) {
+            if ( quitting )
+                return;
+            quitting = true;
+            if ( safe )
+                removeFutureMessages(Clock.uptimeMillis());
+            else
+                removeAll();
+            notify();
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean isIdle() {
+        return messages == null || messages.when > Clock.uptimeMillis();
+    }
+
+    @Override
+    synchronized boolean hasMessages(Handler target, int what, Object obj) {
+        for ( Message msg = messages; msg != null; msg = msg.next ) {
+            if ( matches(msg, REMOVE_MESSAGES, target, what, null, obj) )
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    void removeMessages(Handler target, int what, Object obj) {
+        remove(REMOVE_MESSAGES, target, what, null, obj);
+    }
+
+    @Override
+    void removeCallbacks(Handler target, Runnable callback, Object token) {
+        remove(REMOVE_CALLBACKS, target, 0, callback, token);
+    }
+
+    @Override
+    void removeCallbacksAndMessages(Handler target, Object token) {
+        remove(REMOVE_ALL, target, 0, null, token);
+    }
+
+    private synchronized void remove(int kind, Handler target, int what,
+                                     Runnable callback, Object obj) {
+        Message previous = null;
+        Message msg = messages;
+        while ( msg != null ) {
+            Message next = msg.next;
+            if ( matches(msg, kind, target, what, callback, obj) )
+                unlink(previous, msg);
+            else
+                previous = msg;
+            msg = next;
+        }
+    }
+
+    private void unlink(Message previous, Message msg) {
+        if ( previous == null )
+            messages = msg.next;
+        else
+            previous.next = msg.next;
+        size--;
+        msg.next = null;
+        msg.recycle();
+    }
+
+    private void removeAll() {
+        while ( messages != null )
+            unlink(null, messages);
+    }
+
+    // keeps the Messages already due
+    private void removeFutureMessages(long now) {
+        Message previous = null;
+        Message msg = messages;
+        while ( msg != null && msg.when <= now ) {
+            previous = msg;
+            msg = msg.next;
+        }
+        while ( msg != null ) {
+            Message next = msg.next;
+            unlink(previous, msg);
+            msg = next;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.tinmegali.hamer.eventloop;
+
+/**
+ * Runs the event loop of a Thread, like android.os.Looper:
+ * takes the due Messages from its {@link MessageQueue} and
+ * dispatches them to their {@link Handler}.
+ *
+ *      Looper.prepare();
+ *      Handler handler = new Handler();
+ *      Looper.loop();
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> looper = new ThreadLocal<>();
+
+    private final MessageQueue queue;
+    private final Thread thread;
+
+    private Looper(MessageQueue.Type type) {
+        queue = MessageQueue.create(type);
+        thread = Thread.currentThread();
+    }
+
+    /**
+     * Creates the Looper of the current Thread,
+     * with a {@link MessageQueue.Type#LOCKED} queue
+     * @throws IllegalStateException if it already has one
+     */
+    public static void prepare() {
+        prepare(MessageQueue.Type.LOCKED);
+    }
+
+    /**
+     * Creates the Looper of the current Thread
+     * @param type  engine of its {@link MessageQueue}
+     * @throws IllegalStateException if it already has one
+     */
+    public static void prepare(MessageQueue.Type type) {
+        if ( looper.get() != null )
+            throw new IllegalStateException("Only one Looper may be created per thread");
+        looper.set(new Looper(type));
+    }
+
+    /**
+     * Queue of the current Thread Looper, where the
+     * {@link MessageQueue.IdleHandler}s are added
+     */
+    public static MessageQueue myQueue() {
+        Looper me = myLooper();
+        if ( me == null )
+            throw new IllegalStateException("No Looper; Looper.prepare() wasn't called on this thread");
+        return me.queue;
+    }
+
+    /**
+     * @return  the Looper of the current Thread, or null
+     */
+    public static Looper myLooper() {
+        return looper.get();
+    }
+
+    /**
+     * Dispatches the Messages of the current Thread
+     * Looper until {@link #quit()} is called
+     */
+    public static void loop() {
+        Looper me = myLooper();
+        if ( me == null )
+            throw new IllegalStateException("No Looper; Looper.prepare() wasn't called on this thread");
+        MessageQueue queue = me.queue;
+        for ( ;; ) {
+            Message msg = queue.next();
+            if ( msg == null )
+                break;
+            msg.target.dispatchMessage(msg);
+            msg.recycle();
+        }
+        looper.remove();
+    }
+
+    public MessageQueue getQueue() {
+        return queue;
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public boolean isCurrentThread() {
+        return thread == Thread.currentThread();
+    }
+
+    /**
+     * Stops the loop, dropping every Message
+     */
+    public void quit() {
+        queue.quit(false);
+    }
+
+    /**
+     * Stops the loop after the Messages already due are dispatched
+     */
+    public void quitSafely() {
+        queue.quit(true);
+    }
+
+    @Override
+    public String toString() {
+        return "Looper (" + thread.getName() + ")";
+    }
+}
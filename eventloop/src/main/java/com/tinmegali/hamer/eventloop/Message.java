@@ -0,0 +1,185 @@
+package com.tinmegali.hamer.eventloop;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A Message sent to a {@link Handler}, like android.os.Message.
+ *
+ * Messages should be obtained with {@link #obtain()} or
+ * {@link Handler#obtainMessage()}, taking them from a pool.
+ * The {@link Looper} recycles them back to the pool after they
+ * are handled, so a Message can't be used after its dispatch.
+ *
+ * Unlike android.os.Message, there's no global pool lock: every
+ * Thread has its own lock-free pool. A Message goes back to the
+ * pool of the Thread that obtained it, so the senders and the
+ * Looper Thread never serialize on a lock to reuse Messages.
+ */
+public final class Message {
+
+    // recycled Messages kept by each Thread
+    static final int MAX_POOL_SIZE = 50;
+
+    private static final ThreadLocal<Pool> pools = new ThreadLocal<Pool>() {
+        @Override
+        protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+
+    // uptime when the Message is due, 0 if it's at the front of the queue
+    long when;
+    Handler target;
+    Runnable callback;
+    // next Message on the queue or on the pool
+    Message next;
+    // kind of removal requested on a MpscMessageQueue, 0 for a Message
+    int control;
+    // pool where the Message is recycled, of the Thread that obtained it
+    private Pool pool;
+
+    /**
+     * Prefer {@link #obtain()}, that reuses recycled Messages
+     */
+    public Message() {}
+
+    public static Message obtain() {
+        Pool pool = pools.get();
+        Message msg = pool.pop();
+        if ( msg == null ) {
+            msg = new Message();
+            msg.pool = pool;
+        }
+        return msg;
+    }
+
+    public static Message obtain(Handler target) {
+        Message msg = obtain();
+        msg.target = target;
+        return msg;
+    }
+
+    public static Message obtain(Handler target, int what) {
+        Message msg = obtain(target);
+        msg.what = what;
+        return msg;
+    }
+
+    public static Message obtain(Handler target, int what, Object obj) {
+        Message msg = obtain(target, what);
+        msg.obj = obj;
+        return msg;
+    }
+
+    public static Message obtain(Handler target, int what, int arg1, int arg2, Object obj) {
+        Message msg = obtain(target, what, obj);
+        msg.arg1 = arg1;
+        msg.arg2 = arg2;
+        return msg;
+    }
+
+    public static Message obtain(Handler target, Runnable callback) {
+        Message msg = obtain(target);
+        msg.callback = callback;
+        return msg;
+    }
+
+    public long getWhen() {
+        return when;
+    }
+
+    public Handler getTarget() {
+        return target;
+    }
+
+    public void setTarget(Handler target) {
+        this.target = target;
+    }
+
+    public Runnable getCallback() {
+        return callback;
+    }
+
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+
+    /**
+     * Returns the Message to the pool.
+     * Must not be called for a Message that is on a queue.
+     */
+    public void recycle() {
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        obj = null;
+        when = 0;
+        target = null;
+        callback = null;
+        control = 0;
+        // a Message created with new joins the pool of the Thread recycling it
+        if ( pool == null )
+            pool = pools.get();
+        pool.push(this);
+    }
+
+    /**
+     * Number of Messages on the pool of the current Thread
+     */
+    static int poolSize() {
+        return pools.get().size.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Message{what=" + what + " when=" + when
+                + (callback != null ? " callback=" + callback.getClass().getName() : "") + "}";
+    }
+
+    /**
+     * Recycled Messages of one Thread, a stack linked by {@link #next}.
+     *
+     * Any Thread pushes with a CAS, usually the Looper Thread that
+     * handled the Message. Only the owner Thread pops, so a Message
+     * on the stack can't be popped and pushed back by another Thread
+     * between the read of the head and the CAS: there's no ABA.
+     */
+    private static final class Pool {
+        private final AtomicReference<Message> head = new AtomicReference<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        // called by the owner Thread only
+        Message pop() {
+            for ( ;; ) {
+                Message msg = head.get();
+                if ( msg == null )
+                    return null;
+                if ( head.compareAndSet(msg, msg.next) ) {
+                    msg.next = null;
+                    size.decrementAndGet();
+                    return msg;
+                }
+            }
+        }
+
+        void push(Message msg) {
+            if ( size.incrementAndGet() > MAX_POOL_SIZE ) {
+                // full, left to the garbage collector
+                size.decrementAndGet();
+                msg.next = null;
+                return;
+            }
+            Message current;
+            do {
+                current = head.get();
+                msg.next = current;
+            } while ( !head.compareAndSet(current, msg) );
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.tinmegali.hamer.eventloop;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Messages waiting to be dispatched by a {@link Looper},
+ * ordered by their due time. Messages due at the same time
+ * keep the order they were sent, except the ones sent to
+ * the front of the queue, always placed first.
+ *
+ * Two engines are available, chosen by the {@link Type}
+ * given to {@link Looper#prepare(Type)}:
+ *
+ *      {@link LockedMessageQueue}  a linked list guarded by a lock,
+ *                                  like android.os.MessageQueue
+ *      {@link MpscMessageQueue}    a lock-free inbox drained in batches
+ *                                  by the Looper Thread
+ */
+public abstract class MessageQueue {
+
+    public enum Type {
+        LOCKED,
+        MPSC
+    }
+
+    /**
+     * Called when the queue runs out of due Messages,
+     * before the Looper Thread waits for the next one
+     */
+    public interface IdleHandler {
+        /**
+         * @return  false to be removed
+         */
+        boolean queueIdle();
+    }
+
+    // kinds of removal, see matches()
+    static final int REMOVE_MESSAGES = 1;
+    static final int REMOVE_CALLBACKS = 2;
+    static final int REMOVE_ALL = 3;
+
+    private final CopyOnWriteArrayList<IdleHandler> idleHandlers = new CopyOnWriteArrayList<>();
+
+    static MessageQueue create(Type type) {
+        switch ( type ) {
+            case MPSC:
+                return new MpscMessageQueue();
+            default:
+                return new LockedMessageQueue();
+        }
+    }
+
+    public void addIdleHandler(IdleHandler handler) {
+        idleHandlers.add(handler);
+    }
+
+    public void removeIdleHandler(IdleHandler handler) {
+        idleHandlers.remove(handler);
+    }
+
+    /**
+     * Adds the Message, ordered by its due time
+     * @param when  uptime when it's due, 0 for the front of the queue
+     * @return      false if the queue is quitting, the Message is dropped
+     */
+    abstract boolean enqueueMessage(Message msg, long when);
+
+    /**
+     * Waits for the next due Message. Called by the Looper Thread.
+     * @return  the Message, or null if the queue is quitting
+     */
+    abstract Message next();
+
+    /**
+     * Stops the queue, no Message is accepted after it
+     * @param safe  if true the Messages already due are still
+     *              dispatched, otherwise every Message is dropped
+     */
+    abstract void quit(boolean safe);
+
+    abstract boolean hasMessages(Handler target, int what, Object obj);
+
+    /**
+     * Removes the Messages with the target and what,
+     * and the object if it isn't null
+     */
+    abstract void removeMessages(Handler target, int what, Object obj);
+
+    /**
+     * Removes the posted Runnables of the target,
+     * with the token if it isn't null
+     */
+    abstract void removeCallbacks(Handler target, Runnable callback, Object token);
+
+    /**
+     * Removes every Message of the target, or only
+     * the ones with the token if it isn't null
+     */
+    abstract void removeCallbacksAndMessages(Handler target, Object token);
+
+    public abstract int size();
+
+    /**
+     * @return  true if no Message is due now
+     */
+    public abstract boolean isIdle();
+
+    /**
+     * Runs the {@link IdleHandler}s, removing the ones that return false.
+     * Called by the Looper Thread, without holding any lock.
+     */
+    final void runIdleHandlers() {
+        for ( IdleHandler handler : idleHandlers ) {
+            boolean keep = false;
+            try {
+                keep = handler.queueIdle();
+            } finally {
+                if ( !keep )
+                    idleHandlers.remove(handler);
+            }
+        }
+    }
+
+    /**
+     * @return  true if the Message is removed by a removal
+     *          of the given kind, target, what, callback and object
+     */
+    static boolean matches(Message msg, int kind, Handler target, int what,
+                           Runnable callback, Object obj) {
+        if ( msg.target != target || (obj != null && msg.obj != obj) )
+            return false;
+        switch ( kind ) {
+            case REMOVE_MESSAGES:
+                return msg.callback == null && msg.what == what;
+            case REMOVE_CALLBACKS:
+                return msg.callback == callback;
+            default:
+                return true;
+        }
+    }
+}
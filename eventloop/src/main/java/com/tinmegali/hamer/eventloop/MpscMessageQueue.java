@@ -0,0 +1,304 @@
+package com.tinmegali.hamer.eventloop;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link MessageQueue} built on a lock-free
+ * multi-producer / single-consumer inbox.
+ *
+ * Producers push Messages on the inbox, a stack linked by
+ * {@link Message#next}, with a single CAS. The Looper Thread,
+ * the only consumer, takes the whole inbox at once before each
+ * dispatch, reverses it to the sending order and sorts it into
+ * its private list of pending Messages. No lock is shared,
+ * and a burst of Messages costs one drain. The Messages themselves
+ * come from the per Thread lock-free pools of {@link Message}.
+ *
+ * Removals are pushed on the inbox too, so they are applied in
+ * the order they were requested: a Message sent after a removal
+ * is never removed by it. Since the inbox is drained before every
+ * dispatch, a removed Message is never dispatched after the
+ * removal returns.
+ *
+ * When nothing is due the Looper Thread parks until the first
+ * pending Message is due. Producers only unpark it when
+ * it's parked, so a busy Looper is never signalled.
+ *
+ * The pending list belongs to the Looper Thread, so
+ * {@link #hasMessages(Handler, int, Object)} and {@link #isIdle()}
+ * can only be called on it.
+ */
+class MpscMessageQueue extends MessageQueue {
+
+    // Messages and removals sent since the last drain, newest first
+    private final AtomicReference<Message> inbox = new AtomicReference<>();
+    // Messages on the inbox and pending
+    private final AtomicInteger size = new AtomicInteger();
+
+    // the Looper Thread, the only consumer
+    private final Thread owner;
+    private volatile boolean parked;
+
+    private volatile boolean quitting;
+    private volatile boolean quitSafely;
+    private volatile long quitAt;
+
+    // pending Messages, ordered by due time. Looper Thread only
+    private Message messages;
+    private Message last;
+
+    // statistics, written by the Looper Thread only
+    private volatile long drains;
+    private volatile long drained;
+    private volatile long parks;
+    private final AtomicLong unparks = new AtomicLong();
+
+    MpscMessageQueue() {
+        owner = Thread.currentThread();
+    }
+
+    @Override
+    boolean enqueueMessage(Message msg, long when) {
+        if ( msg.target == null )
+            throw new IllegalArgumentException("Message must have a target");
+        if ( quitting ) {
+            msg.recycle();
+            return false;
+        }
+        msg.when = when;
+        size.incrementAndGet();
+        push(msg);
+        return true;
+    }
+
+    private void push(Message msg) {
+        Message head;
+        do {
+            head = inbox.get();
+            msg.next = head;
+        } while ( !inbox.compareAndSet(head, msg) );
+        // read after the push, the Looper sets 'parked' before
+        // reading the inbox, so one of them sees the other
+        if ( parked ) {
+            unparks.incrementAndGet();
+            LockSupport.unpark(owner);
+        }
+    }
+
+    @Override
+    Message next() {
+        boolean interrupted = false;
+        // the IdleHandlers run once every time the queue gets idle
+        boolean idleHandled = false;
+        try {
+            for ( ;; ) {
+                drain();
+                if ( quitting && !quitSafely )
+                    removeAll();
+                long now = Clock.uptimeMillis();
+                Message msg = messages;
+                // when quitting safely, only the Messages due at the quit
+                if ( msg != null && msg.when <= (quitting ? quitAt : now) ) {
+                    messages = msg.next;
+                    if ( messages == null )
+                        last = null;
+                    msg.next = null;
+                    size.decrementAndGet();
+                    return msg;
+                }
+                if ( quitting ) {
+                    // the Messages not due at the quit were dropped
+                    removeAll();
+                    return null;
+                }
+                if ( !idleHandled ) {
+                    idleHandled = true;
+                    runIdleHandlers();
+                    continue;
+                }
+                parked = true;
+                if ( inbox.get() == null && !quitting ) {
+                    parks++;
+                    if ( msg == null )
+                        LockSupport.park(this);
+                    else
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(msg.when - now));
+                }
+                parked = false;
+                // a Looper is only stopped by quit(), and
+                // an interrupted Thread wouldn't park again
+                if ( Thread.interrupted() )
+                    interrupted = true;
+            }
+        } finally {
+            if ( interrupted )
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // moves the inbox to the pending list, applying the removals
+    private void drain() {
+        if ( inbox.get() == null )
+            return;
+        Message msg = inbox.getAndSet(null);
+        // newest first, reversed to the sending order
+        Message reversed = null;
+        while ( msg != null ) {
+            Message next = msg.next;
+            msg.next = reversed;
+            reversed = msg;
+            msg = next;
+        }
+        drains++;
+        for ( msg = reversed; msg != null; ) {
+            Message next = msg.next;
+            msg.next = null;
+            if ( msg.control != 0 ) {
+                remove(msg.control, msg.target, msg.what, msg.callback, msg.obj);
+                msg.recycle();
+            } else if ( quitting && quitSafely && msg.when > quitAt ) {
+                // sent while quitting, not due at the quit
+                size.decrementAndGet();
+                msg.recycle();
+            } else {
+                insert(msg);
+                drained++;
+            }
+            msg = next;
+        }
+    }
+
+    private void insert(Message msg) {
+        if ( messages == null ) {
+            messages = last = msg;
+        } else if ( msg.when == 0 ) {
+            // front of the queue
+            msg.next = messages;
+            messages = msg;
+        } else if ( last.when <= msg.when ) {
+            // the usual case, due now or after the others
+            last.next = msg;
+            last = msg;
+        } else {
+            Message previous = null;
+            Message current = messages;
+            while ( current.when <= msg.when ) {
+                previous = current;
+                current = current.next;
+            }
+            msg.next = current;
+            if ( previous == null )
+                messages = msg;
+            else
+                previous.next = msg;
+        }
+    }
+
+    private void remove(int kind, Handler target, int what, Runnable callback, Object obj) {
+        Message previous = null;
+        Message msg = messages;
+        while ( msg != null ) {
+            Message next = msg.next;
+            if ( matches(msg, kind, target, what, callback, obj) ) {
+                if ( previous == null )
+                    messages = next;
+                else
+                    previous.next = next;
+                if ( msg == last )
+                    last = previous;
+                size.decrementAndGet();
+                msg.next = null;
+                msg.recycle();
+            } else {
+                previous = msg;
+            }
+            msg = next;
+        }
+    }
+
+    private void removeAll() {
+        while ( messages != null ) {
+            Message msg = messages;
+            messages = msg.next;
+            size.decrementAndGet();
+            msg.next = null;
+            msg.recycle();
+        }
+        last = null;
+    }
+
+    @Override
+    void quit(boolean safe) {
+        if ( quitting )
+            return;
+        quitAt = Clock.uptimeMillis();
+        quitSafely = safe;
+        quitting = true;
+        LockSupport.unpark(owner);
+    }
+
+    private void requestRemoval(int kind, Handler target, int what, Runnable callback, Object obj) {
+        Message removal = Message.obtain(target, what, obj);
+        removal.callback = callback;
+        removal.control = kind;
+        push(removal);
+    }
+
+    @Override
+    void removeMessages(Handler target, int what, Object obj) {
+        requestRemoval(REMOVE_MESSAGES, target, what, null, obj);
+    }
+
+    @Override
+    void removeCallbacks(Handler target, Runnable callback, Object token) {
+        requestRemoval(REMOVE_CALLBACKS, target, 0, callback, token);
+    }
+
+    @Override
+    void removeCallbacksAndMessages(Handler target, Object token) {
+        requestRemoval(REMOVE_ALL, target, 0, null, token);
+    }
+
+    @Override
+    boolean hasMessages(Handler target, int what, Object obj) {
+        checkOwner("hasMessages()");
+        drain();
+        for ( Message msg = messages; msg != null; msg = msg.next ) {
+            if ( matches(msg, REMOVE_MESSAGES, target, what, null, obj) )
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isIdle() {
+        checkOwner("isIdle()");
+        drain();
+        return messages == null || messages.when > Clock.uptimeMillis();
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    private void checkOwner(String method) {
+        if ( Thread.currentThread() != owner )
+            throw new IllegalStateException(method + " must be called on the Looper Thread");
+    }
+
+    /**
+     * Drains of the inbox, Messages drained per drain,
+     * times the Looper parked and producers unparked it
+     */
+    public String getStats() {
+        long drainCount = drains;
+        return "drains=" + drainCount
+                + " batch=" + (drainCount == 0 ? 0 : drained / drainCount)
+                + " parks=" + parks + " unparks=" + unparks.get();
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Pure Java version of the Android HaMeR classes
+ * (Handler, Message, Looper, HandlerThread) used by the app,
+ * with the same post, send and delay semantics.
+ *
+ * It runs on any JVM, so the event loop can be
+ * tested and benchmarked without an Android device.
+ * The Looper can run on the Android like locked queue
+ * or on a lock-free one, see {@link com.tinmegali.hamer.eventloop.MessageQueue.Type}.
+ *
+ * {@link com.tinmegali.hamer.eventloop.ConsistentHashRing} routes keys to a
+ * group of loops, it's used by the app to shard the work of its WorkerThreads.
+ */
+package com.tinmegali.hamer.eventloop;
@@ -0,0 +1,67 @@
+package com.tinmegali.hamer.eventloop;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ConsistentHashRing}
+ */
+public class ConsistentHashRingTest {
+
+    private static final List<String> FOUR = Arrays.asList("a", "b", "c", "d");
+
+    private static String url(int i) {
+        return "https://pixabay.com/static/uploads/photo/2016/08/05/" + i + "_960_720.jpg";
+    }
+
+    // the busiest node over an even split
+    private static double imbalance(long[] counts) {
+        long max = 0;
+        long total = 0;
+        for ( long count : counts ) {
+            max = Math.max(max, count);
+            total += count;
+        }
+        return (double) max * counts.length / total;
+    }
+
+    @Test
+    public void sameKey_sameNode() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(FOUR);
+        for ( int i = 0; i < 100; i++ )
+            assertEquals(ring.get(url(i)), ring.get(url(i)));
+    }
+
+    @Test
+    public void similarUrls_spreadEvenly() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(FOUR);
+        long[] counts = new long[ring.size()];
+        for ( int i = 0; i < 10000; i++ )
+            counts[ring.indexFor(url(i))]++;
+        for ( long count : counts )
+            assertTrue(Arrays.toString(counts), count > 0);
+        assertTrue(Arrays.toString(counts), imbalance(counts) < 1.3);
+    }
+
+    @Test
+    public void newNode_onlyTakesKeys() {
+        ConsistentHashRing<String> three = new ConsistentHashRing<>(FOUR.subList(0, 3));
+        ConsistentHashRing<String> four = new ConsistentHashRing<>(FOUR);
+        int moved = 0;
+        for ( int i = 0; i < 10000; i++ ) {
+            String before = three.get(url(i));
+            String after = four.get(url(i));
+            if ( !before.equals(after) ) {
+                // a key only moves to the new node
+                assertEquals("d", after);
+                moved++;
+            }
+        }
+        // about a quarter of the keys
+        assertTrue("moved " + moved, moved > 1500 && moved < 3500);
+    }
+}
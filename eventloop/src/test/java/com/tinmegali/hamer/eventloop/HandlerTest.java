@@ -0,0 +1,251 @@
+package com.tinmegali.hamer.eventloop;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the {@link Handler}, {@link Looper} and {@link MessageQueue},
+ * run on every {@link MessageQueue.Type}
+ */
+@RunWith(Parameterized.class)
+public class HandlerTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> queueTypes() {
+        List<Object[]> types = new ArrayList<>();
+        for ( MessageQueue.Type type : MessageQueue.Type.values() )
+            types.add(new Object[]{ type });
+        return types;
+    }
+
+    private final MessageQueue.Type queueType;
+
+    public HandlerTest(MessageQueue.Type queueType) {
+        this.queueType = queueType;
+    }
+
+    private HandlerThread thread;
+    private Handler handler;
+    // Messages handled, in order
+    private final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Before
+    public void setUp() {
+        thread = new HandlerThread("test", queueType);
+        thread.start();
+        handler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                handled.add(msg.what);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        thread.quit();
+    }
+
+    // waits for everything sent before it
+    private void sync() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void postAndSend_shareTheQueueOrder() throws Exception {
+        handler.sendEmptyMessage(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handled.add(2);
+            }
+        });
+        handler.sendMessage(handler.obtainMessage(3));
+        sync();
+        assertEquals(Arrays.asList(1, 2, 3), handled);
+    }
+
+    @Test
+    public void delayedMessages_areOrderedByDueTime() throws Exception {
+        long now = Clock.uptimeMillis();
+        handler.sendEmptyMessageAtTime(3, now + 60);
+        handler.sendEmptyMessageDelayed(2, 30);
+        handler.sendEmptyMessage(1);
+        Thread.sleep(100);
+        sync();
+        assertEquals(Arrays.asList(1, 2, 3), handled);
+    }
+
+    @Test
+    public void frontOfQueue_isDispatchedFirst() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        handler.sendEmptyMessage(1);
+        handler.sendMessageAtFrontOfQueue(handler.obtainMessage(2));
+        blocked.countDown();
+        sync();
+        assertEquals(Arrays.asList(2, 1), handled);
+    }
+
+    @Test
+    public void removedMessages_areNotDispatched() throws Exception {
+        handler.sendEmptyMessageDelayed(1, 50);
+        handler.sendEmptyMessageDelayed(2, 50);
+        handler.removeMessages(1);
+        Thread.sleep(100);
+        sync();
+        assertEquals(Collections.singletonList(2), handled);
+    }
+
+    @Test
+    public void hasMessages_onTheLooperThread() throws Exception {
+        final boolean[] found = new boolean[2];
+        handler.sendEmptyMessageDelayed(1, 10000);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                found[0] = handler.hasMessages(1);
+                handler.removeMessages(1);
+                found[1] = handler.hasMessages(1);
+            }
+        });
+        sync();
+        assertTrue(found[0]);
+        assertFalse(found[1]);
+    }
+
+    @Test
+    public void quitSafely_dispatchesDueMessages_only() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        handler.sendEmptyMessage(1);
+        handler.sendEmptyMessageDelayed(2, 10000);
+        thread.quitSafely();
+        assertFalse(handler.sendEmptyMessage(3));
+        blocked.countDown();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertEquals(Collections.singletonList(1), handled);
+    }
+
+    @Test
+    public void callback_handlesBeforeHandleMessage() throws Exception {
+        handler = new Handler(thread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                handled.add(-msg.what);
+                return msg.what == 1;
+            }
+        }) {
+            @Override
+            public void handleMessage(Message msg) {
+                handled.add(msg.what);
+            }
+        };
+        handler.sendEmptyMessage(1);
+        handler.sendEmptyMessage(2);
+        sync();
+        assertEquals(Arrays.asList(-1, -2, 2), handled);
+    }
+
+    @Test
+    public void messageSentAfterRemoval_isKept() throws Exception {
+        handler.sendEmptyMessageDelayed(1, 30);
+        handler.removeMessages(1);
+        handler.sendEmptyMessageDelayed(1, 30);
+        Thread.sleep(60);
+        sync();
+        assertEquals(Collections.singletonList(1), handled);
+    }
+
+    @Test
+    public void manyProducers_keepTheirOwnOrder() throws Exception {
+        final int producers = 4;
+        final int messages = 5000;
+        final List<List<Integer>> received = new ArrayList<>();
+        for ( int p = 0; p < producers; p++ )
+            received.add(new ArrayList<Integer>());
+        handler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                // only the Looper Thread writes
+                received.get(msg.arg1).add(msg.arg2);
+            }
+        };
+        Thread[] threads = new Thread[producers];
+        for ( int p = 0; p < producers; p++ ) {
+            final int producer = p;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for ( int i = 0; i < messages; i++ )
+                        handler.sendMessage(handler.obtainMessage(0, producer, i));
+                }
+            };
+            threads[p].start();
+        }
+        for ( Thread producer : threads )
+            producer.join();
+        sync();
+        for ( List<Integer> sequence : received ) {
+            assertEquals(messages, sequence.size());
+            for ( int i = 0; i < messages; i++ )
+                assertEquals(i, (int) sequence.get(i));
+        }
+    }
+
+    @Test
+    public void idleHandler_runsWhenTheQueueIsEmpty() throws Exception {
+        final CountDownLatch idle = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+                    @Override
+                    public boolean queueIdle() {
+                        idle.countDown();
+                        return false;
+                    }
+                });
+            }
+        });
+        assertTrue(idle.await(5, TimeUnit.SECONDS));
+    }
+}
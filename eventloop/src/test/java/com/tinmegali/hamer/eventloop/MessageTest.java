@@ -0,0 +1,62 @@
+package com.tinmegali.hamer.eventloop;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the per Thread pools of {@link Message}
+ */
+public class MessageTest {
+
+    // obtains a Message on a new Thread
+    private static Message obtainOnOtherThread() throws InterruptedException {
+        final AtomicReference<Message> obtained = new AtomicReference<>();
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                obtained.set(Message.obtain());
+            }
+        });
+        other.start();
+        other.join();
+        return obtained.get();
+    }
+
+    @Test
+    public void recycledMessage_isReusedAndCleared() {
+        Message msg = Message.obtain();
+        msg.what = 7;
+        msg.obj = "payload";
+        msg.recycle();
+
+        Message reused = Message.obtain();
+        assertSame(msg, reused);
+        assertEquals(0, reused.what);
+        assertNull(reused.obj);
+    }
+
+    @Test
+    public void message_goesBackToThePoolOfItsThread() throws Exception {
+        Message other = obtainOnOtherThread();
+        int before = Message.poolSize();
+        // recycled here, like a Looper Thread would
+        other.recycle();
+        assertEquals(before, Message.poolSize());
+        assertNotSame(other, Message.obtain());
+    }
+
+    @Test
+    public void pool_isBounded() {
+        List<Message> messages = new ArrayList<>();
+        for ( int i = 0; i < Message.MAX_POOL_SIZE * 2; i++ )
+            messages.add(Message.obtain());
+        for ( Message msg : messages )
+            msg.recycle();
+        assertEquals(Message.MAX_POOL_SIZE, Message.poolSize());
+    }
+}